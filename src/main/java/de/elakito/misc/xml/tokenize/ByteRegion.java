@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only byte region backed by one or more byte buffers, such as the memory mapped 
+ * windows of a file larger than a single buffer.
+ */
+class ByteRegion {
+    // the size of a mapped window
+    private static final int WINDOW_BITS = 30;
+    private static final long WINDOW_MASK = (1L << WINDOW_BITS) - 1;
+
+    private final ByteBuffer[] windows;
+    private final long size;
+
+    ByteRegion(ByteBuffer buffer) {
+        this.windows = new ByteBuffer[]{buffer.slice()};
+        this.size = windows[0].remaining();
+        if (size > WINDOW_MASK + 1) {
+            throw new IllegalArgumentException("buffer too large");
+        }
+    }
+
+    private ByteRegion(ByteBuffer[] windows, long size) {
+        this.windows = windows;
+        this.size = size;
+    }
+
+    /**
+     * Maps the whole file into windows.
+     */
+    static ByteRegion map(FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final int n = (int)((size + WINDOW_MASK) >>> WINDOW_BITS);
+        ByteBuffer[] windows = new ByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            final long pos = (long)i << WINDOW_BITS;
+            windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(size - pos, WINDOW_MASK + 1));
+        }
+        return new ByteRegion(windows, size);
+    }
+
+    long size() {
+        return size;
+    }
+
+    byte get(long pos) {
+        return windows[(int)(pos >>> WINDOW_BITS)].get((int)(pos & WINDOW_MASK));
+    }
+
+    /**
+     * Returns the position of the first occurrence of the byte in [from, to) or -1.
+     */
+    long indexOf(byte b, long from, long to) {
+        for (long p = from; p < to; p++) {
+            if (get(p) == b) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position of the first occurrence of the ascii string in [from, to) or -1.
+     */
+    long indexOf(String s, long from, long to) {
+        final byte b = (byte)s.charAt(0);
+        final int n = s.length();
+        for (long p = indexOf(b, from, to); p >= 0 && p + n <= to; p = indexOf(b, p + 1, to)) {
+            if (startsWith(s, p)) {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    boolean startsWith(String s, long pos) {
+        final int n = s.length();
+        if (pos + n > size) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            if (get(pos + i) != (byte)s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the position after the specified number of chars starting at the position. The width is 
+     * the number of bytes per char of a single byte charset or 0 for utf-8, in which case the chars 
+     * are counted as decoded by a reader, with a supplementary character counting as two chars.
+     */
+    long skipChars(long from, long chars, int width) {
+        if (width > 0) {
+            return from + chars * width;
+        }
+        long p = from;
+        long c = 0;
+        while (c < chars && p < size) {
+            final int v = get(p) & 0xff;
+            if (v < 0xc0) {
+                // ascii or a misplaced continuation byte
+                p++;
+                c++;
+            } else if (v < 0xe0) {
+                p += 2;
+                c++;
+            } else if (v < 0xf0) {
+                p += 3;
+                c++;
+            } else {
+                p += 4;
+                c += 2;
+            }
+        }
+        return p < size ? p : size;
+    }
+
+    void getBytes(long from, long to, byte[] dst, int dbegin) {
+        while (from < to) {
+            ByteBuffer w = windows[(int)(from >>> WINDOW_BITS)].duplicate();
+            final int o = (int)(from & WINDOW_MASK);
+            final int n = (int)Math.min(to - from, w.limit() - o);
+            w.position(o);
+            w.get(dst, dbegin, n);
+            dbegin += n;
+            from += n;
+        }
+    }
+
+    byte[] getBytes(long from, long to) {
+        byte[] b = new byte[(int)(to - from)];
+        getBytes(from, to, b, 0);
+        return b;
+    }
+
+    /**
+     * Returns an input stream reading [from, to) of this region.
+     */
+    InputStream openStream(final long from, final long to) {
+        return new InputStream() {
+            private long pos = from;
+
+            @Override
+            public int read() throws IOException {
+                return pos < to ? get(pos++) & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (pos >= to) {
+                    return -1;
+                }
+                final int n = (int)Math.min(len, to - pos);
+                getBytes(pos, pos + n, b, off);
+                pos += n;
+                return n;
+            }
+
+            @Override
+            public int available() throws IOException {
+                return (int)Math.min(Integer.MAX_VALUE, to - pos);
+            }
+        };
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+/**
+ * A char sequence view over the bytes of an ascii compatible encoding. Each byte is
+ * presented as the char of the same value so that the markup characters can be located
+ * without decoding the bytes.
+ */
+class ByteSequence implements CharSequence {
+    private final byte[] buf;
+    private final int offset;
+    private final int count;
+
+    ByteSequence(byte[] buf) {
+        this(buf, 0, buf.length);
+    }
+
+    ByteSequence(byte[] buf, int offset, int count) {
+        this.buf = buf;
+        this.offset = offset;
+        this.count = count;
+    }
+
+    @Override
+    public int length() {
+        return count;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char)(buf[offset + index] & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new ByteSequence(buf, offset + start, end - start);
+    }
+
+    byte[] getBytes() {
+        return buf;
+    }
+
+    int getOffset() {
+        return offset;
+    }
+
+    byte[] toByteArray() {
+        if (offset == 0 && count == buf.length) {
+            return buf;
+        }
+        byte[] b = new byte[count];
+        System.arraycopy(buf, offset, b, 0, count);
+        return b;
+    }
+
+    @Override
+    public String toString() {
+        char[] c = new char[count];
+        for (int i = 0; i < count; i++) {
+            c[i] = (char)(buf[offset + i] & 0xff);
+        }
+        return new String(c);
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An immutable scope of the namespace declarations. A new scope is only created for an element
+ * that declares namespaces, while the other elements share the scope of their parent element.
+ * The serialized forms of the in-scope and inherited bindings are cached per scope so that they 
+ * can be reused for all the tokens extracted within the same scope.
+ * 
+ * The bindings are serialized with the default namespace first, followed by the bindings
+ * of the outer scopes before those of the inner scopes.
+ */
+final class NamespaceScope {
+    static final NamespaceScope EMPTY = new NamespaceScope(null, new String[0], new String[0]);
+
+    private final NamespaceScope parent;
+    private final String[] prefixes;
+    private final String[] uris;
+    // the cached bindings and inherited bindings quoted with '"' and '\''
+    private String dqbindings;
+    private String sqbindings;
+    private String dqinherited;
+    private String sqinherited;
+
+    private NamespaceScope(NamespaceScope parent, String[] prefixes, String[] uris) {
+        this.parent = parent;
+        this.prefixes = prefixes;
+        this.uris = uris;
+    }
+
+    /**
+     * Returns the scope of the current element of the lexer, which is this scope 
+     * if the element does not declare any namespace.
+     * 
+     * @param lexer the lexer positioned at a start element
+     * @return the scope of the element
+     */
+    NamespaceScope push(XMLLexer lexer) {
+        final int n = lexer.getNamespaceCount();
+        if (n == 0) {
+            return this;
+        }
+        String[] pfxs = new String[n];
+        String[] nss = new String[n];
+        for (int i = 0; i < n; i++) {
+            pfxs[i] = lexer.getNamespacePrefix(i);
+            nss[i] = lexer.getNamespaceURI(i);
+        }
+        return push(pfxs, nss);
+    }
+
+    private NamespaceScope push(String[] pfxs, String[] nss) {
+        for (int i = 0; i < pfxs.length; i++) {
+            if (pfxs[i] == null) {
+                pfxs[i] = "";
+            }
+            if (nss[i] == null) {
+                nss[i] = "";
+            }
+        }
+        return new NamespaceScope(this, pfxs, nss);
+    }
+
+    /**
+     * Returns the serialized bindings of this scope.
+     * 
+     * @param quote the quote character
+     * @return the bindings in the form of ' xmlns:p="uri"'
+     */
+    String getBindings(char quote) {
+        if (quote == '\'') {
+            if (sqbindings == null) {
+                sqbindings = serialize(quote, null);
+            }
+            return sqbindings;
+        } else {
+            if (dqbindings == null) {
+                dqbindings = serialize(quote, null);
+            }
+            return dqbindings;
+        }
+    }
+
+    /**
+     * Returns the serialized bindings of the enclosing scopes that are not redeclared in this scope.
+     * These are the bindings to be added to the element that has declared this scope.
+     * 
+     * @param quote the quote character
+     * @return the bindings in the form of ' xmlns:p="uri"'
+     */
+    String getInheritedBindings(char quote) {
+        if (parent == null) {
+            return "";
+        } else if (quote == '\'') {
+            if (sqinherited == null) {
+                sqinherited = parent.serialize(quote, prefixes);
+            }
+            return sqinherited;
+        } else {
+            if (dqinherited == null) {
+                dqinherited = parent.serialize(quote, prefixes);
+            }
+            return dqinherited;
+        }
+    }
+
+    /**
+     * Returns the serialized declarations made by this scope in their declared order.
+     * 
+     * @param quote the quote character
+     * @return the declarations in the form of ' xmlns:p="uri"' with the uris escaped
+     */
+    String getDeclarations(char quote) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < prefixes.length; i++) {
+            append(sb, prefixes[i], escape(uris[i], quote), quote);
+        }
+        return sb.toString();
+    }
+
+    private static String escape(String uri, char quote) {
+        StringBuilder sb = null;
+        for (int i = 0; i < uri.length(); i++) {
+            final char c = uri.charAt(i);
+            String rep = c == '&' ? "&amp;" : c == '<' ? "&lt;" : c == quote ? (c == '"' ? "&quot;" : "&apos;") : null;
+            if (rep != null) {
+                if (sb == null) {
+                    sb = new StringBuilder(uri.length() + 8).append(uri, 0, i);
+                }
+                sb.append(rep);
+            } else if (sb != null) {
+                sb.append(c);
+            }
+        }
+        return sb == null ? uri : sb.toString();
+    }
+
+    private String serialize(char quote, String[] skip) {
+        // collect the effective bindings from the innermost scope, which results in the reverse order
+        Set<String> seen = new HashSet<String>();
+        if (skip != null) {
+            for (String pfx : skip) {
+                seen.add(pfx);
+            }
+        }
+        List<String> bindings = new ArrayList<String>();
+        for (NamespaceScope s = this; s != null; s = s.parent) {
+            for (int i = 0; i < s.prefixes.length; i++) {
+                if (seen.add(s.prefixes[i])) {
+                    bindings.add(s.prefixes[i]);
+                    bindings.add(s.uris[i]);
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = bindings.size() - 2; i >= 0; i -= 2) {
+            if (bindings.get(i).length() == 0) {
+                append(sb, bindings.get(i), bindings.get(i + 1), quote);
+            }
+        }
+        for (int i = bindings.size() - 2; i >= 0; i -= 2) {
+            if (bindings.get(i).length() > 0) {
+                append(sb, bindings.get(i), bindings.get(i + 1), quote);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void append(StringBuilder sb, String prefix, String uri, char quote) {
+        sb.append(prefix.length() == 0 ? " xmlns" : " xmlns:").append(prefix)
+            .append('=').append(quote).append(uri).append(quote);
+    }
+}
@@ -0,0 +1,428 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+import javax.xml.stream.XMLStreamException;
+
+import de.elakito.misc.xml.util.RecordableInputStream;
+
+/**
+ * A tokenizer that is fed with the chunks of a document as they arrive and returns the tokens as soon
+ * as they are complete without blocking for more input. This allows a single thread to serve many 
+ * documents received in fragments.
+ * 
+ * The fed bytes are tokenized by an XMLTokenIterator reading them as its mapped input. When the iterator 
+ * reaches the end of the fed bytes, it is discarded and a new iterator later resumes from the last checkpoint, 
+ * which is taken after each returned token and at the start tags outside the tokens at some distance apart.
+ * Only the bytes from that checkpoint are kept. The new bytes are scanned without being parsed, so that 
+ * the iterator is only created again once they may complete a token: within a pending token, once its end 
+ * tag has been fed, and otherwise, once a start tag having the local name of the last step of the path has 
+ * been fed, or once enough bytes have been fed to move the checkpoint forward. As the iterator looks ahead, 
+ * a token is returned once the markup following its end tag has been fed. An error in the document is 
+ * reported when the iterator fails before reaching the end of the fed bytes or at the end of the input.
+ * 
+ * The document must be encoded in utf-8 or in an ascii compatible single byte charset. The tokens
+ * are not grouped. This class is not thread-safe.
+ */
+public class NonBlockingXMLTokenizer implements Closeable {
+    // the bytes fed outside a token before the iterator is created again to move the checkpoint forward
+    private static final int RESTART_SIZE = 64 * 1024;
+    // the minimum distance between the checkpoints taken at the start tags outside the tokens
+    private static final int CHECKPOINT_INTERVAL = 4096;
+
+    private final XMLTokenPath path;
+    private final char mode;
+    private final String charset;
+    private final boolean binary;
+    // the local name of the start tags that may begin a token or null for any
+    private final byte[] local;
+
+    private byte[] buf = new byte[8192];
+    private int len;
+    private boolean ended;
+    private boolean finished;
+    // whether the bytes fed since the last restart may complete a token
+    private boolean progress = true;
+    // the scanner of the bytes fed since the last restart or null to restart at any '>'
+    private PendingScanner pending;
+    // the number of the bytes fed since the last restart
+    private int fed;
+    // the number of the iterators created
+    private int restarts;
+    private XMLTokenIterator tokenizer;
+    // the checkpoint after the last returned token with its offset in buf
+    private XMLTokenCheckpoint checkpoint;
+
+    /**
+     * Constructs a non-blocking tokenizer.
+     * 
+     * @param path the compiled path
+     * @param mode the extraction mode. One of 'i', 'w', 'u', and 't', representing inject, wrap, unwrap, and text
+     * @param charset the character encoding of the document
+     * @param binary true to extract the tokens as byte arrays, false to extract them as strings
+     * @throws UnsupportedEncodingException if the charset is not ascii compatible
+     */
+    public NonBlockingXMLTokenizer(XMLTokenPath path, char mode, String charset, boolean binary) 
+        throws UnsupportedEncodingException {
+        if (!RecordableInputStream.supportsBytePosition(charset)) {
+            throw new UnsupportedEncodingException("non-blocking mode not supported for charset " + charset);
+        }
+        this.path = path;
+        this.mode = mode != 0 ? mode : 'i';
+        this.charset = charset;
+        this.binary = binary;
+        final String lp = path.getLastLocalPart();
+        this.local = lp == null ? null : lp.getBytes(charset);
+    }
+
+    /**
+     * Feeds the remaining bytes of the buffer, which are consumed.
+     * 
+     * @param data the next chunk of the document
+     */
+    public void feed(ByteBuffer data) {
+        if (ended) {
+            throw new IllegalStateException("end of input already signaled");
+        }
+        final int n = data.remaining();
+        if (len + n > buf.length) {
+            // allocate a new buffer as the current iterator may still read the current one
+            byte[] b = new byte[Math.max(len + n, buf.length << 1)];
+            System.arraycopy(buf, 0, b, 0, len);
+            buf = b;
+        }
+        data.get(buf, len, n);
+        fed += n;
+        if (pending != null && (pending.scan(buf, len + n) || (!pending.isToken() && fed >= RESTART_SIZE))) {
+            progress = true;
+        }
+        for (int i = len; i < len + n && !progress && pending == null; i++) {
+            // a token can only be completed by the '>' of its end tag
+            progress = buf[i] == '>';
+        }
+        len += n;
+    }
+
+    /**
+     * Signals that the whole document has been fed.
+     */
+    public void endOfInput() {
+        ended = true;
+        progress = true;
+    }
+
+    /**
+     * Returns true if the document has been tokenized to its end.
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Returns the next complete token or null if no token can be completed with the bytes fed so far or 
+     * the document has been tokenized to its end.
+     * 
+     * @return the next token or null
+     * @throws XMLStreamException if the document is invalid
+     */
+    public Object pollToken() throws XMLStreamException {
+        while (!finished) {
+            if (tokenizer == null) {
+                if (!progress || !restart()) {
+                    return null;
+                }
+            }
+            try {
+                if (tokenizer.hasNext()) {
+                    Object token = tokenizer.next();
+                    checkpoint = tokenizer.getCheckpoint();
+                    return token;
+                }
+                finish();
+            } catch (RuntimeException e) {
+                if (ended || !tokenizer.isInputExhausted()) {
+                    finish();
+                    throw toXMLStreamException(e);
+                }
+                // wait for more input and resume from the last checkpoint
+                long pos = tokenizer.getPendingPosition();
+                final XMLTokenCheckpoint last = tokenizer.getLastCheckpoint();
+                discard();
+                if (last != null && (checkpoint == null || last.getOffset() > checkpoint.getOffset())) {
+                    checkpoint = last;
+                }
+                pos -= compact();
+                if (pos >= 0) {
+                    pending = new PendingScanner(pos, true, null, 0);
+                    if (pending.scan(buf, len)) {
+                        // the token looks complete, so the iterator needs more than its next event
+                        pending = null;
+                    }
+                } else {
+                    // the last markup may not have been parsed yet
+                    final int start = checkpoint != null ? (int)checkpoint.getOffset() : 0;
+                    int frontier = len;
+                    while (frontier > start && buf[frontier - 1] != '<') {
+                        frontier--;
+                    }
+                    pending = new PendingScanner(start, false, local, frontier > start ? frontier - 1 : len);
+                    pending.scan(buf, len);
+                }
+            }
+        }
+        return null;
+    }
+
+    int getRestartCount() {
+        return restarts;
+    }
+
+    int getBufferedLength() {
+        return len;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        discard();
+        buf = null;
+    }
+
+    private boolean restart() throws XMLStreamException {
+        progress = false;
+        pending = null;
+        fed = 0;
+        restarts++;
+        compact();
+        try {
+            tokenizer = new XMLTokenIterator(path, mode, new ByteRegion(ByteBuffer.wrap(buf, 0, len)), 
+                                             charset, binary, checkpoint);
+            tokenizer.setCheckpointInterval(CHECKPOINT_INTERVAL);
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        } catch (XMLStreamException e) {
+            return retry(e);
+        } catch (RuntimeException e) {
+            return retry(e);
+        }
+        return true;
+    }
+
+    // the lexer may read ahead while being created, so its failure is only reported at the end of input
+    private boolean retry(Exception e) throws XMLStreamException {
+        if (ended) {
+            finished = true;
+            throw e instanceof XMLStreamException ? (XMLStreamException)e : toXMLStreamException((RuntimeException)e);
+        }
+        return false;
+    }
+
+    private static XMLStreamException toXMLStreamException(RuntimeException e) {
+        return e.getCause() instanceof XMLStreamException ? (XMLStreamException)e.getCause() 
+            : new XMLStreamException(e.getCause() != null ? e.getCause() : e);
+    }
+
+    private void finish() {
+        finished = true;
+        discard();
+    }
+
+    /**
+     * Drops the bytes before the checkpoint and returns their number.
+     */
+    private int compact() {
+        if (checkpoint == null || checkpoint.getOffset() == 0) {
+            return 0;
+        }
+        final int offset = (int)checkpoint.getOffset();
+        System.arraycopy(buf, offset, buf, 0, len - offset);
+        len -= offset;
+        checkpoint = checkpoint.rebase(offset);
+        return offset;
+    }
+
+    private void discard() {
+        if (tokenizer != null) {
+            try {
+                tokenizer.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            tokenizer = null;
+        }
+    }
+
+    /**
+     * Scans the bytes fed from the start tag of a pending token without parsing them, to find when 
+     * the token is ended and followed by complete markup, or scans the bytes fed outside a token to find 
+     * a start tag that may begin a token after the frontier up to which the bytes have been parsed.
+     * The comments, the CDATA sections, the PIs, and the attribute values are skipped so that their 
+     * content is not taken as tags.
+     */
+    private static final class PendingScanner {
+        private static final int TEXT = 0;
+        private static final int MARKUP = 1;
+        private static final int START_TAG = 2;
+        private static final int VALUE = 3;
+        private static final int END_TAG = 4;
+        private static final int DECLARATION = 5;
+        private static final int COMMENT_START = 6;
+        private static final int COMMENT = 7;
+        private static final int CDATA = 8;
+        private static final int PI = 9;
+        private static final int OTHER = 10;
+
+        private final boolean token;
+        private final byte[] local;
+        private final int frontier;
+        private int pos;
+        private int tagstart;
+        private int state = TEXT;
+        private int depth;
+        private byte quote;
+        private byte last;
+        // the number of the consecutive '-' or ']' before a possible end of a comment or a CDATA section
+        private int count;
+        private boolean ended;
+        private boolean ready;
+
+        PendingScanner(long pos, boolean token, byte[] local, int frontier) {
+            this.pos = (int)pos;
+            this.token = token;
+            this.local = local;
+            this.frontier = frontier;
+        }
+
+        /**
+         * Returns true if scanning a pending token.
+         */
+        boolean isToken() {
+            return token;
+        }
+
+        /**
+         * Scans the bytes up to the limit and returns true if the token may be complete.
+         */
+        boolean scan(byte[] buf, int limit) {
+            for (; pos < limit && !ready; pos++) {
+                final byte b = buf[pos];
+                switch (state) {
+                case TEXT:
+                    if (b == '<') {
+                        tagstart = pos;
+                        state = MARKUP;
+                    }
+                    break;
+                case MARKUP:
+                    state = b == '/' ? END_TAG : b == '!' ? DECLARATION : b == '?' ? PI : START_TAG;
+                    break;
+                case START_TAG:
+                    if (b == '"' || b == '\'') {
+                        quote = b;
+                        state = VALUE;
+                    } else if (b == '>') {
+                        if (last != '/') {
+                            depth++;
+                        }
+                        if (!token && tagstart >= frontier && hasLocalName(buf, tagstart + 1)) {
+                            ready = true;
+                        }
+                        endMarkup(token && depth == 0);
+                    }
+                    break;
+                case VALUE:
+                    if (b == quote) {
+                        state = START_TAG;
+                    }
+                    break;
+                case END_TAG:
+                    if (b == '>') {
+                        depth--;
+                        endMarkup(token && depth == 0);
+                    }
+                    break;
+                case DECLARATION:
+                    count = 0;
+                    state = b == '-' ? COMMENT_START : b == '[' ? CDATA : OTHER;
+                    break;
+                case COMMENT_START:
+                    state = COMMENT;
+                    break;
+                case COMMENT:
+                case CDATA:
+                    if (b == (state == COMMENT ? '-' : ']')) {
+                        count++;
+                    } else if (b == '>' && count >= 2) {
+                        endMarkup(false);
+                    } else {
+                        count = 0;
+                    }
+                    break;
+                case PI:
+                    if (b == '>' && last == '?') {
+                        endMarkup(false);
+                    }
+                    break;
+                default:
+                    if (b == '>') {
+                        endMarkup(false);
+                    }
+                    break;
+                }
+                last = b;
+            }
+            return ready;
+        }
+
+        private boolean hasLocalName(byte[] buf, int p) {
+            if (local == null) {
+                return true;
+            }
+            int e = p;
+            while (buf[e] != '>' && buf[e] != '/' && buf[e] > ' ') {
+                if (buf[e++] == ':') {
+                    p = e;
+                }
+            }
+            if (e - p != local.length) {
+                return false;
+            }
+            for (int i = 0; i < local.length; i++) {
+                if (buf[p + i] != local[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void endMarkup(boolean closing) {
+            // the iterator reads the event following the end tag of the token
+            if (ended) {
+                ready = true;
+            }
+            ended |= closing;
+            state = TEXT;
+        }
+    }
+}
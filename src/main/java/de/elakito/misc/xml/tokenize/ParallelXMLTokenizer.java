@@ -0,0 +1,575 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+import de.elakito.misc.xml.util.RecordableInputStream;
+
+/**
+ * A tokenizer that extracts the tokens of a large document in parallel. The document is split into
+ * chunks of about the configured size and each split is moved forward to the next start tag having 
+ * the local name of the last step of the path. The element structure of the chunks is scanned in 
+ * parallel and combined to determine the ancestor elements at each chunk boundary. A boundary that
+ * does not start a matched element, such as one lying within a comment, a CDATA section, or 
+ * another matched element, is dropped. Each chunk is then tokenized by its own XMLTokenIterator in a fork/join pool 
+ * with its ancestor start tags prepended and their end tags appended, so that the namespace bindings
+ * injected into the tokens are identical to those of the sequential extraction.
+ * 
+ * The tokens of each chunk are passed to the calling thread through a queue holding a bounded number
+ * of tokens, and only as many chunks as the parallelism are tokenized ahead of the chunk being passed 
+ * to the sink in the ordered mode, so that the memory used does not grow with the size of the document.
+ * 
+ * The wrap mode is not supported, as the context of a token in the sequential extraction includes 
+ * the preceding sibling elements without tokens, which cannot be determined at a chunk boundary.
+ * The document must be encoded in utf-8 or in an ascii compatible single byte charset. The tokens
+ * are not grouped.
+ */
+public class ParallelXMLTokenizer {
+    private static final long DEFAULT_CHUNK_SIZE = 64L << 20;
+    // the maximum number of tokens queued for a chunk
+    private static final int QUEUE_CAPACITY = 256;
+    // the entry following the tokens of a chunk in its queue
+    private static final Object END = new Object();
+
+    private final XMLTokenPath path;
+    private final char mode;
+    private final String charset;
+    private final boolean binary;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private long chunkSize = DEFAULT_CHUNK_SIZE;
+    private boolean ordered = true;
+
+    /**
+     * Constructs a parallel tokenizer.
+     * 
+     * @param path the compiled path
+     * @param mode the extraction mode. One of 'i', 'u', and 't', representing inject, unwrap, and text
+     * @param charset the character encoding of the documents
+     * @param binary true to extract the tokens as byte arrays, false to extract them as strings
+     * @throws UnsupportedEncodingException if the charset is not ascii compatible
+     * @throws IllegalArgumentException if the mode is the wrap mode 'w'
+     */
+    public ParallelXMLTokenizer(XMLTokenPath path, char mode, String charset, boolean binary) 
+        throws UnsupportedEncodingException {
+        if (mode == 'w') {
+            throw new IllegalArgumentException("wrap mode not supported in parallel mode");
+        }
+        if (!RecordableInputStream.supportsBytePosition(charset)) {
+            throw new UnsupportedEncodingException("parallel mode not supported for charset " + charset);
+        }
+        this.path = path;
+        this.mode = mode != 0 ? mode : 'i';
+        this.charset = charset;
+        this.binary = binary;
+    }
+
+    /**
+     * Sets the number of threads used for tokenizing. The default is the number of processors.
+     * 
+     * @param parallelism the number of threads
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the approximate size of the chunks in bytes. The default is 64MB.
+     * 
+     * @param chunkSize the chunk size
+     */
+    public void setChunkSize(long chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive");
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Sets whether the tokens are passed to the sink in the document order. Otherwise, the tokens of 
+     * the chunks are passed as soon as they are extracted. The default is true.
+     * 
+     * @param ordered true to keep the document order
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    /**
+     * Extracts the tokens of the file and passes them to the sink. The file is memory mapped.
+     * The sink is called by the calling thread.
+     * 
+     * @param file the file
+     * @param sink the token sink
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public void tokenize(File file, TokenSink sink) throws XMLStreamException, IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            tokenize(ByteRegion.map(raf.getChannel()), sink);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Extracts the tokens of the document in the buffer, such as a memory mapped region, and passes 
+     * them to the sink. The document is read from the position to the limit of the buffer.
+     * The sink is called by the calling thread.
+     * 
+     * @param buffer the buffer
+     * @param sink the token sink
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public void tokenize(ByteBuffer buffer, TokenSink sink) throws XMLStreamException, IOException {
+        tokenize(new ByteRegion(buffer), sink);
+    }
+
+    private void tokenize(ByteRegion src, TokenSink sink) throws XMLStreamException, IOException {
+        final long[] starts = split(src);
+        List<Chunk> chunks;
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            XMLStructureScanner.Result[] results = new XMLStructureScanner.Result[starts.length];
+            pool.invoke(new ScanTask(src, starts, results, 0, starts.length));
+            chunks = combine(src, starts, results);
+        } finally {
+            pool.shutdown();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            if (ordered) {
+                deliverOrdered(src, chunks, sink, executor);
+            } else {
+                deliverUnordered(src, chunks, sink, executor);
+            }
+        } finally {
+            // release the tasks blocked in queuing their tokens when the delivery has failed
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Passes the tokens of each chunk in turn while only the chunks within the parallelism ahead of 
+     * the current chunk are tokenized.
+     */
+    private void deliverOrdered(ByteRegion src, List<Chunk> chunks, TokenSink sink, ExecutorService executor) 
+        throws XMLStreamException, IOException {
+        final String name = path.toString();
+        final int n = chunks.size();
+        List<BlockingQueue<Object>> queues = new ArrayList<BlockingQueue<Object>>(n);
+        for (int k = 0; k < n; k++) {
+            while (queues.size() < n && queues.size() < k + parallelism) {
+                BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_CAPACITY);
+                executor.execute(new TokenizeTask(src, chunks.get(queues.size()), queue));
+                queues.add(queue);
+            }
+            BlockingQueue<Object> queue = queues.get(k);
+            while (deliver(take(queue), name, sink)) {
+                // next token
+            }
+            queues.set(k, null);
+        }
+    }
+
+    /**
+     * Passes the tokens of all the chunks from a shared queue as they are extracted.
+     */
+    private void deliverUnordered(ByteRegion src, List<Chunk> chunks, TokenSink sink, ExecutorService executor) 
+        throws XMLStreamException, IOException {
+        final String name = path.toString();
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(QUEUE_CAPACITY);
+        for (Chunk chunk : chunks) {
+            executor.execute(new TokenizeTask(src, chunk, queue));
+        }
+        for (int k = 0; k < chunks.size(); k++) {
+            while (deliver(take(queue), name, sink)) {
+                // next token
+            }
+        }
+    }
+
+    private static Object take(BlockingQueue<Object> queue) throws IOException {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the tokens");
+        }
+    }
+
+    /**
+     * Passes the token to the sink, returning false at the end of a chunk and rethrowing the failure 
+     * of a chunk.
+     */
+    private static boolean deliver(Object entry, String name, TokenSink sink) throws XMLStreamException, IOException {
+        if (entry == END) {
+            return false;
+        } else if (entry instanceof Throwable) {
+            // rethrow the checked exception thrown by a task
+            for (Throwable t = (Throwable)entry; t != null; t = t.getCause()) {
+                if (t instanceof XMLStreamException) {
+                    throw (XMLStreamException)t;
+                } else if (t instanceof IOException) {
+                    throw (IOException)t;
+                }
+            }
+            if (entry instanceof Error) {
+                throw (Error)entry;
+            }
+            throw entry instanceof RuntimeException ? (RuntimeException)entry : new RuntimeException((Throwable)entry);
+        }
+        sink.startToken(name);
+        if (entry instanceof byte[]) {
+            byte[] b = (byte[])entry;
+            if (b.length > 0) {
+                sink.bytes(b, 0, b.length);
+            }
+        } else {
+            char[] c = entry.toString().toCharArray();
+            if (c.length > 0) {
+                sink.chars(c, 0, c.length);
+            }
+        }
+        sink.endToken();
+        return true;
+    }
+
+    /**
+     * Splits the region at the start tags following the multiples of the chunk size, which have the 
+     * local name of the last step of the path.
+     */
+    private long[] split(ByteRegion src) throws UnsupportedEncodingException {
+        final long size = src.size();
+        final String lp = path.getLastLocalPart();
+        final byte[] local = lp == null ? null : lp.getBytes(charset);
+        List<Long> starts = new ArrayList<Long>();
+        starts.add(0L);
+        for (long s = chunkSize; s < size; s += chunkSize) {
+            final long to = Math.min(s + chunkSize, size - 1);
+            for (long p = src.indexOf((byte)'<', s, to); p >= 0; p = src.indexOf((byte)'<', p + 1, to)) {
+                if (XMLStructureScanner.isNameStart(src.get(p + 1)) 
+                    && (local == null || XMLStructureScanner.hasLocalName(src, p + 1, local, size))) {
+                    starts.add(p);
+                    break;
+                }
+            }
+        }
+        long[] sa = new long[starts.size()];
+        for (int i = 0; i < sa.length; i++) {
+            sa[i] = starts.get(i);
+        }
+        return sa;
+    }
+
+    /**
+     * Determines the ancestors at each chunk boundary and drops the boundaries that cannot be used.
+     */
+    private List<Chunk> combine(ByteRegion src, long[] starts, XMLStructureScanner.Result[] results) 
+        throws XMLStreamException {
+        final int n = starts.length;
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        List<Frame> stack = Collections.emptyList();
+        int k = 0;
+        while (k < n) {
+            int end = k + 1;
+            XMLStructureScanner.Result result = results[k];
+            List<Frame> next;
+            while (true) {
+                if (result.mismatch >= 0) {
+                    // the chunk starts at a usable boundary, so the end tag is really mismatched
+                    throw new XMLStreamException("mismatched end tag at offset " + result.mismatch);
+                }
+                if (result.valid) {
+                    next = apply(src, stack, starts[k], result);
+                    // the boundary must be at a matched element outside the other matched elements
+                    if (end == n || isBoundary(src, next, starts[end])) {
+                        break;
+                    }
+                } else if (end == n) {
+                    throw new XMLStreamException("unexpected end of document");
+                }
+                // extend the chunk to the next boundary
+                end++;
+                result = XMLStructureScanner.scan(src, starts[k], end == n ? src.size() : starts[end]);
+            }
+            chunks.add(new Chunk(starts[k], end == n ? src.size() : starts[end], stack, next));
+            stack = next;
+            k = end;
+        }
+        return chunks;
+    }
+
+    private List<Frame> apply(ByteRegion src, List<Frame> stack, long start, XMLStructureScanner.Result result) 
+        throws XMLStreamException {
+        List<Frame> next = new ArrayList<Frame>(stack);
+        if (!next.isEmpty()) {
+            // the chunk starts with a child element of the innermost ancestor
+            XMLStructureScanner.Element top = next.get(next.size() - 1).element;
+            if (top.leadingEnd < 0) {
+                top.leadingEnd = start;
+            }
+        }
+        for (byte[] name : result.closes) {
+            if (next.isEmpty() || !Arrays.equals(next.get(next.size() - 1).element.name, name)) {
+                throw new XMLStreamException("mismatched end tag in chunk at offset " + start);
+            }
+            next.remove(next.size() - 1);
+        }
+        for (XMLStructureScanner.Element e : result.opens) {
+            next.add(new Frame(e, next.isEmpty() ? null : next.get(next.size() - 1), decode(src.getBytes(e.start, e.tagEnd))));
+        }
+        return next;
+    }
+
+    private boolean isBoundary(ByteRegion src, List<Frame> stack, long start) {
+        if (stack.isEmpty()) {
+            return false;
+        }
+        for (Frame f : stack) {
+            if (path.isAccepted(f.getState())) {
+                return false;
+            }
+        }
+        XMLStructureScanner.Element e = XMLStructureScanner.readStartTag(src, start, src.size());
+        return e != null && path.isAccepted(
+            new Frame(e, stack.get(stack.size() - 1), decode(src.getBytes(e.start, e.tagEnd))).getState());
+    }
+
+    private String decode(byte[] b) {
+        try {
+            return new String(b, charset);
+        } catch (UnsupportedEncodingException e) {
+            // ignore it as this has been checked in the constructor
+            return "";
+        }
+    }
+
+    private InputStream openChunk(ByteRegion src, Chunk chunk) throws IOException {
+        ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+        if (!chunk.ancestors.isEmpty()) {
+            // the prolog and the ancestor start tags with their leading text
+            prefix.write(src.getBytes(0, chunk.ancestors.get(0).element.start));
+            for (Frame f : chunk.ancestors) {
+                prefix.write(src.getBytes(f.element.start, f.element.leadingEnd));
+            }
+        }
+        ByteArrayOutputStream suffix = new ByteArrayOutputStream();
+        for (int i = chunk.open.size() - 1; i >= 0; i--) {
+            suffix.write('<');
+            suffix.write('/');
+            suffix.write(chunk.open.get(i).element.name);
+            suffix.write('>');
+        }
+        return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+            new ByteArrayInputStream(prefix.toByteArray()), 
+            src.openStream(chunk.start, chunk.end), 
+            new ByteArrayInputStream(suffix.toByteArray()))));
+    }
+
+    /**
+     * A chunk with the ancestors open at its start and end.
+     */
+    private static final class Chunk {
+        final long start;
+        final long end;
+        final List<Frame> ancestors;
+        final List<Frame> open;
+
+        Chunk(long start, long end, List<Frame> ancestors, List<Frame> open) {
+            this.start = start;
+            this.end = end;
+            this.ancestors = ancestors;
+            this.open = open;
+        }
+    }
+
+    /**
+     * An ancestor element with its namespace bindings and path state.
+     */
+    private final class Frame {
+        final XMLStructureScanner.Element element;
+        final Frame parent;
+        private final String tag;
+        private Map<String, String> namespaces;
+        private long state = -1;
+
+        Frame(XMLStructureScanner.Element element, Frame parent, String tag) {
+            this.element = element;
+            this.parent = parent;
+            this.tag = tag;
+        }
+
+        long getState() {
+            if (state == -1) {
+                long ps = parent == null ? path.getInitialState() : parent.getState();
+                state = path.next(ps, getName());
+            }
+            return state;
+        }
+
+        private QName getName() {
+            int e = 1;
+            while (e < tag.length() && !Character.isWhitespace(tag.charAt(e)) 
+                && tag.charAt(e) != '/' && tag.charAt(e) != '>') {
+                e++;
+            }
+            final String name = tag.substring(1, e);
+            final int d = name.indexOf(':');
+            final String pfx = d > 0 ? name.substring(0, d) : "";
+            final String ns = getNamespaces().get(pfx);
+            return new QName(ns == null ? "" : ns, name.substring(d + 1), pfx);
+        }
+
+        private Map<String, String> getNamespaces() {
+            if (namespaces == null) {
+                Map<String, String> inherited = parent == null 
+                    ? Collections.<String, String>emptyMap() : parent.getNamespaces();
+                namespaces = inherited;
+                // pick up the namespace declarations of the start tag
+                int i = 0;
+                int e;
+                while ((e = tag.indexOf('=', i)) > 0) {
+                    int q = e + 1;
+                    while (q < tag.length() && tag.charAt(q) != '"' && tag.charAt(q) != '\'') {
+                        q++;
+                    }
+                    final int qe = q < tag.length() ? tag.indexOf(tag.charAt(q), q + 1) : -1;
+                    if (qe < 0) {
+                        break;
+                    }
+                    int a = e;
+                    while (a > i && !Character.isWhitespace(tag.charAt(a - 1))) {
+                        a--;
+                    }
+                    final String aname = tag.substring(a, e).trim();
+                    if (aname.equals("xmlns") || aname.startsWith("xmlns:")) {
+                        if (namespaces == inherited) {
+                            namespaces = new HashMap<String, String>(inherited);
+                        }
+                        namespaces.put(aname.length() == 5 ? "" : aname.substring(6), tag.substring(q + 1, qe));
+                    }
+                    i = qe + 1;
+                }
+            }
+            return namespaces;
+        }
+    }
+
+    /**
+     * Scans the chunks by splitting the range of chunks.
+     */
+    private static final class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final ByteRegion src;
+        private final long[] starts;
+        private final XMLStructureScanner.Result[] results;
+        private final int lo;
+        private final int hi;
+
+        ScanTask(ByteRegion src, long[] starts, XMLStructureScanner.Result[] results, int lo, int hi) {
+            this.src = src;
+            this.starts = starts;
+            this.results = results;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                final int mid = (lo + hi) >>> 1;
+                invokeAll(new ScanTask(src, starts, results, lo, mid), new ScanTask(src, starts, results, mid, hi));
+            } else {
+                results[lo] = XMLStructureScanner.scan(src, starts[lo], hi < starts.length ? starts[hi] : src.size());
+            }
+        }
+    }
+
+    /**
+     * Tokenizes a chunk and queues its tokens followed by END or by the failure.
+     */
+    private final class TokenizeTask implements Runnable {
+        private final ByteRegion src;
+        private final Chunk chunk;
+        private final BlockingQueue<Object> queue;
+
+        TokenizeTask(ByteRegion src, Chunk chunk, BlockingQueue<Object> queue) {
+            this.src = src;
+            this.chunk = chunk;
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            Object last;
+            try {
+                XMLTokenIterator tokenizer = new XMLTokenIterator(path, mode, 1, openChunk(src, chunk), charset, binary);
+                try {
+                    while (tokenizer.hasNext()) {
+                        queue.put(tokenizer.next());
+                    }
+                } finally {
+                    tokenizer.close();
+                }
+                last = END;
+            } catch (InterruptedException e) {
+                // the delivery has been abandoned
+                return;
+            } catch (Throwable e) {
+                last = e;
+            }
+            try {
+                queue.put(last);
+            } catch (InterruptedException e) {
+                // the delivery has been abandoned
+            }
+        }
+    }
+}
@@ -0,0 +1,946 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+import de.elakito.misc.xml.util.StaxUtils;
+
+/**
+ * The built-in lexer that only scans the markup needed for the tokenization. The names are taken from
+ * a symbol table and the QNames are reused, so that no objects are created for the recurring elements. 
+ * The text is only kept for the text events and the attributes other than the namespace declarations 
+ * are scanned without being kept. A text node or a CDATA section longer than 8192 chars is reported 
+ * by several events, so that the text buffer stays bounded. 
+ * 
+ * The document is checked to be well-formed, including the uniqueness and the namespace prefixes of 
+ * the attributes and the allowed characters, except for the content skipped by {@link #skipElement()}, 
+ * of which only the nesting of the tags is checked. The surrogates are not checked to be paired. 
+ * The predefined and character references are replaced. When a document type declaration is found, 
+ * the lexer falls back to the StAX stream reader to support the declared entities, which is possible 
+ * as the prolog is kept until the root element.
+ */
+final class SimpleXMLLexer implements XMLLexer {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_SYMBOLS = 4096;
+    private static final int TEXT_SIZE = 256;
+    // the maximum length of a text event
+    private static final int MAX_TEXT = 8192;
+
+    private Reader in;
+    private char[] buf = new char[BUFFER_SIZE];
+    private int pos;
+    private int len;
+    // the character offset of buf[0]
+    private int base;
+    // the position from which the chars must be kept when filling the buffer or -1
+    private int mark = -1;
+    private boolean eof;
+    // the prolog is kept until the root element for falling back
+    private boolean prolog = true;
+    private XMLLexer delegate;
+
+    private int event = XMLStreamConstants.START_DOCUMENT;
+    private int offset;
+    private QName name;
+    // the end element of the current empty element is pending
+    private boolean empty;
+    // the current element is removed at the next event
+    private boolean popping;
+
+    // the open elements with the start index of their namespace declarations
+    private String[] rawnames = new String[16];
+    private QName[] names = new QName[16];
+    private int[] nsbases = new int[16];
+    private int depth;
+    private String[] nsprefixes = new String[8];
+    private String[] nsuris = new String[8];
+    private int nscount;
+
+    private char[] text = new char[TEXT_SIZE];
+    private int textlen;
+    // the text event continued by the next event or 0
+    private int continued;
+    // the number of the preceding ']' to detect ']]>' in the text
+    private int brackets;
+    // the names of the attributes of the current start tag
+    private String[] attrs = new String[8];
+    private int attrcount;
+
+    private String[] symbols = new String[256];
+    private int symbolcount;
+    private final Map<String, QName> qnames = new HashMap<String, QName>();
+
+    SimpleXMLLexer(Reader in) {
+        this.in = in;
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        if (delegate != null) {
+            return delegate.next();
+        }
+        try {
+            event = lex();
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+        return event;
+    }
+
+    @Override
+    public int getEventType() {
+        return delegate != null ? delegate.getEventType() : event;
+    }
+
+    @Override
+    public int getCharacterOffset() {
+        return delegate != null ? delegate.getCharacterOffset() : offset;
+    }
+
+    @Override
+    public QName getName() {
+        if (delegate != null) {
+            return delegate.getName();
+        }
+        if (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+            throw new IllegalStateException("not at an element");
+        }
+        return name;
+    }
+
+    @Override
+    public int getNamespaceCount() {
+        if (delegate != null) {
+            return delegate.getNamespaceCount();
+        }
+        return depth > 0 ? nscount - nsbases[depth - 1] : 0;
+    }
+
+    @Override
+    public String getNamespacePrefix(int index) {
+        if (delegate != null) {
+            return delegate.getNamespacePrefix(index);
+        }
+        String pfx = nsprefixes[nsbases[depth - 1] + index];
+        return pfx.length() == 0 ? null : pfx;
+    }
+
+    @Override
+    public String getNamespaceURI(int index) {
+        if (delegate != null) {
+            return delegate.getNamespaceURI(index);
+        }
+        return nsuris[nsbases[depth - 1] + index];
+    }
+
+    @Override
+    public char[] getTextCharacters() {
+        return delegate != null ? delegate.getTextCharacters() : text;
+    }
+
+    @Override
+    public int getTextStart() {
+        return delegate != null ? delegate.getTextStart() : 0;
+    }
+
+    @Override
+    public int getTextLength() {
+        return delegate != null ? delegate.getTextLength() : textlen;
+    }
+
+    /**
+     * Skips the content of the current element by only counting the depth without checking the content.
+     */
+    @Override
+    public boolean skipElement() throws XMLStreamException {
+        if (delegate != null) {
+            return delegate.skipElement();
+        }
+        if (event != XMLStreamConstants.START_ELEMENT) {
+            throw new IllegalStateException("not at a start element");
+        }
+        if (empty) {
+            next();
+            return true;
+        }
+        try {
+            int d = 1;
+            while (true) {
+                int c = read();
+                if (c < 0) {
+                    throw error("unexpected end of input");
+                } else if (c != '<') {
+                    continue;
+                }
+                final int start = base + pos - 1;
+                c = read();
+                if (c == '/') {
+                    if (--d == 0) {
+                        offset = start;
+                        event = lexEndTag();
+                        return true;
+                    }
+                    skipTo('>');
+                } else if (c == '!') {
+                    c = read();
+                    if (c == '-') {
+                        skipTo('-', 2);
+                    } else if (c == '[') {
+                        skipTo(']', 2);
+                    } else {
+                        throw error("invalid markup");
+                    }
+                } else if (c == '?') {
+                    skipTo('?', 1);
+                } else if (!skipStartTag()) {
+                    d++;
+                }
+            }
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    /**
+     * Resets this lexer to read the specified reader, keeping its buffers and its symbol table.
+     */
+    void reset(Reader in) throws XMLStreamException {
+        close();
+        this.in = in;
+        delegate = null;
+        pos = 0;
+        len = 0;
+        base = 0;
+        mark = -1;
+        eof = false;
+        prolog = true;
+        event = XMLStreamConstants.START_DOCUMENT;
+        offset = 0;
+        name = null;
+        empty = false;
+        popping = false;
+        depth = 0;
+        nscount = 0;
+        textlen = 0;
+        continued = 0;
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        if (delegate != null) {
+            delegate.close();
+        }
+    }
+
+    private int lex() throws IOException, XMLStreamException {
+        if (event == XMLStreamConstants.END_DOCUMENT) {
+            throw new XMLStreamException("no more events");
+        }
+        if (empty) {
+            empty = false;
+            popping = true;
+            return XMLStreamConstants.END_ELEMENT;
+        }
+        if (popping) {
+            popping = false;
+            depth--;
+            nscount = nsbases[depth];
+        }
+        if (event == XMLStreamConstants.START_DOCUMENT && peek() == '\uFEFF') {
+            // skip the byte order mark
+            pos++;
+        }
+        final int split = continued;
+        continued = 0;
+        if (split == XMLStreamConstants.CDATA) {
+            offset = base + pos;
+            return lexCData();
+        } else if (split == 0) {
+            brackets = 0;
+        }
+        while (true) {
+            offset = base + pos;
+            int c = peek();
+            if (c < 0) {
+                if (depth > 0 || prolog) {
+                    throw error("unexpected end of input");
+                }
+                return XMLStreamConstants.END_DOCUMENT;
+            } else if (c != '<') {
+                return lexText();
+            }
+            pos++;
+            c = read();
+            if (c == '/') {
+                return lexEndTag();
+            } else if (c == '?') {
+                if (lexProcessingInstruction()) {
+                    return XMLStreamConstants.PROCESSING_INSTRUCTION;
+                }
+            } else if (c == '!') {
+                return lexMarkup();
+            } else if (c < 0) {
+                throw error("unexpected end of input");
+            } else {
+                pos--;
+                return lexStartTag();
+            }
+        }
+    }
+
+    private int lexStartTag() throws IOException, XMLStreamException {
+        if (depth == 0 && !prolog) {
+            throw error("multiple root elements");
+        }
+        String raw = readName();
+        if (depth == rawnames.length) {
+            rawnames = Arrays.copyOf(rawnames, depth << 1);
+            names = Arrays.copyOf(names, depth << 1);
+            int[] nb = new int[depth << 1];
+            System.arraycopy(nsbases, 0, nb, 0, depth);
+            nsbases = nb;
+        }
+        rawnames[depth] = raw;
+        nsbases[depth] = nscount;
+        depth++;
+        attrcount = 0;
+        while (true) {
+            boolean ws = skipWhitespace();
+            int c = read();
+            if (c == '>') {
+                break;
+            } else if (c == '/') {
+                if (read() != '>') {
+                    throw error("invalid empty element");
+                }
+                empty = true;
+                break;
+            } else if (c < 0) {
+                throw error("unexpected end of input");
+            } else if (!ws) {
+                throw error("whitespace required before attribute");
+            }
+            pos--;
+            String attr = readName();
+            addAttribute(attr);
+            skipWhitespace();
+            if (read() != '=') {
+                throw error("'=' expected after attribute " + attr);
+            }
+            skipWhitespace();
+            int q = read();
+            if (q != '"' && q != '\'') {
+                throw error("quote expected for attribute " + attr);
+            }
+            if (attr.startsWith(XMLConstants.XMLNS_ATTRIBUTE) 
+                && (attr.length() == 5 || attr.charAt(5) == ':')) {
+                readText((char)q, true);
+                if (attr.length() > 5 && textlen == 0) {
+                    throw error("empty namespace name for prefix " + attr.substring(6));
+                }
+                declare(attr.length() == 5 ? "" : attr.substring(6), new String(text, 0, textlen));
+            } else {
+                skipValue((char)q);
+            }
+        }
+        prolog = false;
+        name = resolve(raw);
+        names[depth - 1] = name;
+        if (attrcount > 0) {
+            checkAttributes();
+        }
+        return XMLStreamConstants.START_ELEMENT;
+    }
+
+    private void addAttribute(String attr) throws XMLStreamException {
+        for (int i = 0; i < attrcount; i++) {
+            if (attr.equals(attrs[i])) {
+                throw error("duplicate attribute " + attr);
+            }
+        }
+        if (attrcount == attrs.length) {
+            attrs = Arrays.copyOf(attrs, attrcount << 1);
+        }
+        attrs[attrcount++] = attr;
+    }
+
+    /**
+     * Checks the prefixes of the attributes and their uniqueness by their namespaces once the 
+     * namespace declarations of the start tag are known.
+     */
+    private void checkAttributes() throws XMLStreamException {
+        for (int i = 0; i < attrcount; i++) {
+            final String attr = attrs[i];
+            final int c = attr.indexOf(':');
+            if (c > 0 && !attr.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")) {
+                final String ns = getNamespaceURI(attr.substring(0, c));
+                for (int j = 0; j < i; j++) {
+                    final String other = attrs[j];
+                    final int d = other.indexOf(':');
+                    if (d > 0 && attr.regionMatches(c, other, d, other.length() - d) 
+                        && attr.length() - c == other.length() - d
+                        && !other.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")
+                        && ns.equals(getNamespaceURI(other.substring(0, d)))) {
+                        throw error("duplicate attribute " + attr);
+                    }
+                }
+            }
+        }
+    }
+
+    private int lexEndTag() throws IOException, XMLStreamException {
+        String raw = readName();
+        skipWhitespace();
+        if (read() != '>') {
+            throw error("'>' expected in end tag " + raw);
+        }
+        if (depth == 0 || !raw.equals(rawnames[depth - 1])) {
+            throw error("unexpected end tag " + raw);
+        }
+        name = names[depth - 1];
+        popping = true;
+        return XMLStreamConstants.END_ELEMENT;
+    }
+
+    private int lexText() throws IOException, XMLStreamException {
+        textlen = 0;
+        boolean ws = readText('<', false);
+        if (depth == 0) {
+            if (!ws) {
+                throw error("text outside of the root element");
+            }
+            return XMLStreamConstants.SPACE;
+        }
+        return XMLStreamConstants.CHARACTERS;
+    }
+
+    private int lexMarkup() throws IOException, XMLStreamException {
+        int c = read();
+        if (c == '-') {
+            if (read() != '-') {
+                throw error("invalid comment");
+            }
+            skipComment();
+            return XMLStreamConstants.COMMENT;
+        } else if (c == '[') {
+            if (depth == 0 || !expect("CDATA[")) {
+                throw error("invalid CDATA section");
+            }
+            return lexCData();
+        } else if (c == 'D' && prolog && depth == 0 && expect("OCTYPE")) {
+            return fallback();
+        }
+        throw error("invalid markup");
+    }
+
+    private int lexCData() throws IOException, XMLStreamException {
+        startText();
+        while (true) {
+            if (textlen >= MAX_TEXT - 2 && text[textlen - 1] != ']' && !Character.isHighSurrogate(text[textlen - 1])) {
+                // continue the section at the next event
+                continued = XMLStreamConstants.CDATA;
+                break;
+            }
+            int c = read();
+            if (c < 0) {
+                throw error("unexpected end of input");
+            } else if (!isChar(c)) {
+                throw error("invalid character");
+            }
+            if (c == '>' && textlen >= 2 && text[textlen - 1] == ']' && text[textlen - 2] == ']') {
+                textlen -= 2;
+                break;
+            }
+            if (c == '\r') {
+                if (peek() == '\n') {
+                    pos++;
+                }
+                c = '\n';
+            }
+            append((char)c);
+        }
+        return XMLStreamConstants.CDATA;
+    }
+
+    /**
+     * Returns true for a processing instruction and false for the xml declaration.
+     */
+    private boolean lexProcessingInstruction() throws IOException, XMLStreamException {
+        boolean decl = event == XMLStreamConstants.START_DOCUMENT && expect("xml") && isWhitespace(peek());
+        skipTo('?', 1);
+        return !decl;
+    }
+
+    /**
+     * Continues with the StAX stream reader reading the kept prolog followed by the rest of the input.
+     */
+    private int fallback() throws XMLStreamException {
+        delegate = new StaxXMLLexer(StaxUtils.createXMLStreamReader(new PrefixedReader(buf, len, in)));
+        int c;
+        while ((c = delegate.next()) != XMLStreamConstants.DTD) {
+            if (c == XMLStreamConstants.END_DOCUMENT) {
+                throw error("invalid document type declaration");
+            }
+        }
+        return c;
+    }
+
+    private void declare(String prefix, String uri) {
+        if (nscount == nsprefixes.length) {
+            nsprefixes = Arrays.copyOf(nsprefixes, nscount << 1);
+            nsuris = Arrays.copyOf(nsuris, nscount << 1);
+        }
+        nsprefixes[nscount] = prefix;
+        nsuris[nscount] = uri;
+        nscount++;
+    }
+
+    private String getNamespaceURI(String prefix) throws XMLStreamException {
+        for (int i = nscount - 1; i >= 0; i--) {
+            if (prefix.equals(nsprefixes[i])) {
+                return nsuris[i];
+            }
+        }
+        if (prefix.length() == 0) {
+            return XMLConstants.NULL_NS_URI;
+        } else if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+            return XMLConstants.XML_NS_URI;
+        }
+        throw error("undeclared namespace prefix " + prefix);
+    }
+
+    private QName resolve(String raw) throws XMLStreamException {
+        QName qname = qnames.get(raw);
+        if (qname != null) {
+            String ns = getNamespaceURI(qname.getPrefix());
+            if (!ns.equals(qname.getNamespaceURI())) {
+                qname = new QName(ns, qname.getLocalPart(), qname.getPrefix());
+                qnames.put(raw, qname);
+            }
+        } else {
+            int c = raw.indexOf(':');
+            String pfx = c > 0 ? raw.substring(0, c) : XMLConstants.DEFAULT_NS_PREFIX;
+            qname = new QName(getNamespaceURI(pfx), raw.substring(c + 1), pfx);
+            if (qnames.size() < MAX_SYMBOLS) {
+                qnames.put(raw, qname);
+            }
+        }
+        return qname;
+    }
+
+    private String readName() throws IOException, XMLStreamException {
+        int c = peek();
+        if (c < 0 || !isNameStart((char)c)) {
+            throw error("invalid name");
+        }
+        mark = pos;
+        do {
+            pos++;
+            c = peek();
+        } while (c >= 0 && isNameChar((char)c));
+        String s = symbol(mark, pos);
+        mark = -1;
+        return s;
+    }
+
+    private String symbol(int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + buf[i];
+        }
+        final int mask = symbols.length - 1;
+        for (int i = h & mask; ; i = (i + 1) & mask) {
+            String s = symbols[i];
+            if (s == null) {
+                s = new String(buf, start, end - start);
+                if (symbolcount < MAX_SYMBOLS) {
+                    symbols[i] = s;
+                    if (++symbolcount << 1 > symbols.length) {
+                        rehash();
+                    }
+                }
+                return s;
+            } else if (s.hashCode() == h && matches(s, start, end)) {
+                return s;
+            }
+        }
+    }
+
+    private boolean matches(String s, int start, int end) {
+        if (s.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i - start) != buf[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        String[] ss = new String[symbols.length << 1];
+        final int mask = ss.length - 1;
+        for (String s : symbols) {
+            if (s != null) {
+                int i = s.hashCode() & mask;
+                while (ss[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                ss[i] = s;
+            }
+        }
+        symbols = ss;
+    }
+
+    /**
+     * Reads the text up to the delimiter into the text buffer with the references replaced and
+     * returns true if the text only consists of whitespace. The delimiter is consumed if it is a quote.
+     * The text of a text node is read up to MAX_TEXT chars and continued at the next event.
+     */
+    private boolean readText(char delim, boolean attr) throws IOException, XMLStreamException {
+        startText();
+        boolean ws = true;
+        while (true) {
+            if (!attr && textlen >= MAX_TEXT - 2 && !Character.isHighSurrogate(text[textlen - 1])) {
+                continued = XMLStreamConstants.CHARACTERS;
+                break;
+            }
+            int c = peek();
+            if (c < 0) {
+                if (attr) {
+                    throw error("unexpected end of input");
+                }
+                break;
+            } else if (c == delim) {
+                if (attr) {
+                    pos++;
+                }
+                break;
+            }
+            pos++;
+            if (c == '&') {
+                ws = false;
+                brackets = 0;
+                readReference();
+                continue;
+            } else if (c == '<') {
+                throw error("'<' in attribute value");
+            } else if (c == '>' && brackets >= 2 && !attr) {
+                throw error("']]>' in text");
+            } else if (!isChar(c)) {
+                throw error("invalid character");
+            }
+            brackets = c == ']' ? brackets + 1 : 0;
+            if (c == '\r') {
+                if (peek() == '\n') {
+                    pos++;
+                }
+                c = '\n';
+            }
+            if (attr && (c == '\n' || c == '\t')) {
+                c = ' ';
+            }
+            ws &= isWhitespace(c);
+            append((char)c);
+        }
+        return ws;
+    }
+
+    private void skipValue(char quote) throws IOException, XMLStreamException {
+        while (true) {
+            int c = read();
+            if (c == quote) {
+                return;
+            } else if (c == '<') {
+                throw error("'<' in attribute value");
+            } else if (c < 0) {
+                throw error("unexpected end of input");
+            } else if (!isChar(c)) {
+                throw error("invalid character");
+            }
+        }
+    }
+
+    private void readReference() throws IOException, XMLStreamException {
+        int c = read();
+        if (c == '#') {
+            int radix = 10;
+            if (peek() == 'x') {
+                pos++;
+                radix = 16;
+            }
+            int cp = 0;
+            int n = 0;
+            while ((c = read()) != ';') {
+                int v = Character.digit(c, radix);
+                if (c < 0 || v < 0 || cp > 0x10ffff) {
+                    throw error("invalid character reference");
+                }
+                cp = cp * radix + v;
+                n++;
+            }
+            if (n == 0 || !Character.isValidCodePoint(cp) || !isChar(cp) || (cp >= 0xd800 && cp <= 0xdfff)) {
+                throw error("invalid character reference");
+            }
+            if (Character.isSupplementaryCodePoint(cp)) {
+                append(Character.highSurrogate(cp));
+                append(Character.lowSurrogate(cp));
+            } else {
+                append((char)cp);
+            }
+            return;
+        }
+        char r;
+        if (c == 'l' && expect("t;")) {
+            r = '<';
+        } else if (c == 'g' && expect("t;")) {
+            r = '>';
+        } else if (c == 'a' && peek() == 'm' && expect("mp;")) {
+            r = '&';
+        } else if (c == 'a' && expect("pos;")) {
+            r = '\'';
+        } else if (c == 'q' && expect("uot;")) {
+            r = '"';
+        } else {
+            throw error("undeclared entity");
+        }
+        append(r);
+    }
+
+    /**
+     * Skips the rest of a start tag and returns true if it is an empty element.
+     */
+    private boolean skipStartTag() throws IOException, XMLStreamException {
+        int prev = 0;
+        while (true) {
+            int c = read();
+            if (c < 0) {
+                throw error("unexpected end of input");
+            } else if (c == '"' || c == '\'') {
+                skipValue((char)c);
+            } else if (c == '>') {
+                return prev == '/';
+            }
+            prev = c;
+        }
+    }
+
+    private void skipTo(char delim) throws IOException, XMLStreamException {
+        int c;
+        while ((c = read()) != delim) {
+            if (c < 0) {
+                throw error("unexpected end of input");
+            }
+        }
+    }
+
+    /**
+     * Skips to the end of a markup ending with the specified number of the char followed by '>'.
+     */
+    private void skipTo(char c, int count) throws IOException, XMLStreamException {
+        int n = 0;
+        while (true) {
+            int d = read();
+            if (d < 0) {
+                throw error("unexpected end of input");
+            } else if (d == '>' && n >= count) {
+                return;
+            } else if (!isChar(d)) {
+                throw error("invalid character");
+            }
+            n = d == c ? n + 1 : 0;
+        }
+    }
+
+    /**
+     * Skips to the end of a comment, in which '--' must be followed by '>'.
+     */
+    private void skipComment() throws IOException, XMLStreamException {
+        int n = 0;
+        while (true) {
+            int d = read();
+            if (d < 0) {
+                throw error("unexpected end of input");
+            } else if (n >= 2) {
+                if (d != '>') {
+                    throw error("'--' in comment");
+                }
+                return;
+            } else if (!isChar(d)) {
+                throw error("invalid character");
+            }
+            n = d == '-' ? n + 1 : 0;
+        }
+    }
+
+    private boolean skipWhitespace() throws IOException {
+        boolean ws = false;
+        int c;
+        while ((c = peek()) >= 0 && isWhitespace(c)) {
+            pos++;
+            ws = true;
+        }
+        return ws;
+    }
+
+    /**
+     * Reads the expected chars and returns true if they are matched. Otherwise, the mismatched char is not read.
+     */
+    private boolean expect(String s) throws IOException {
+        for (int i = 0; i < s.length(); i++) {
+            int c = read();
+            if (c != s.charAt(i)) {
+                if (c >= 0) {
+                    pos--;
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void startText() {
+        if (text.length > MAX_TEXT) {
+            // release the buffer grown by a long attribute value or a long run of ']'
+            text = new char[TEXT_SIZE];
+        }
+        textlen = 0;
+    }
+
+    private void append(char c) {
+        if (textlen == text.length) {
+            char[] t = new char[textlen << 1];
+            System.arraycopy(text, 0, t, 0, textlen);
+            text = t;
+        }
+        text[textlen++] = c;
+    }
+
+    private int peek() throws IOException {
+        if (pos == len && !fill()) {
+            return -1;
+        }
+        return buf[pos];
+    }
+
+    private int read() throws IOException {
+        if (pos == len && !fill()) {
+            return -1;
+        }
+        return buf[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        if (eof) {
+            return false;
+        }
+        // keep the marked chars or the prolog
+        int keep = prolog ? 0 : mark >= 0 ? mark : pos;
+        if (keep > 0) {
+            System.arraycopy(buf, keep, buf, 0, len - keep);
+            base += keep;
+            pos -= keep;
+            len -= keep;
+            if (mark >= 0) {
+                mark -= keep;
+            }
+        }
+        if (len == buf.length) {
+            char[] b = new char[len << 1];
+            System.arraycopy(buf, 0, b, 0, len);
+            buf = b;
+        }
+        int n;
+        do {
+            n = in.read(buf, len, buf.length - len);
+        } while (n == 0);
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        len += n;
+        return true;
+    }
+
+    private XMLStreamException error(String message) {
+        return new XMLStreamException(message + " at offset " + (base + pos));
+    }
+
+    /**
+     * Returns true if the char is allowed in a document. The surrogates are not checked to be paired.
+     */
+    private static boolean isChar(int c) {
+        return c >= 0x20 ? c < 0xfffe || c > 0xffff : c == '\n' || c == '\t' || c == '\r';
+    }
+
+    private static boolean isWhitespace(int c) {
+        return c == ' ' || c == '\n' || c == '\t' || c == '\r';
+    }
+
+    private static boolean isNameStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':' || c >= 0xc0;
+    }
+
+    private static boolean isNameChar(char c) {
+        return isNameStart(c) || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == 0xb7;
+    }
+
+    /**
+     * The reader reading the kept chars followed by the rest of the input.
+     */
+    private static final class PrefixedReader extends Reader {
+        private final char[] prefix;
+        private final int count;
+        private final Reader in;
+        private int pos;
+
+        PrefixedReader(char[] prefix, int count, Reader in) {
+            this.prefix = prefix;
+            this.count = count;
+            this.in = in;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int n) throws IOException {
+            if (pos < count) {
+                int m = Math.min(n, count - pos);
+                System.arraycopy(prefix, pos, cbuf, off, m);
+                pos += m;
+                return m;
+            }
+            return in.read(cbuf, off, n);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * A token sink that collects a token in memory until its size exceeds the threshold and 
+ * then moves it to a temporary file. A spilled token is returned as a Reader or an InputStream
+ * over the file, which deletes the file when closed.
+ */
+class SpillBuffer implements TokenSink {
+    // the chars are spilled in utf-8
+    private static final String SPILL_CHARSET = "utf-8";
+
+    private final int threshold;
+    private final File directory;
+    private final StringBuilder chars = new StringBuilder();
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private boolean binary;
+    private File file;
+    private OutputStream out;
+    // the encoder of the spilled chars, which keeps a surrogate pair split between two calls together
+    private Writer writer;
+    // the number of chars or bytes collected since the last reset
+    private long length;
+
+    SpillBuffer(int threshold, File directory) {
+        this.threshold = threshold;
+        this.directory = directory;
+    }
+
+    @Override
+    public void startToken(String path) throws IOException {
+        // nop
+    }
+
+    @Override
+    public void chars(char[] buf, int off, int len) throws IOException {
+        length += len;
+        if (out == null && chars.length() + len > threshold) {
+            spill();
+        }
+        if (out != null) {
+            writer.write(buf, off, len);
+        } else {
+            chars.append(buf, off, len);
+        }
+    }
+
+    @Override
+    public void bytes(byte[] buf, int off, int len) throws IOException {
+        length += len;
+        if (out == null && bytes.size() + len > threshold) {
+            spill();
+        }
+        if (out != null) {
+            out.write(buf, off, len);
+        } else {
+            bytes.write(buf, off, len);
+        }
+    }
+
+    @Override
+    public void endToken() throws IOException {
+        // nop
+    }
+
+    private void spill() throws IOException {
+        file = File.createTempFile("xmltoken", ".tmp", directory);
+        out = new BufferedOutputStream(new FileOutputStream(file));
+        if (binary) {
+            bytes.writeTo(out);
+        } else {
+            writer = new OutputStreamWriter(out, SPILL_CHARSET);
+            writer.append(chars);
+        }
+        chars.setLength(0);
+        bytes.reset();
+    }
+
+    /**
+     * Returns the collected token and resets this buffer. The token is returned as a String or 
+     * a byte array, or as a Reader or an InputStream when it has been spilled to a file.
+     */
+    Object getToken(boolean view) throws IOException {
+        Object token;
+        if (out != null) {
+            closeOutput();
+            token = binary ? new SpilledInputStream(file) 
+                : new InputStreamReader(new SpilledInputStream(file), SPILL_CHARSET);
+            out = null;
+            file = null;
+        } else if (binary) {
+            token = bytes.toByteArray();
+            bytes.reset();
+        } else if (view) {
+            // the builder is reused for the next token
+            token = chars;
+        } else {
+            token = chars.toString();
+            chars.setLength(0);
+        }
+        return token;
+    }
+
+    /**
+     * Prepares this buffer for the next token.
+     */
+    void reset(boolean binary) {
+        this.binary = binary;
+        chars.setLength(0);
+        bytes.reset();
+        length = 0;
+    }
+
+    private void closeOutput() throws IOException {
+        if (writer != null) {
+            // flushes the encoded chars to the file
+            writer.close();
+            writer = null;
+        } else {
+            out.close();
+        }
+    }
+
+    long length() {
+        return length;
+    }
+
+    int size() {
+        return binary ? bytes.size() : chars.length();
+    }
+
+    /**
+     * Discards the collected token and deletes its file if spilled.
+     */
+    void discard() {
+        if (out != null) {
+            try {
+                closeOutput();
+            } catch (IOException e) {
+                // ignore
+            }
+            file.delete();
+            out = null;
+            file = null;
+        }
+        reset(binary);
+    }
+
+    /**
+     * Reads the spilled file and deletes it when closed.
+     */
+    private static final class SpilledInputStream extends FileInputStream {
+        private final File file;
+
+        SpilledInputStream(File file) throws IOException {
+            super(file);
+            this.file = file;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                file.delete();
+            }
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import de.elakito.misc.xml.util.StaxUtils;
+
+/**
+ * The lexer reporting the events of a StAX stream reader that supports the character offsets.
+ */
+final class StaxXMLLexer implements XMLLexer {
+    private final XMLStreamReader reader;
+    private final boolean skippable;
+
+    StaxXMLLexer(XMLStreamReader reader) {
+        this.reader = reader;
+        this.skippable = StaxUtils.supportsSkipElement(reader);
+    }
+
+    @Override
+    public int next() throws XMLStreamException {
+        return reader.next();
+    }
+
+    @Override
+    public int getEventType() {
+        return reader.getEventType();
+    }
+
+    @Override
+    public int getCharacterOffset() {
+        return reader.getLocation().getCharacterOffset();
+    }
+
+    @Override
+    public QName getName() {
+        return reader.getName();
+    }
+
+    @Override
+    public int getNamespaceCount() {
+        return reader.getNamespaceCount();
+    }
+
+    @Override
+    public String getNamespacePrefix(int index) {
+        return reader.getNamespacePrefix(index);
+    }
+
+    @Override
+    public String getNamespaceURI(int index) {
+        return reader.getNamespaceURI(index);
+    }
+
+    @Override
+    public char[] getTextCharacters() {
+        return reader.getTextCharacters();
+    }
+
+    @Override
+    public int getTextStart() {
+        return reader.getTextStart();
+    }
+
+    @Override
+    public int getTextLength() {
+        return reader.getTextLength();
+    }
+
+    @Override
+    public boolean skipElement() throws XMLStreamException {
+        if (!skippable) {
+            return false;
+        }
+        StaxUtils.skipElement(reader);
+        return true;
+    }
+
+    @Override
+    public void close() throws XMLStreamException {
+        reader.close();
+    }
+
+    @Override
+    public String toString() {
+        return "StaxXMLLexer[" + reader.getClass().getName() + "]";
+    }
+}
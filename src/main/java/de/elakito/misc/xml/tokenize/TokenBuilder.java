@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+
+import de.elakito.misc.xml.util.RecordedText;
+
+/**
+ * A builder to assemble the extracted tokens. The recorded text is appended as is and
+ * the generated markup is appended in the representation of the token.
+ */
+abstract class TokenBuilder {
+
+    abstract TokenBuilder append(CharSequence cs, int start, int end);
+
+    abstract TokenBuilder append(char c);
+
+    abstract TokenBuilder append(char[] c, int off, int len);
+
+    TokenBuilder append(CharSequence cs) {
+        return append(cs, 0, cs.length());
+    }
+
+    /**
+     * Returns the length of the token being assembled, in chars or in bytes.
+     * @return the length
+     */
+    abstract int length();
+
+    /**
+     * Discards the token being assembled.
+     */
+    abstract void clear();
+
+    /**
+     * Returns the assembled token and resets this builder.
+     * @return the token
+     */
+    abstract Object build();
+
+    /**
+     * Returns the assembled token as a char sequence and resets this builder.
+     * @return the token
+     */
+    abstract CharSequence buildSequence();
+
+    /**
+     * Returns the assembled token as a char sequence that may be backed by this builder.
+     * The returned sequence remains valid until the next token is appended to this builder.
+     * @return the token
+     */
+    abstract CharSequence view();
+
+    /**
+     * Returns a builder that assembles the tokens as strings.
+     */
+    static TokenBuilder forString() {
+        return new StringTokenBuilder();
+    }
+
+    /**
+     * Returns a builder that assembles the tokens as byte arrays using the specified charset.
+     * The recorded text must be appended using ByteSequence.
+     */
+    static TokenBuilder forBytes(String charset) {
+        return new BytesTokenBuilder(charset);
+    }
+
+    private static class StringTokenBuilder extends TokenBuilder {
+        private StringBuilder sb = new StringBuilder();
+        private boolean viewed;
+
+        @Override
+        TokenBuilder append(CharSequence cs, int start, int end) {
+            reuse();
+            if (cs instanceof RecordedText) {
+                ((RecordedText)cs).appendTo(sb, start, end);
+            } else {
+                sb.append(cs, start, end);
+            }
+            return this;
+        }
+
+        @Override
+        TokenBuilder append(char c) {
+            reuse();
+            sb.append(c);
+            return this;
+        }
+
+        @Override
+        TokenBuilder append(char[] c, int off, int len) {
+            reuse();
+            sb.append(c, off, len);
+            return this;
+        }
+
+        @Override
+        int length() {
+            return viewed ? 0 : sb.length();
+        }
+
+        @Override
+        void clear() {
+            sb.setLength(0);
+            viewed = false;
+        }
+
+        @Override
+        Object build() {
+            return buildSequence();
+        }
+
+        @Override
+        CharSequence buildSequence() {
+            String s = sb.toString();
+            sb.setLength(0);
+            viewed = false;
+            return s;
+        }
+
+        @Override
+        CharSequence view() {
+            // clear the previous view if nothing has been appended since
+            reuse();
+            viewed = true;
+            return sb;
+        }
+
+        private void reuse() {
+            if (viewed) {
+                sb.setLength(0);
+                viewed = false;
+            }
+        }
+    }
+
+    private static class BytesTokenBuilder extends TokenBuilder {
+        private ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        private String charset;
+
+        public BytesTokenBuilder(String charset) {
+            this.charset = charset;
+        }
+
+        @Override
+        TokenBuilder append(CharSequence cs, int start, int end) {
+            if (cs instanceof ByteSequence) {
+                ByteSequence bs = (ByteSequence)cs;
+                bout.write(bs.getBytes(), bs.getOffset() + start, end - start);
+            } else {
+                try {
+                    byte[] b = cs.subSequence(start, end).toString().getBytes(charset);
+                    bout.write(b, 0, b.length);
+                } catch (UnsupportedEncodingException e) {
+                    // ignore it as this should have been caught while scanning.
+                }
+            }
+            return this;
+        }
+
+        @Override
+        TokenBuilder append(char c) {
+            if (c < 0x80) {
+                bout.write(c);
+                return this;
+            }
+            return append(String.valueOf(c));
+        }
+
+        @Override
+        TokenBuilder append(char[] c, int off, int len) {
+            try {
+                byte[] b = new String(c, off, len).getBytes(charset);
+                bout.write(b, 0, b.length);
+            } catch (UnsupportedEncodingException e) {
+                // ignore it as this should have been caught while scanning.
+            }
+            return this;
+        }
+
+        @Override
+        int length() {
+            return bout.size();
+        }
+
+        @Override
+        void clear() {
+            bout.reset();
+        }
+
+        @Override
+        Object build() {
+            byte[] b = bout.toByteArray();
+            bout.reset();
+            return b;
+        }
+
+        @Override
+        CharSequence buildSequence() {
+            return new ByteSequence((byte[])build());
+        }
+
+        @Override
+        CharSequence view() {
+            return buildSequence();
+        }
+    }
+}
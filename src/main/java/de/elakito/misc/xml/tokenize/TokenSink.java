@@ -0,0 +1,65 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.IOException;
+
+/**
+ * A receiver of the tokens pushed by XMLTokenIterator.tokenize(TokenSink). Each token is delivered 
+ * as a startToken call followed by any number of chars calls, or bytes calls in the binary mode,
+ * and an endToken call. The passed arrays are only valid during the call and must be copied
+ * if their content is needed afterwards.
+ */
+public interface TokenSink {
+    /**
+     * Starts a new token.
+     * 
+     * @param path the path expression that has been matched by the token
+     * @throws IOException
+     */
+    void startToken(String path) throws IOException;
+
+    /**
+     * Receives a part of the current token.
+     * 
+     * @param buf the char array
+     * @param off the offset of the part
+     * @param len the length of the part
+     * @throws IOException
+     */
+    void chars(char[] buf, int off, int len) throws IOException;
+
+    /**
+     * Receives a part of the current token in the binary mode.
+     * 
+     * @param buf the byte array
+     * @param off the offset of the part
+     * @param len the length of the part
+     * @throws IOException
+     */
+    void bytes(byte[] buf, int off, int len) throws IOException;
+
+    /**
+     * Ends the current token.
+     * 
+     * @throws IOException
+     */
+    void endToken() throws IOException;
+}
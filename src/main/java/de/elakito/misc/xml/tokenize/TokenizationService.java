@@ -0,0 +1,220 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A service tokenizing many documents concurrently, each in its own task. The tasks run on virtual threads 
+ * when the runtime provides them and otherwise on a pool of as many threads as the concurrency limit. 
+ * The number of documents tokenized at the same time is bounded by the concurrency limit in either case.
+ * 
+ * The tokenization does not hold a monitor while reading the input, so that the virtual threads 
+ * are not pinned to their carrier threads while blocked in reading.
+ */
+public class TokenizationService implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(TokenizationService.class);
+
+    /**
+     * The callback notified of the result of a document.
+     */
+    public interface Callback {
+        /**
+         * Called when the document has been tokenized.
+         * 
+         * @param count the number of the tokens
+         */
+        void completed(long count);
+
+        /**
+         * Called when the tokenization of the document has failed.
+         * 
+         * @param throwable the failure
+         */
+        void failed(Throwable throwable);
+    }
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final boolean virtual;
+
+    /**
+     * Constructs a service.
+     * 
+     * @param concurrency the maximum number of documents tokenized at the same time
+     */
+    public TokenizationService(int concurrency) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        ExecutorService es = createVirtualThreadExecutor();
+        this.virtual = es != null;
+        if (es == null) {
+            final AtomicInteger count = new AtomicInteger();
+            es = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "xmltoken-service-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        this.executor = es;
+        this.permits = new Semaphore(concurrency);
+    }
+
+    /**
+     * Returns true if the documents are tokenized on virtual threads.
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Submits a document, which is closed after it has been tokenized.
+     * 
+     * @param in the document
+     * @param path the compiled path
+     * @param mode the extraction mode. One of 'i', 'w', 'u', and 't', representing inject, wrap, unwrap, and text
+     * @param charset the character encoding of the document
+     * @param binary true to extract the tokens as byte arrays, false to extract them as strings
+     * @param handler the handler called with each token in the document order
+     * @param callback the callback notified of the result or null
+     * @return the future of the number of the tokens
+     */
+    public Future<Long> submit(final InputStream in, XMLTokenPath path, char mode, String charset, 
+                               boolean binary, TokenHandler handler, Callback callback) {
+        return submit(new Callable<InputStream>() {
+            public InputStream call() {
+                return in;
+            }
+        }, path, mode, charset, binary, handler, callback);
+    }
+
+    /**
+     * Submits a document file, which is opened when its tokenization starts.
+     * 
+     * @see #submit(InputStream, XMLTokenPath, char, String, boolean, TokenHandler, Callback)
+     */
+    public Future<Long> submit(final Path file, XMLTokenPath path, char mode, String charset, 
+                               boolean binary, TokenHandler handler, Callback callback) {
+        return submit(new Callable<InputStream>() {
+            public InputStream call() throws IOException {
+                return Files.newInputStream(file);
+            }
+        }, path, mode, charset, binary, handler, callback);
+    }
+
+    private Future<Long> submit(final Callable<InputStream> source, final XMLTokenPath path, final char mode, 
+                                final String charset, final boolean binary, final TokenHandler handler, 
+                                final Callback callback) {
+        return executor.submit(new Callable<Long>() {
+            public Long call() throws Exception {
+                return tokenize(source, path, mode, charset, binary, handler, callback);
+            }
+        });
+    }
+
+    /**
+     * Stops accepting documents. The submitted documents are still tokenized.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits until the submitted documents have been tokenized after close().
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+
+    private long tokenize(Callable<InputStream> source, XMLTokenPath path, char mode, String charset, boolean binary,
+                          TokenHandler handler, Callback callback) throws Exception {
+        permits.acquire();
+        long count = 0;
+        InputStream in = null;
+        try {
+            in = source.call();
+            XMLTokenIterator tokenizer = new XMLTokenIterator(path, mode, 1, in, charset, binary);
+            try {
+                while (true) {
+                    Object token;
+                    try {
+                        if (!tokenizer.hasNext()) {
+                            break;
+                        }
+                        token = tokenizer.next();
+                    } catch (RuntimeException e) {
+                        // unwrap the exception of the parser
+                        throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+                    }
+                    handler.handle(token, tokenizer.getTokenPath());
+                    count++;
+                }
+            } finally {
+                tokenizer.close();
+            }
+        } catch (Exception e) {
+            if (callback != null) {
+                callback.failed(e);
+            }
+            throw e;
+        } finally {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            } finally {
+                permits.release();
+            }
+        }
+        if (callback != null) {
+            callback.completed(count);
+        }
+        return count;
+    }
+
+    private static ExecutorService createVirtualThreadExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)m.invoke(null);
+        } catch (Exception e) {
+            LOG.debug("virtual threads not available");
+            return null;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * A low-level lexer reporting the events needed by XMLTokenIterator. The events are reported 
+ * using the codes of XMLStreamConstants and at least START_ELEMENT, END_ELEMENT, the text events 
+ * CHARACTERS, CDATA, and SPACE, and END_DOCUMENT must be reported. 
+ * 
+ * The lexer starts at START_DOCUMENT with the character offset 0. The character offset of an event
+ * is the number of chars read from the input before the event, where the end element of an empty element 
+ * has the offset of its start element.
+ * 
+ * @see XMLLexerFactory
+ */
+public interface XMLLexer {
+    /**
+     * Moves to the next event and returns its code.
+     */
+    int next() throws XMLStreamException;
+
+    /**
+     * Returns the code of the current event.
+     */
+    int getEventType();
+
+    /**
+     * Returns the character offset of the current event.
+     */
+    int getCharacterOffset();
+
+    /**
+     * Returns the name of the current start or end element.
+     */
+    QName getName();
+
+    /**
+     * Returns the number of the namespaces declared by the current start element.
+     */
+    int getNamespaceCount();
+
+    /**
+     * Returns the prefix of the specified namespace declaration, which is null or empty for the default namespace.
+     */
+    String getNamespacePrefix(int index);
+
+    /**
+     * Returns the uri of the specified namespace declaration.
+     */
+    String getNamespaceURI(int index);
+
+    /**
+     * Returns the buffer holding the text of the current text event with the references replaced.
+     */
+    char[] getTextCharacters();
+
+    int getTextStart();
+
+    int getTextLength();
+
+    /**
+     * Skips the content of the current start element and moves to its end element if supported.
+     * 
+     * @return true if the element has been skipped, false if skipping is not supported
+     */
+    boolean skipElement() throws XMLStreamException;
+
+    void close() throws XMLStreamException;
+}
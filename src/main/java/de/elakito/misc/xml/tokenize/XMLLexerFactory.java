@@ -0,0 +1,132 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import java.io.Reader;
+import java.util.Iterator;
+import java.util.ServiceLoader;
+
+import javax.xml.stream.XMLStreamException;
+
+import de.elakito.misc.xml.util.StaxUtils;
+
+/**
+ * The factory of the lexers used by XMLTokenIterator. The default factory is determined by the system
+ * property de.elakito.misc.xml.tokenize.lexer, which is either "simple" for the built-in lexer, "stax" for
+ * the StAX stream reader, or the class name of a factory. Without this property, the first factory registered
+ * as a service provider of this class is used and otherwise the built-in lexer.
+ * 
+ * The built-in lexer only reports what is needed for the tokenization and falls back to the StAX stream reader 
+ * when the document has a document type declaration.
+ */
+public abstract class XMLLexerFactory {
+    public static final String LEXER_PROPERTY = "de.elakito.misc.xml.tokenize.lexer";
+
+    /**
+     * The factory of the built-in lexer.
+     */
+    public static final XMLLexerFactory SIMPLE = new XMLLexerFactory() {
+        @Override
+        public XMLLexer createLexer(Reader in) throws XMLStreamException {
+            return new SimpleXMLLexer(in);
+        }
+
+        @Override
+        public XMLLexer resetLexer(XMLLexer lexer, Reader in) throws XMLStreamException {
+            if (lexer instanceof SimpleXMLLexer) {
+                ((SimpleXMLLexer)lexer).reset(in);
+                return lexer;
+            }
+            return super.resetLexer(lexer, in);
+        }
+    };
+
+    /**
+     * The factory of the lexer using the StAX stream reader.
+     */
+    public static final XMLLexerFactory STAX = new XMLLexerFactory() {
+        @Override
+        public XMLLexer createLexer(Reader in) throws XMLStreamException {
+            return new StaxXMLLexer(StaxUtils.createXMLStreamReader(in));
+        }
+    };
+
+    private static volatile XMLLexerFactory defaultFactory;
+
+    /**
+     * Creates a lexer reading the specified reader.
+     * 
+     * @param in the input reader
+     * @return the lexer
+     * @throws XMLStreamException
+     */
+    public abstract XMLLexer createLexer(Reader in) throws XMLStreamException;
+
+    /**
+     * Returns a lexer reading the specified reader, which may be the specified lexer created by this factory
+     * reset to its initial state. This implementation closes the lexer and creates a new one.
+     * 
+     * @param lexer the lexer no longer used
+     * @param in the input reader
+     * @return the lexer
+     * @throws XMLStreamException
+     */
+    public XMLLexer resetLexer(XMLLexer lexer, Reader in) throws XMLStreamException {
+        lexer.close();
+        return createLexer(in);
+    }
+
+    /**
+     * Returns the default factory.
+     */
+    public static XMLLexerFactory getDefault() {
+        XMLLexerFactory factory = defaultFactory;
+        if (factory == null) {
+            factory = lookup();
+            defaultFactory = factory;
+        }
+        return factory;
+    }
+
+    /**
+     * Sets the default factory or resets it to the configured one if null.
+     */
+    public static void setDefault(XMLLexerFactory factory) {
+        defaultFactory = factory;
+    }
+
+    private static XMLLexerFactory lookup() {
+        String name = System.getProperty(LEXER_PROPERTY);
+        if (name == null) {
+            Iterator<XMLLexerFactory> it = ServiceLoader.load(XMLLexerFactory.class).iterator();
+            return it.hasNext() ? it.next() : SIMPLE;
+        } else if ("simple".equals(name)) {
+            return SIMPLE;
+        } else if ("stax".equals(name)) {
+            return STAX;
+        }
+        try {
+            return Class.forName(name).asSubclass(XMLLexerFactory.class).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("invalid lexer factory " + name, e);
+        } catch (ClassCastException e) {
+            throw new IllegalArgumentException("invalid lexer factory " + name, e);
+        }
+    }
+}
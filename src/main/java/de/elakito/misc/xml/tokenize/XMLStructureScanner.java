@@ -0,0 +1,227 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A lightweight scanner that determines the element structure of a byte range of an XML document 
+ * encoded in an ascii compatible charset without parsing its content. The range is assumed to start 
+ * in the content of an element or at the beginning of the document.
+ */
+final class XMLStructureScanner {
+    private XMLStructureScanner() {
+    }
+
+    /**
+     * An element started within the scanned range.
+     */
+    static final class Element {
+        // the position of the start tag and the position after it
+        final long start;
+        final long tagEnd;
+        final byte[] name;
+        // the position of the first child element or -1 if not yet known
+        long leadingEnd = -1;
+
+        Element(long start, long tagEnd, byte[] name) {
+            this.start = start;
+            this.tagEnd = tagEnd;
+            this.name = name;
+        }
+    }
+
+    /**
+     * The structural effect of a scanned range.
+     */
+    static final class Result {
+        // false if the end of the range lies within markup or an end tag is mismatched
+        boolean valid = true;
+        // the position of the mismatched end tag or -1, which is only an error for a range starting 
+        // outside markup as the range may otherwise start within a comment, a CDATA section, or a PI
+        long mismatch = -1;
+        // the end tags of the elements started before the range
+        final List<byte[]> closes = new ArrayList<byte[]>();
+        // the elements started but not ended within the range
+        final List<Element> opens = new ArrayList<Element>();
+    }
+
+    /**
+     * Scans [from, to) of the region.
+     */
+    static Result scan(ByteRegion src, long from, long to) {
+        Result result = new Result();
+        final List<Element> opens = result.opens;
+        long p = from;
+        while (p < to) {
+            p = src.indexOf((byte)'<', p, to);
+            if (p < 0) {
+                break;
+            }
+            if (p + 1 >= to) {
+                result.valid = false;
+                break;
+            }
+            final byte c = src.get(p + 1);
+            long q;
+            if (c == '/') {
+                q = src.indexOf((byte)'>', p + 2, to);
+                if (q < 0) {
+                    result.valid = false;
+                    break;
+                }
+                byte[] name = readName(src, p + 2, q);
+                if (opens.isEmpty()) {
+                    result.closes.add(name);
+                } else {
+                    Element e = opens.remove(opens.size() - 1);
+                    if (!Arrays.equals(e.name, name)) {
+                        result.valid = false;
+                        result.mismatch = p;
+                        break;
+                    }
+                }
+                p = q + 1;
+            } else if (c == '!') {
+                if (src.startsWith("<!--", p)) {
+                    q = src.indexOf("-->", p + 4, to);
+                    p = q < 0 ? -1 : q + 3;
+                } else if (src.startsWith("<![CDATA[", p)) {
+                    q = src.indexOf("]]>", p + 9, to);
+                    p = q < 0 ? -1 : q + 3;
+                } else {
+                    p = skipDeclaration(src, p + 2, to);
+                }
+                if (p < 0) {
+                    result.valid = false;
+                    break;
+                }
+            } else if (c == '?') {
+                q = src.indexOf("?>", p + 2, to);
+                if (q < 0) {
+                    result.valid = false;
+                    break;
+                }
+                p = q + 2;
+            } else {
+                q = skipStartTag(src, p + 1, to);
+                if (q < 0) {
+                    result.valid = false;
+                    break;
+                }
+                if (!opens.isEmpty()) {
+                    Element parent = opens.get(opens.size() - 1);
+                    if (parent.leadingEnd < 0) {
+                        parent.leadingEnd = p;
+                    }
+                }
+                if (src.get(q - 1) != '/') {
+                    opens.add(new Element(p, q + 1, readName(src, p + 1, q)));
+                }
+                p = q + 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the start tag at the position or returns null if the tag does not end before the limit.
+     */
+    static Element readStartTag(ByteRegion src, long p, long to) {
+        final long q = skipStartTag(src, p + 1, to);
+        return q < 0 ? null : new Element(p, q + 1, readName(src, p + 1, q));
+    }
+
+    /**
+     * Returns true if the local part of the element name at the position equals the name.
+     */
+    static boolean hasLocalName(ByteRegion src, long p, byte[] local, long to) {
+        final byte[] name = readName(src, p, Math.min(p + 1024, to));
+        int d = name.length - 1;
+        while (d >= 0 && name[d] != ':') {
+            d--;
+        }
+        return name.length - d - 1 == local.length 
+            && Arrays.equals(Arrays.copyOfRange(name, d + 1, name.length), local);
+    }
+
+    /**
+     * Returns the position of the closing '>' of the start tag or -1.
+     */
+    private static long skipStartTag(ByteRegion src, long p, long to) {
+        for (; p < to; p++) {
+            final byte b = src.get(p);
+            if (b == '"' || b == '\'') {
+                // skip the attribute value
+                p = src.indexOf(b, p + 1, to);
+                if (p < 0) {
+                    return -1;
+                }
+            } else if (b == '>') {
+                return p;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the position after the declaration such as the document type declaration or -1.
+     */
+    private static long skipDeclaration(ByteRegion src, long p, long to) {
+        int subset = 0;
+        for (; p < to; p++) {
+            final byte b = src.get(p);
+            if (b == '"' || b == '\'') {
+                p = src.indexOf(b, p + 1, to);
+                if (p < 0) {
+                    return -1;
+                }
+            } else if (b == '[') {
+                subset++;
+            } else if (b == ']') {
+                subset--;
+            } else if (b == '>' && subset == 0) {
+                return p + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static byte[] readName(ByteRegion src, long p, long to) {
+        long e = p;
+        while (e < to) {
+            final byte b = src.get(e);
+            if (b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '/' || b == '>') {
+                break;
+            }
+            e++;
+        }
+        return src.getBytes(p, e);
+    }
+
+    /**
+     * Returns true if the byte may start an element name.
+     */
+    static boolean isNameStart(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '_' || b == ':' || b < 0;
+    }
+}
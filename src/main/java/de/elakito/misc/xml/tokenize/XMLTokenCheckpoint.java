@@ -0,0 +1,131 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A checkpoint of an XMLTokenIterator reading a mapped input, taken after a token has been returned.
+ * It holds the byte offset from which the parsing continues together with the context needed to 
+ * resume at that offset, namely the start tags of the enclosing elements with their namespace 
+ * declarations, the path states of the matcher, and the segments kept in the wrap mode.
+ * 
+ * The prolog is not part of the context so that the entities declared in a DTD are not available
+ * after resuming.
+ */
+public final class XMLTokenCheckpoint implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String path;
+    private final char mode;
+    private final long offset;
+    // the synthesized start tags of the enclosing elements
+    private final String[] context;
+    private final long[] states;
+    // the segments as strings or byte arrays
+    private final Object[] segments;
+    private final int[] segmentlog;
+    private final boolean backtrack;
+    private final int trackdepth;
+    private final long ordinal;
+
+    XMLTokenCheckpoint(String path, char mode, long offset, String[] context, long[] states, 
+                       Object[] segments, int[] segmentlog, boolean backtrack, int trackdepth, long ordinal) {
+        this.path = path;
+        this.mode = mode;
+        this.offset = offset;
+        this.context = context;
+        this.states = states;
+        this.segments = segments;
+        this.segmentlog = segmentlog;
+        this.backtrack = backtrack;
+        this.trackdepth = trackdepth;
+        this.ordinal = ordinal;
+    }
+
+    /**
+     * Returns the path of the iterator.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Returns the extraction mode of the iterator.
+     */
+    public char getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns the byte offset in the input from which the parsing continues.
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns the number of the enclosing elements.
+     */
+    public int getDepth() {
+        return context.length;
+    }
+
+    String[] getContext() {
+        return context;
+    }
+
+    long[] getStates() {
+        return states;
+    }
+
+    Object[] getSegments() {
+        return segments;
+    }
+
+    int[] getSegmentLog() {
+        return segmentlog;
+    }
+
+    boolean isBacktrack() {
+        return backtrack;
+    }
+
+    int getTrackDepth() {
+        return trackdepth;
+    }
+
+    long getOrdinal() {
+        return ordinal;
+    }
+
+    /**
+     * Returns a copy of this checkpoint with the offset moved back by the specified number of bytes.
+     */
+    XMLTokenCheckpoint rebase(long delta) {
+        return new XMLTokenCheckpoint(path, mode, offset - delta, context, states, segments, segmentlog, 
+                                      backtrack, trackdepth, ordinal);
+    }
+
+    @Override
+    public String toString() {
+        return "XMLTokenCheckpoint[path=" + path + ", offset=" + offset + ", context=" + Arrays.toString(context) + "]";
+    }
+}
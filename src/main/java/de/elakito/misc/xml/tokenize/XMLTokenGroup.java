@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+/**
+ * A group of tokens returned by XMLTokenIterator in the token view mode. The group is the char 
+ * sequence of the whole group including its enclosing markup and it gives the boundaries of the 
+ * tokens in it, so that each token can be taken without splitting the group again. 
+ * The group is only valid until the next call to hasNext() or next() of its iterator.
+ */
+public final class XMLTokenGroup implements CharSequence {
+    private CharSequence text;
+    // the start and end offsets of the tokens
+    private int[] offsets = new int[32];
+    private int size;
+
+    XMLTokenGroup() {
+    }
+
+    void clear() {
+        text = null;
+        size = 0;
+    }
+
+    void add(int start, int end) {
+        if (size * 2 == offsets.length) {
+            int[] no = new int[offsets.length << 1];
+            System.arraycopy(offsets, 0, no, 0, offsets.length);
+            offsets = no;
+        }
+        offsets[size * 2] = start;
+        offsets[size * 2 + 1] = end;
+        size++;
+    }
+
+    void setText(CharSequence text) {
+        this.text = text;
+    }
+
+    /**
+     * Returns the number of tokens in this group.
+     * 
+     * @return the number of tokens
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the offset of the specified token in this group.
+     * 
+     * @param index the index of the token
+     * @return the offset of the first char of the token
+     */
+    public int getStart(int index) {
+        checkIndex(index);
+        return offsets[index * 2];
+    }
+
+    /**
+     * Returns the offset after the specified token in this group.
+     * 
+     * @param index the index of the token
+     * @return the offset after the last char of the token
+     */
+    public int getEnd(int index) {
+        checkIndex(index);
+        return offsets[index * 2 + 1];
+    }
+
+    /**
+     * Returns the specified token as a char sequence backed by this group.
+     * 
+     * @param index the index of the token
+     * @return the token
+     */
+    public CharSequence getToken(int index) {
+        checkIndex(index);
+        return text.subSequence(offsets[index * 2], offsets[index * 2 + 1]);
+    }
+
+    @Override
+    public int length() {
+        return text.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return text.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return text.subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size);
+        }
+    }
+}
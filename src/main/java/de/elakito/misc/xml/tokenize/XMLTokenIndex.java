@@ -0,0 +1,223 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * A sidecar index of the tokens of a file that gives random access to the tokens by their ordinal.
+ * The index stores the byte offsets of each token in a fixed size entry, so that a token is read 
+ * from the file with a single seek. The tokens are read as they are in the file, without injecting
+ * the namespace bindings or adding the wrapping context.
+ */
+public final class XMLTokenIndex implements Closeable {
+    private static final int MAGIC = 0x58544958;
+    private static final int VERSION = 1;
+    // the magic, the version, and the size of the indexed file
+    private static final int HEADER_SIZE = 16;
+    // the start offset and the length of a token
+    private static final int ENTRY_SIZE = 12;
+    // the number of the entries mapped by a window, so that no entry spans two windows
+    private static final int WINDOW_ENTRIES = 1 << 24;
+
+    private final RandomAccessFile file;
+    private final MappedByteBuffer[] entries;
+    private final int windowEntries;
+    private final long sourceSize;
+    private final long count;
+
+    private XMLTokenIndex(RandomAccessFile file, int windowEntries) throws IOException {
+        this.file = file;
+        final long size = file.length();
+        if (size < HEADER_SIZE || file.readInt() != MAGIC || file.readInt() != VERSION
+            || (size - HEADER_SIZE) % ENTRY_SIZE != 0) {
+            throw new IOException("invalid token index");
+        }
+        this.sourceSize = file.readLong();
+        this.count = (size - HEADER_SIZE) / ENTRY_SIZE;
+        this.windowEntries = windowEntries;
+        // the entries are mapped in windows as a mapping is limited to 2 GB
+        this.entries = new MappedByteBuffer[(int)((count + windowEntries - 1) / windowEntries)];
+        for (int i = 0; i < entries.length; i++) {
+            final long first = (long)i * windowEntries;
+            entries[i] = file.getChannel().map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + first * ENTRY_SIZE, 
+                                               Math.min(count - first, windowEntries) * ENTRY_SIZE);
+        }
+    }
+
+    /**
+     * Builds the index of the tokens matched by the path in the file.
+     * 
+     * @param path the compiled path
+     * @param source the channel of the file to be indexed
+     * @param charset the character encoding of the file
+     * @param index the index file to be written
+     * @return the number of the indexed tokens
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public static long build(XMLTokenPath path, FileChannel source, String charset, File index) 
+        throws XMLStreamException, IOException {
+        XMLTokenIterator tokenizer = new XMLTokenIterator(path, 'u', 1, source, charset, true);
+        tokenizer.setOffsetMode(true);
+        long n = 0;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(index)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source.size());
+            while (tokenizer.hasNext()) {
+                long[] offsets = (long[])tokenizer.next();
+                if (offsets[1] - offsets[0] > Integer.MAX_VALUE) {
+                    throw new IOException("token too large at offset " + offsets[0]);
+                }
+                out.writeLong(offsets[0]);
+                out.writeInt((int)(offsets[1] - offsets[0]));
+                n++;
+            }
+        } finally {
+            out.close();
+            tokenizer.close();
+        }
+        return n;
+    }
+
+    /**
+     * Opens the index file.
+     * 
+     * @param index the index file
+     * @return the index
+     * @throws IOException if the file is not a valid index
+     */
+    public static XMLTokenIndex open(File index) throws IOException {
+        return open(index, WINDOW_ENTRIES);
+    }
+
+    static XMLTokenIndex open(File index, int windowEntries) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(index, "r");
+        try {
+            return new XMLTokenIndex(file, windowEntries);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of the indexed tokens.
+     */
+    public long size() {
+        return count;
+    }
+
+    /**
+     * Returns the byte offset of the token in the indexed file.
+     * 
+     * @param ordinal the ordinal of the token
+     */
+    public long getStart(long ordinal) {
+        return getWindow(ordinal).getLong(getEntry(ordinal));
+    }
+
+    /**
+     * Returns the byte offset after the token in the indexed file.
+     * 
+     * @param ordinal the ordinal of the token
+     */
+    public long getEnd(long ordinal) {
+        final ByteBuffer w = getWindow(ordinal);
+        final int e = getEntry(ordinal);
+        return w.getLong(e) + w.getInt(e + 8);
+    }
+
+    /**
+     * Reads the token from the indexed file.
+     * 
+     * @param source the channel of the indexed file
+     * @param ordinal the ordinal of the token
+     * @return the token
+     * @throws IOException if the file cannot be read or has been changed since it was indexed
+     */
+    public byte[] read(FileChannel source, long ordinal) throws IOException {
+        if (source.size() != sourceSize) {
+            throw new IOException("indexed file has been changed");
+        }
+        final ByteBuffer w = getWindow(ordinal);
+        final int e = getEntry(ordinal);
+        long pos = w.getLong(e);
+        ByteBuffer buf = ByteBuffer.allocate(w.getInt(e + 8));
+        while (buf.hasRemaining()) {
+            int n = source.read(buf, pos);
+            if (n < 0) {
+                throw new EOFException("unexpected end of indexed file");
+            }
+            pos += n;
+        }
+        return buf.array();
+    }
+
+    /**
+     * Reads the tokens in the range of ordinals from the indexed file.
+     * 
+     * @param source the channel of the indexed file
+     * @param from the ordinal of the first token
+     * @param to the ordinal after the last token
+     * @return the tokens
+     * @throws IOException if the file cannot be read or has been changed since it was indexed
+     */
+    public List<byte[]> read(FileChannel source, long from, long to) throws IOException {
+        List<byte[]> tokens = new ArrayList<byte[]>();
+        for (long i = from; i < to; i++) {
+            tokens.add(read(source, i));
+        }
+        return tokens;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private ByteBuffer getWindow(long ordinal) {
+        if (ordinal < 0 || ordinal >= count) {
+            throw new IndexOutOfBoundsException("ordinal " + ordinal);
+        }
+        return entries[(int)(ordinal / windowEntries)];
+    }
+
+    // the position of the entry in its window
+    private int getEntry(long ordinal) {
+        return (int)(ordinal % windowEntries) * ENTRY_SIZE;
+    }
+}
@@ -19,34 +19,34 @@
 
 package de.elakito.misc.xml.tokenize;
 
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.SequenceInputStream;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import de.elakito.misc.xml.util.AttributedQName;
+import de.elakito.misc.xml.util.RecordableInputStream;
 import de.elakito.misc.xml.util.RecordableReader;
-import de.elakito.misc.xml.util.StaxUtils;
+import de.elakito.misc.xml.util.RecordedText;
 
 /**
  * An iterator to extract a specific XML content/token. The token to be extracted
@@ -55,31 +55,86 @@ import de.elakito.misc.xml.util.StaxUtils;
  * the inject mode 'i' injects the namespace bindings to the extracted node.
  * The wrap mode 'w' wraps the extracted node with its ancestor elements.
  * The unwrap 'u' mode unwraps the start ane end tags from the extracted node.
- * The text mode 't' concatenates only the text nodes of the extract node.
+ * The text mode 't' concatenates only the text nodes of the extract node, including the CDATA sections
+ * and with the character and entity references resolved.
+ * 
+ * The prolog is read up to the start tag of the root element when the iterator is constructed or reset,
+ * so that a malformed prolog or root start tag is reported as an XMLStreamException. The tokens are fetched 
+ * lazily by hasNext() and next(), which report the errors found after that point as a RuntimeException 
+ * caused by the XMLStreamException or by the IOException of spilling the token.
  */
 public class XMLTokenIterator implements Iterator<Object>, Closeable {
     private static final Logger LOG = LoggerFactory.getLogger(XMLTokenIterator.class);
+    // the size of the recorded text above which the text is discarded while skipping a subtree
+    private static final int SKIP_DISCARD_SIZE = 8192;
 
-    private static final Pattern NAMESPACE_PATTERN = Pattern.compile("xmlns(:\\w+|)\\s*=\\s*('[^']*'|\"[^\"]*\")");
-
-    private AttributedQName[] splitpath;
-    private int index;
+    private XMLTokenPath[] splitpaths;
+    // the path states of the current element and its ancestors indexed by depth and path
+    private long[] states;
+    private char[] modes;
+    // the mode of the path matched by the current token
     private char mode;
     private int group;
     private RecordableReader in;
-    private XMLStreamReader reader;
+    private RecordableInputStream bin;
+    // the mapped input and the byte position corresponding to the consumed chars
+    private ByteRegion mapped;
+    private InputStream mappedin;
+    private long mappedpos;
+    // the byte position of the start tag of the token being read from the mapped input or -1
+    private long pendingpos = -1;
+    // the minimum distance in bytes between the checkpoints taken while scanning or 0 for none
+    private int checkpointinterval;
+    private XMLTokenCheckpoint lastcheckpoint;
+    private int mappedwidth;
+    private boolean binary;
+    private XMLLexer reader;
+    private XMLLexerFactory lexerfactory;
+    private TokenBuilder builder;
     private List<QName> path;
-    private List<Map<String, String>> namespaces;
-    private List<String> segments;
-    private List<QName> segmentlog;
-    private List<String> tokens;
+    private List<NamespaceScope> namespaces;
+    private List<CharSequence> segments;
+    // the depths of the elements whose preceding text is kept in the segments
+    private List<Integer> segmentlog;
+    // the builder assembling the grouped tokens and the boundaries of the tokens in the group
+    private TokenBuilder groupbuilder;
+    private XMLTokenGroup groupview;
     private int code;
     private int consumed;
     private boolean backtrack;
     private int trackdepth = -1;
     private int depth;
+    private boolean view;
+    // the quote character found by scanStartTag
+    private char stagquote;
 
     private Object nextToken;
+    // returning the offsets of the tokens instead of their content
+    private boolean offsets;
+    private long ordinal;
+    private int nextPath;
+    private int currentPath;
+    private boolean fetched;
+
+    // the sink receiving the tokens pushed by tokenize
+    private TokenSink sink;
+    // the sink receiving the token being streamed
+    private TokenSink target;
+    private Writer sinkwriter;
+    private SpillBuffer spill;
+    // the number of tokens in the current group
+    private int grouped;
+    // the size and delay limits of a group and the size and start time of the current group
+    private long groupsize;
+    private long groupdelay;
+    private long groupchars;
+    private long groupstart;
+    // the depth of the context enclosing the grouped tokens
+    private int groupcontext;
+    private char[] scratch;
+    private String charset;
+    // the pool that created this iterator
+    XMLTokenIteratorPool pool;
 
     /**
      * Constructs an XML token iterator.
@@ -111,10 +166,151 @@ public class XMLTokenIterator implements Iterator<Object>, Closeable {
      */
     public XMLTokenIterator(String path, Map<String, String> nsmap, char mode, int group, InputStream in, String charset) 
             throws XMLStreamException, UnsupportedEncodingException {
+        this(path, nsmap, mode, group, in, charset, false);
+    }
+
+    /**
+     * Constructs an XML token iterator. In the binary mode, the tokens are extracted as byte arrays
+     * in the encoding of the input stream without decoding and encoding their content. The binary mode 
+     * is supported for utf-8 and the ascii compatible single byte charsets.
+     * 
+     * @param path the unix like path notation using the QNames
+     * @param nsmap the namespace binding map
+     * @param mode the extraction mode. One of 'i', 'w', and 'u', representing inject, wrap, and unwrap
+     * @param group the number of tokens to be grouped together  
+     * @param in the input stream
+     * @param charset the character encoding
+     * @param binary true to extract the tokens as byte arrays, false to extract them as strings
+     * @throws XMLStreamException
+     * @throws UnsupportedEncodingException 
+     */
+    public XMLTokenIterator(String path, Map<String, String> nsmap, char mode, int group, InputStream in, String charset,
+                            boolean binary) throws XMLStreamException, UnsupportedEncodingException {
+        this(XMLTokenPath.compile(path, nsmap), mode, group, in, charset, binary);
+    }
+
+    /**
+     * Constructs an XML token iterator using a precompiled path.
+     * 
+     * @param path the compiled path
+     * @param mode the extraction mode. One of 'i', 'w', 'u', and 't', representing inject, wrap, unwrap, and text
+     * @param group the number of tokens to be grouped together  
+     * @param in the input stream
+     * @param charset the character encoding
+     * @param binary true to extract the tokens as byte arrays, false to extract them as strings
+     * @throws XMLStreamException
+     * @throws UnsupportedEncodingException 
+     * @see XMLTokenPath#compile(String, Map)
+     */
+    public XMLTokenIterator(XMLTokenPath path, char mode, int group, InputStream in, String charset,
+                            boolean binary) throws XMLStreamException, UnsupportedEncodingException {
         // woodstox's getLocation().etCharOffset() does not return the offset correctly for InputStream, so use Reader instead.
-        this(path, nsmap, mode, group, new InputStreamReader(in, charset));
+        if (binary) {
+            // record the raw bytes and map the char offsets of the reader to the byte offsets
+            this.bin = new RecordableInputStream(in, charset);
+            if (!bin.supportsBytePosition()) {
+                throw new UnsupportedEncodingException("binary mode not supported for charset " + charset);
+            }
+            this.builder = TokenBuilder.forBytes(charset);
+            this.charset = charset;
+            this.binary = true;
+            initialize(new XMLTokenPath[]{path}, new char[]{mode}, group, new InputStreamReader(bin, charset));
+        } else {
+            this.in = new RecordableReader(new InputStreamReader(in, charset));
+            this.builder = TokenBuilder.forString();
+            this.charset = charset;
+            initialize(new XMLTokenPath[]{path}, new char[]{mode}, group, this.in);
+        }
     }
     
+    /**
+     * Constructs an XML token iterator reading a file through a memory mapping. The tokens are taken
+     * directly from the mapped bytes instead of being recorded while reading. The file must be 
+     * encoded in utf-8 or in an ascii compatible single byte charset. The channel is not closed by
+     * this iterator.
+     * 
+     * @param path the compiled path
+     * @param mode the extraction mode. One of 'i', 'w', 'u', and 't', representing inject, wrap, unwrap, and text
+     * @param group the number of tokens to be grouped together  
+     * @param channel the file channel
+     * @param charset the character encoding
+     * @param binary true to extract the tokens as byte arrays, false to extract them as strings
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public XMLTokenIterator(XMLTokenPath path, char mode, int group, FileChannel channel, String charset,
+                            boolean binary) throws XMLStreamException, IOException {
+        initializeMapped(path, mode, group, ByteRegion.map(channel), charset, binary, null);
+    }
+
+    /**
+     * Constructs an XML token iterator resuming from a checkpoint taken by an iterator reading 
+     * the same file with the same path and mode. The parsing continues at the offset of the checkpoint
+     * after the synthesized start tags of the enclosing elements.
+     * 
+     * @param path the compiled path
+     * @param mode the extraction mode. One of 'i', 'w', 'u', and 't'
+     * @param channel the file channel to be mapped
+     * @param charset the character encoding
+     * @param binary true to return the tokens as byte arrays in the original encoding
+     * @param checkpoint the checkpoint to resume from
+     * @throws XMLStreamException
+     * @throws IOException
+     * @see #getCheckpoint()
+     */
+    public XMLTokenIterator(XMLTokenPath path, char mode, FileChannel channel, String charset,
+                            boolean binary, XMLTokenCheckpoint checkpoint) throws XMLStreamException, IOException {
+        this(path, mode, ByteRegion.map(channel), charset, binary, checkpoint);
+    }
+
+    /**
+     * Constructs an XML token iterator reading the bytes of the region as the mapped input, optionally 
+     * resuming from the checkpoint.
+     */
+    XMLTokenIterator(XMLTokenPath path, char mode, ByteRegion region, String charset,
+                     boolean binary, XMLTokenCheckpoint checkpoint) throws XMLStreamException, IOException {
+        if (checkpoint != null 
+            && (!path.toString().equals(checkpoint.getPath()) || (mode != 0 ? mode : 'i') != checkpoint.getMode())) {
+            throw new IllegalArgumentException("checkpoint taken for path " + checkpoint.getPath() 
+                + " with mode " + checkpoint.getMode());
+        }
+        initializeMapped(path, mode, 1, region, charset, binary, checkpoint);
+    }
+
+    private void initializeMapped(XMLTokenPath path, char mode, int group, ByteRegion region, String charset,
+                                  boolean binary, XMLTokenCheckpoint checkpoint) throws XMLStreamException, IOException {
+        if (!RecordableInputStream.supportsBytePosition(charset)) {
+            throw new UnsupportedEncodingException("mapped input not supported for charset " + charset);
+        }
+        this.mapped = region;
+        this.mappedwidth = "UTF-8".equals(Charset.forName(charset).name()) ? 0 : 1;
+        this.builder = binary ? TokenBuilder.forBytes(charset) : TokenBuilder.forString();
+        this.charset = charset;
+        this.binary = binary;
+        StringBuilder sb = new StringBuilder();
+        if (checkpoint == null) {
+            mappedin = mapped.openStream(0, mapped.size());
+            initialize(new XMLTokenPath[]{path}, new char[]{mode}, group, new InputStreamReader(mappedin, charset));
+        } else {
+            if (checkpoint.getOffset() > mapped.size()) {
+                throw new IllegalArgumentException("checkpoint offset beyond the end of the input");
+            }
+            for (String stag : checkpoint.getContext()) {
+                sb.append(stag);
+            }
+            InputStream prefix = new ByteArrayInputStream(sb.toString().getBytes(charset));
+            mappedin = new SequenceInputStream(prefix, mapped.openStream(checkpoint.getOffset(), mapped.size()));
+            initialize(new XMLTokenPath[]{path}, new char[]{mode}, group, new InputStreamReader(mappedin, charset));
+        }
+        // the namespace scopes are needed to take checkpoints
+        if (namespaces == null) {
+            this.namespaces = new ArrayList<NamespaceScope>();
+        }
+        if (checkpoint != null) {
+            restore(checkpoint, sb.length());
+        }
+    }
+
     /**
      * Constructs an XML token iterator.
      * 
@@ -139,80 +335,352 @@ public class XMLTokenIterator implements Iterator<Object>, Closeable {
      * @throws XMLStreamException
      */
     public XMLTokenIterator(String path, Map<String, String> nsmap, char mode, int group, Reader in) throws XMLStreamException {
-        final String[] sl = path.substring(1).split("/");
-        this.splitpath = new AttributedQName[sl.length];
-        for (int i = 0; i < sl.length; i++) {
-            String s = sl[i];
-            if (s.length() > 0) {
-                int d = s.indexOf(':');
-                String pfx = d > 0 ? s.substring(0, d) : "";
-                this.splitpath[i] = 
-                    new AttributedQName(
-                        "*".equals(pfx) ? "*" : nsmap == null ? "" : nsmap.get(pfx), d > 0 ? s.substring(d + 1) : s, pfx);
-            }
-        }
-        this.mode = mode != 0 ? mode : 'i';
-        this.group = group > 0 ? group : 1;
+        this(XMLTokenPath.compile(path, nsmap), mode, group, in);
+    }
+
+    /**
+     * Constructs an XML token iterator using a precompiled path.
+     * 
+     * @param path the compiled path
+     * @param mode the extraction mode. One of 'i', 'w', 'u', and 't', representing inject, wrap, unwrap, and text
+     * @param group the number of tokens to be grouped together
+     * @param in the input reader
+     * @throws XMLStreamException
+     * @see XMLTokenPath#compile(String, Map)
+     */
+    public XMLTokenIterator(XMLTokenPath path, char mode, int group, Reader in) throws XMLStreamException {
+        this.in = new RecordableReader(in);
+        this.builder = TokenBuilder.forString();
+        initialize(new XMLTokenPath[]{path}, new char[]{mode}, group, this.in);
+    }
+
+    /**
+     * Constructs an XML token iterator that extracts the tokens of several paths in a single pass.
+     * Each path is extracted using its own mode and the path of the token returned by next() 
+     * is available from getTokenPath(). When the paths overlap, the token of the first matching path
+     * is extracted and the tokens nested in it are not extracted separately. In the wrap mode, the tokens 
+     * extracted for the other paths are not included in the wrapping context.
+     * 
+     * @param paths the unix like path notations using the QNames
+     * @param nsmap the namespace binding map
+     * @param modes the extraction modes of the paths. One of 'i', 'w', 'u', and 't' for each path
+     * @param in the input stream
+     * @param charset the character encoding
+     * @throws XMLStreamException
+     * @throws UnsupportedEncodingException 
+     */
+    public XMLTokenIterator(String[] paths, Map<String, String> nsmap, char[] modes, InputStream in, String charset) 
+            throws XMLStreamException, UnsupportedEncodingException {
+        this(compile(paths, nsmap), modes, new InputStreamReader(in, charset));
+    }
+
+    /**
+     * Constructs an XML token iterator that extracts the tokens of several paths in a single pass.
+     * 
+     * @param paths the unix like path notations using the QNames
+     * @param nsmap the namespace binding map
+     * @param modes the extraction modes of the paths. One of 'i', 'w', 'u', and 't' for each path
+     * @param in the input reader
+     * @throws XMLStreamException
+     * @see #XMLTokenIterator(String[], Map, char[], InputStream, String)
+     */
+    public XMLTokenIterator(String[] paths, Map<String, String> nsmap, char[] modes, Reader in) throws XMLStreamException {
+        this(compile(paths, nsmap), modes, in);
+    }
+
+    /**
+     * Constructs an XML token iterator that extracts the tokens of several precompiled paths in a single pass.
+     * 
+     * @param paths the compiled paths
+     * @param modes the extraction modes of the paths. One of 'i', 'w', 'u', and 't' for each path
+     * @param in the input stream
+     * @param charset the character encoding
+     * @throws XMLStreamException
+     * @throws UnsupportedEncodingException 
+     * @see #XMLTokenIterator(String[], Map, char[], InputStream, String)
+     */
+    public XMLTokenIterator(XMLTokenPath[] paths, char[] modes, InputStream in, String charset) 
+            throws XMLStreamException, UnsupportedEncodingException {
+        this(paths, modes, new InputStreamReader(in, charset));
+    }
+
+    /**
+     * Constructs an XML token iterator that extracts the tokens of several precompiled paths in a single pass.
+     * 
+     * @param paths the compiled paths
+     * @param modes the extraction modes of the paths. One of 'i', 'w', 'u', and 't' for each path
+     * @param in the input reader
+     * @throws XMLStreamException
+     * @see #XMLTokenIterator(String[], Map, char[], InputStream, String)
+     */
+    public XMLTokenIterator(XMLTokenPath[] paths, char[] modes, Reader in) throws XMLStreamException {
+        if (paths.length == 0 || paths.length != modes.length) {
+            throw new IllegalArgumentException("a mode must be given for each path");
+        }
         this.in = new RecordableReader(in);
-        // use a local staxutils to create a stream reader. This can be replaced if other means is available
-        this.reader = StaxUtils.createXMLStreamReader(this.in);
+        this.builder = TokenBuilder.forString();
+        initialize(paths, modes, 1, this.in);
+    }
+
+    private static XMLTokenPath[] compile(String[] paths, Map<String, String> nsmap) {
+        XMLTokenPath[] cps = new XMLTokenPath[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            cps[i] = XMLTokenPath.compile(paths[i], nsmap);
+        }
+        return cps;
+    }
 
-        LOG.trace("reader.class = {}", reader.getClass());
+    private void initialize(XMLTokenPath[] paths, char[] modes, int group, Reader in) 
+        throws XMLStreamException {
+        this.splitpaths = paths.clone();
+        this.modes = new char[paths.length];
+        this.states = new long[16 * paths.length];
+        boolean wrap = false;
+        boolean inject = false;
+        for (int i = 0; i < paths.length; i++) {
+            this.modes[i] = modes[i] != 0 ? modes[i] : 'i';
+            this.states[i] = splitpaths[i].getInitialState();
+            wrap |= this.modes[i] == 'w';
+            inject |= this.modes[i] == 'i';
+        }
+        this.mode = this.modes[0];
+        this.group = group > 0 ? group : 1;
+        // use the configured lexer, which is either the built-in lexer or a stax stream reader
+        this.lexerfactory = XMLLexerFactory.getDefault();
+        this.reader = lexerfactory.createLexer(in);
 
-        int coff = reader.getLocation().getCharacterOffset();
+        LOG.trace("reader = {}", reader);
+
+        int coff = reader.getCharacterOffset();
         if (coff != 0) {
-            LOG.error("XMLStreamReader {} not supporting Location");
-            throw new XMLStreamException("reader not supporting Location");
+            LOG.error("XMLLexer {} not supporting the character offset", reader);
+            throw new XMLStreamException("lexer not supporting the character offset");
         }
 
         this.path = new ArrayList<QName>();
         // wrapped mode needs the segments and the injected mode needs the namespaces
-        if (this.mode == 'w') {
-            this.segments = new ArrayList<String>();
-            this.segmentlog = new ArrayList<QName>();
-        } else if (this.mode == 'i') {
-            this.namespaces = new ArrayList<Map<String, String>>();
+        if (wrap) {
+            this.segments = new ArrayList<CharSequence>();
+            this.segmentlog = new ArrayList<Integer>();
+        }
+        if (inject) {
+            this.namespaces = new ArrayList<NamespaceScope>();
         }
 
-        // when grouping the tokens, allocate the storage to temporarily store tokens. 
+        // when grouping the tokens, allocate the builder to assemble the groups. 
         if (this.group > 1) {
-                this.tokens = new ArrayList<String>();
+            this.groupview = new XMLTokenGroup();
         }
-        // pre-fetch the initial token to make the iterator gets started.
-        this.nextToken = getNextToken();
+        readProlog();
     }
-    
-    private boolean isDoS() {
-        return splitpath[index] == null;
+
+    /**
+     * Reads the prolog up to the start tag of the root element so that a malformed prolog or root start tag 
+     * fails when the iterator is constructed or reset. The start tag is kept to be read by getNextToken().
+     */
+    private void readProlog() throws XMLStreamException {
+        int c;
+        do {
+            c = reader.next();
+        } while (c != XMLStreamConstants.START_ELEMENT && c != XMLStreamConstants.END_DOCUMENT);
+        code = c;
     }
-    
-    private AttributedQName current() {
-        return splitpath[index + (isDoS() ? 1 : 0)];
+
+    /**
+     * Sets whether the tokens are returned as reusable views. When enabled, next() returns a CharSequence
+     * that may point into the recording buffer or into a buffer reused for the subsequent tokens. 
+     * The returned token is only valid until the next call to hasNext() or next() and must be copied 
+     * using toString() if it is needed beyond that point. This is not supported in the binary mode.
+     * 
+     * @param view true to return the tokens as reusable views, false to return them as strings
+     */
+    public void setTokenView(boolean view) {
+        if (view && binary) {
+            throw new IllegalStateException("token view not supported in binary mode");
+        }
+        this.view = view;
     }
     
-    private AttributedQName ancestor() {
-        return index == 0 ? null : splitpath[index - 1];
+    /**
+     * Sets whether the offsets of the tokens are returned instead of their content. When enabled, 
+     * next() returns a long array holding the byte offset of the start tag, the byte offset after the 
+     * end tag, and the ordinal of the token. The content of the tokens is not built. This is only 
+     * supported for the mapped input and the tokens are not grouped.
+     * 
+     * @param offsets true to return the offsets of the tokens
+     */
+    public void setOffsetMode(boolean offsets) {
+        if (offsets && mapped == null) {
+            throw new IllegalStateException("offset mode only supported for mapped input");
+        }
+        this.offsets = offsets;
     }
 
-    private void down() {
-        if (isDoS()) {
-            index++;
+    /**
+     * Sets the limits returning a group before it holds the number of tokens given to the constructor. 
+     * A group is returned once the total size of its tokens reaches the size limit, counted in chars 
+     * or in bytes in the binary mode, or once the delay has elapsed since its first token was read. 
+     * As the tokens are pulled from the input, the delay is checked before and after each event is read,
+     * so that a group held by a stalled input is returned as soon as the read returns, without the token 
+     * that follows.
+     * This is only supported when the tokens are grouped.
+     * 
+     * @param size the size limit of a group, or 0 for no size limit
+     * @param delay the delay limit of a group, or 0 for no delay limit
+     * @param unit the time unit of the delay
+     */
+    public void setGroupLimits(long size, long delay, TimeUnit unit) {
+        if (group == 1) {
+            throw new IllegalStateException("group limits only supported for grouped tokens");
         }
-        index++;
+        this.groupsize = size > 0 ? size : 0;
+        this.groupdelay = delay > 0 ? unit.toNanos(delay) : 0;
     }
-    
-    private void up() {
-        index--;
+
+    /**
+     * Returns a checkpoint from which a new iterator can resume after the token last returned by next().
+     * This is only supported for the mapped input and the tokens are not grouped. The checkpoint 
+     * must be taken before hasNext() is called for the following token.
+     * 
+     * @return the checkpoint
+     * @see #XMLTokenIterator(XMLTokenPath, char, FileChannel, String, boolean, XMLTokenCheckpoint)
+     */
+    public XMLTokenCheckpoint getCheckpoint() {
+        if (mapped == null || group > 1) {
+            throw new IllegalStateException("checkpoint only supported for mapped input without grouping");
+        }
+        if (fetched) {
+            throw new IllegalStateException("checkpoint not available after the next token is fetched");
+        }
+        return createCheckpoint(depth);
     }
-    
-    private boolean isBottom() {
-        return index == splitpath.length - (isDoS() ? 2 : 1);
+
+    /**
+     * Sets the minimum distance in bytes between the checkpoints taken at the start tags outside the tokens
+     * while scanning the mapped input, of which the last one is returned by getLastCheckpoint(). 
+     * In the wrap mode, the checkpoints are only taken where the preceding text is not kept in the context.
+     * 
+     * @param interval the minimum distance or 0 to take no checkpoints
+     */
+    void setCheckpointInterval(int interval) {
+        if (mapped == null || group > 1) {
+            throw new IllegalStateException("checkpoint only supported for mapped input without grouping");
+        }
+        this.checkpointinterval = interval;
     }
-    
-    private boolean isTop() {
-        return index == 0;
+
+    /**
+     * Returns the last checkpoint taken while scanning or null.
+     */
+    XMLTokenCheckpoint getLastCheckpoint() {
+        return lastcheckpoint;
     }
-    
+
+    private XMLTokenCheckpoint createCheckpoint(int levels) {
+        String[] context = new String[levels];
+        for (int i = 0; i < levels; i++) {
+            NamespaceScope scope = namespaces.get(i);
+            NamespaceScope pscope = i > 0 ? namespaces.get(i - 1) : NamespaceScope.EMPTY;
+            context[i] = "<" + makeName(path.get(i)) + (scope != pscope ? scope.getDeclarations('"') : "") + ">";
+        }
+        long[] cstates = new long[(levels + 1) * splitpaths.length];
+        System.arraycopy(states, 0, cstates, 0, cstates.length);
+        Object[] csegments = null;
+        int[] csegmentlog = null;
+        if (segments != null) {
+            csegments = new Object[segments.size()];
+            csegmentlog = new int[segments.size()];
+            for (int i = 0; i < csegments.length; i++) {
+                CharSequence seg = segments.get(i);
+                csegments[i] = seg instanceof ByteSequence ? ((ByteSequence)seg).toByteArray() : seg.toString();
+                csegmentlog[i] = segmentlog.get(i);
+            }
+        }
+        return new XMLTokenCheckpoint(splitpaths[0].toString(), modes[0], mappedpos, context, cstates, 
+                                      csegments, csegmentlog, backtrack, trackdepth, ordinal);
+    }
+
+    private void restore(XMLTokenCheckpoint checkpoint, int contextLength) throws XMLStreamException {
+        // parse the synthesized start tags to rebuild the path and the namespace scopes
+        for (int i = 0; i < checkpoint.getDepth(); i++) {
+            if (readNext() != XMLStreamConstants.START_ELEMENT) {
+                throw new XMLStreamException("invalid checkpoint context");
+            }
+            depth++;
+            pushName(reader.getName());
+            pushNamespaces(reader);
+        }
+        long[] cstates = checkpoint.getStates();
+        if (cstates.length > states.length) {
+            states = new long[Math.max(cstates.length, states.length << 1)];
+        }
+        System.arraycopy(cstates, 0, states, 0, cstates.length);
+        if (segments != null) {
+            Object[] csegments = checkpoint.getSegments();
+            int[] csegmentlog = checkpoint.getSegmentLog();
+            for (int i = 0; i < csegments.length; i++) {
+                pushSegment(csegmentlog[i], csegments[i] instanceof byte[] 
+                    ? new ByteSequence((byte[])csegments[i]) : (CharSequence)csegments[i]);
+            }
+        }
+        backtrack = checkpoint.isBacktrack();
+        trackdepth = checkpoint.getTrackDepth();
+        ordinal = checkpoint.getOrdinal();
+        // the text following the synthesized context starts at the offset of the checkpoint
+        consumed = contextLength;
+        mappedpos = checkpoint.getOffset();
+    }
+
+    /**
+     * Returns the byte position of the start tag of the token that was being read when the last call 
+     * to hasNext() or next() failed, or -1 if no token was being read.
+     */
+    long getPendingPosition() {
+        return pendingpos;
+    }
+
+    /**
+     * Returns true if the mapped input has been read to its end.
+     */
+    boolean isInputExhausted() {
+        try {
+            return mappedin != null && mappedin.available() == 0;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns true if the tokens are returned as reusable views.
+     */
+    public boolean isTokenView() {
+        return view;
+    }
+
+    /**
+     * Returns the path accepting the current element, -1 if no path is accepting the element but 
+     * may accept its descendants, or -2 if no path can accept the element and its descendants.
+     */
+    private int pushStates(QName name) {
+        final int n = splitpaths.length;
+        final int base = depth * n;
+        if (base + n > states.length) {
+            long[] ns = new long[states.length << 1];
+            System.arraycopy(states, 0, ns, 0, base);
+            states = ns;
+        }
+        boolean active = false;
+        for (int i = 0; i < n; i++) {
+            long state = splitpaths[i].next(states[base - n + i], name);
+            if (splitpaths[i].isAccepted(state)) {
+                return i;
+            }
+            states[base + i] = state;
+            active |= state != 0;
+        }
+        return active ? -1 : -2;
+    }
+
     private int readNext() throws XMLStreamException {
         int c = code;
         if (c > 0) {
@@ -223,15 +691,65 @@ public class XMLTokenIterator implements Iterator<Object>, Closeable {
         return c;
     }
     
-    private String getCurrenText() {
-        int pos = reader.getLocation().getCharacterOffset();
-        String txt = in.getText(pos - consumed);
+    private CharSequence getCurrenText() {
+        int pos = reader.getCharacterOffset();
+        CharSequence txt;
+        if (mapped != null) {
+            // take the text directly from the mapping
+            final long end = mapped.skipChars(mappedpos, pos - consumed, mappedwidth);
+            byte[] b = mapped.getBytes(mappedpos, end);
+            mappedpos = end;
+            txt = binary ? new ByteSequence(b) : decode(b);
+        } else if (bin != null) {
+            txt = new ByteSequence(bin.getBytes(bin.getBytePosition(pos - consumed)));
+            // keep recording
+            bin.record();
+        } else {
+            txt = in.getText(pos - consumed);
+            // keep recording
+            in.record();
+        }
+        consumed = pos;
+        return txt;
+    }
+
+    private CharSequence getCurrenTextView() {
+        if (bin != null || mapped != null) {
+            return getCurrenText();
+        }
+        int pos = reader.getCharacterOffset();
+        CharSequence txt = in.getTextView(pos - consumed);
         consumed = pos;
         // keep recording
         in.record();
         return txt;
     }
 
+    private void skipCurrenText() {
+        int pos = reader.getCharacterOffset();
+        if (mapped != null) {
+            mappedpos = mapped.skipChars(mappedpos, pos - consumed, mappedwidth);
+        } else if (bin != null) {
+            bin.discard(bin.getBytePosition(pos - consumed));
+            // keep recording
+            bin.record();
+        } else {
+            in.discard(pos - consumed);
+            // keep recording
+            in.record();
+        }
+        consumed = pos;
+    }
+
+    private String decode(byte[] b) {
+        try {
+            return new String(b, charset);
+        } catch (UnsupportedEncodingException e) {
+            // ignore it as this has been checked in the constructor
+            return "";
+        }
+    }
+
     private void pushName(QName name) {
         path.add(name);
     }
@@ -240,49 +758,89 @@ public class XMLTokenIterator implements Iterator<Object>, Closeable {
         return path.remove(path.size() - 1);
     }
 
-    private void pushSegment(QName qname, String token) {
+    private void pushSegment(int depth, CharSequence token) {
         segments.add(token);
-        segmentlog.add(qname);
+        segmentlog.add(depth);
     }
 
-    private String popSegment() {
+    private CharSequence popSegment() {
         return segments.remove(segments.size() - 1);
     }
     
-    private QName peekLog() {
+    private int peekLog() {
         return segmentlog.get(segmentlog.size() - 1);
     }
     
-    private QName popLog() {
+    private int popLog() {
         return segmentlog.remove(segmentlog.size() - 1);
     }
 
-    private void pushNamespaces(XMLStreamReader reader) {
-        Map<String, String> m = new HashMap<String, String>();
-        if (namespaces.size() > 0) {
-            m.putAll(namespaces.get(namespaces.size() - 1));
-        }
-        for (int i = 0; i < reader.getNamespaceCount(); i++) {
-            m.put(reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
-        }
-        namespaces.add(m);
+    private void pushNamespaces(XMLLexer reader) {
+        NamespaceScope scope = namespaces.size() > 0 ? namespaces.get(namespaces.size() - 1) : NamespaceScope.EMPTY;
+        namespaces.add(scope.push(reader));
     }
 
     private void popNamespaces() {
         namespaces.remove(namespaces.size() - 1);
     }
 
-    private Map<String, String> getCurrentNamespaceBindings() {
+    private NamespaceScope getCurrentNamespaceScope() {
         return namespaces.get(namespaces.size() - 1);
     }
 
+    private NamespaceScope getParentNamespaceScope() {
+        return namespaces.size() > 1 ? namespaces.get(namespaces.size() - 2) : NamespaceScope.EMPTY;
+    }
+
+    /**
+     * Scans the start tag at the beginning of the token and returns the position of its closing '>'.
+     * When requested, the quote character of the first namespace declaration is stored in stagquote.
+     */
+    private int scanStartTag(CharSequence token, boolean findquote) {
+        stagquote = 0;
+        boolean nsdecl = false;
+        final int n = token.length();
+        for (int i = 1; i < n; i++) {
+            final char c = token.charAt(i);
+            if (c == '"' || c == '\'') {
+                if (nsdecl && stagquote == 0) {
+                    stagquote = c;
+                }
+                nsdecl = false;
+                // skip the attribute value that may contain '>'
+                i = indexOf(token, c, i + 1);
+                if (i < 0) {
+                    break;
+                }
+            } else if (c == '>') {
+                return i;
+            } else if (findquote && c == 'x' && isNamespaceDeclaration(token, i)) {
+                nsdecl = true;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isNamespaceDeclaration(CharSequence token, int i) {
+        if (i + 5 >= token.length() || !Character.isWhitespace(token.charAt(i - 1))) {
+            return false;
+        }
+        for (int j = 1; j < 5; j++) {
+            if (token.charAt(i + j) != "xmlns".charAt(j)) {
+                return false;
+            }
+        }
+        final char c = token.charAt(i + 5);
+        return c == ':' || c == '=' || Character.isWhitespace(c);
+    }
+
     private void readCurrent(boolean incl) throws XMLStreamException {
         int d = depth;
         while (d <= depth) {
             int code = reader.next();
-            if (code == XMLStreamReader.START_ELEMENT) {
+            if (code == XMLStreamConstants.START_ELEMENT) {
                 depth++;
-            } else if (code == XMLStreamReader.END_ELEMENT) {
+            } else if (code == XMLStreamConstants.END_ELEMENT) {
                 depth--;
             }
         }
@@ -291,115 +849,406 @@ public class XMLTokenIterator implements Iterator<Object>, Closeable {
             code = reader.next();
         } else {
             code = reader.getEventType();
-            if (code == XMLStreamReader.END_ELEMENT) {
+            if (code == XMLStreamConstants.END_ELEMENT) {
                 // revert the depth count to avoid double counting the up event
                 depth++;
             }
         }
     }
 
-    private String getCurrentToken() throws XMLStreamException {
+    /**
+     * Skips the current element as in readCurrent(false). Unless the skipped text is kept in the segments,
+     * the text recorded while skipping is discarded at any event once it exceeds SKIP_DISCARD_SIZE, so that 
+     * the recording buffer stays small even for a large text node or a deep run of start tags.
+     * For the mapped input where nothing is recorded, the lexer skips the subtree if supported.
+     */
+    private void skipCurrent() throws XMLStreamException {
+        if (segments != null) {
+            // the skipped text becomes part of the following segment
+            readCurrent(false);
+            return;
+        }
+        if (mapped != null && reader.skipElement()) {
+            code = XMLStreamConstants.END_ELEMENT;
+            return;
+        }
+        int d = depth;
+        while (d <= depth) {
+            int c = reader.next();
+            if (c == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (c == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+            if (reader.getCharacterOffset() - consumed > SKIP_DISCARD_SIZE) {
+                skipCurrenText();
+            }
+        }
+        code = XMLStreamConstants.END_ELEMENT;
+        // revert the depth count to avoid double counting the up event
+        depth++;
+    }
+
+    /**
+     * Reads the current element as in readCurrent(true) and collects the character data from the events.
+     * The recorded markup is discarded while reading as it is not needed.
+     */
+    private void readCurrentText(TokenBuilder out) throws XMLStreamException, IOException {
+        int d = depth;
+        while (d <= depth) {
+            int code = reader.next();
+            switch (code) {
+            case XMLStreamConstants.START_ELEMENT:
+                depth++;
+                skipCurrenText();
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                skipCurrenText();
+                break;
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.SPACE:
+                if (target != null) {
+                    pushChars(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                } else {
+                    out.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+                // a text node may be reported in several events
+                skipCurrenText();
+                break;
+            default:
+                break;
+            }
+        }
+        // look ahead to the next token
+        code = reader.next();
+        skipCurrenText();
+    }
+
+    private CharSequence getCurrentToken() throws XMLStreamException, IOException {
+        CharSequence token;
+        if (mode == 't') {
+            readCurrentText(builder);
+            popName();
+            token = builder.view();
+        } else {
+            readCurrent(true);
+            popName();
+            token = createContextualToken(getCurrenTextView());
+        }
+        if (namespaces != null) {
+            popNamespaces();
+        }
+        return token;
+    }
+
+    /**
+     * Reads the current element as in getCurrentToken() and appends the token to the builder
+     * directly from the recording buffer.
+     */
+    private void appendCurrentToken(TokenBuilder out) throws XMLStreamException, IOException {
+        if (mode == 't') {
+            readCurrentText(out);
+            popName();
+        } else {
+            readCurrent(true);
+            popName();
+            appendContextualToken(getCurrenTextView(), out);
+        }
+        if (namespaces != null) {
+            popNamespaces();
+        }
+    }
+
+    private long[] getCurrentOffsets() throws XMLStreamException {
+        // the text before the start tag has been consumed
+        final long start = mappedpos;
         readCurrent(true);
         popName();
-        
-        String token = createContextualToken(getCurrenText());
-        if (mode == 'i') {
+        if (namespaces != null) {
             popNamespaces();
         }
-        return token;
+        skipCurrenText();
+        backtrack = true;
+        trackdepth = depth;
+        return new long[]{start, mappedpos, ordinal++};
     }
 
-    private String createContextualToken(String token){
-        StringBuilder sb = new StringBuilder();
+    /**
+     * Reads the current element as in getCurrentToken() and pushes it to the sink. The content of 
+     * the element is pushed at each event from the recording buffer so that the buffer only holds
+     * the text of a single event.
+     */
+    private void streamCurrentToken(TokenSink out) throws XMLStreamException, IOException {
+        prepareStreaming();
+        target = out;
+        out.startToken(splitpaths[nextPath].toString());
+        if (mode == 't') {
+            readCurrentText(builder);
+            popName();
+        } else {
+            int d = depth;
+            readEvent();
+            if (depth < d) {
+                // no content, so push the whole token
+                code = reader.next();
+                popName();
+                push(createContextualToken(getCurrenTextView()));
+            } else {
+                pushStartTag(getCurrenTextView());
+                while (d <= depth) {
+                    readEvent();
+                    push(getCurrenTextView());
+                }
+                // look ahead to the next token to get the end tag
+                code = reader.next();
+                popName();
+                pushEndTag(getCurrenTextView());
+            }
+        }
+        if (namespaces != null) {
+            popNamespaces();
+        }
+        out.endToken();
+        target = null;
+    }
+
+    private void prepareStreaming() {
+        if (sinkwriter == null) {
+            sinkwriter = new SinkWriter();
+            scratch = new char[1024];
+        }
+    }
+
+    private void readEvent() throws XMLStreamException {
+        int code = reader.next();
+        if (code == XMLStreamConstants.START_ELEMENT) {
+            depth++;
+        } else if (code == XMLStreamConstants.END_ELEMENT) {
+            depth--;
+        }
+    }
+
+    private void pushStartTag(CharSequence stag) throws IOException {
         if (mode == 'w' && group == 1) {
             for (int i = 0; i < segments.size(); i++) {
-                sb.append(segments.get(i));
+                push(segments.get(i));
             }
-            sb.append(token);
+            push(stag);
+        } else if (mode == 'i') {
+            final NamespaceScope scope = getCurrentNamespaceScope();
+            final boolean declared = scope != getParentNamespaceScope();
+            final int sl = scanStartTag(stag, declared) + 1;
+            final char quote = declared && stagquote != 0 ? stagquote : '"';
+            push(stag.subSequence(0, sl - 1));
+            push(declared ? scope.getInheritedBindings(quote) : scope.getBindings(quote));
+            push(stag.subSequence(sl - 1, stag.length()));
+        } else if (mode == 'u') {
+            push(stag.subSequence(scanStartTag(stag, false) + 1, stag.length()));
+        } else {
+            push(stag);
+        }
+    }
+
+    private void pushEndTag(CharSequence etag) throws IOException {
+        if (mode == 'w' && group == 1) {
+            push(etag);
             for (int i = path.size() - 1; i >= 0; i--) {
-                QName q = path.get(i);
-                sb.append("</").append(makeName(q)).append(">");
+                push("</" + makeName(path.get(i)) + ">");
             }
+        } else if (mode == 'u') {
+            int ep = lastIndexOf(etag, '<', '/');
+            push(etag.subSequence(0, ep > 0 ? ep : 0));
+        } else {
+            push(etag);
+        }
+    }
 
-        } else if (mode == 'i') {
-            final String stag = token.substring(0, token.indexOf('>') + 1);
-            Set<String> skip = new HashSet<String>();
-            Matcher matcher = NAMESPACE_PATTERN.matcher(stag);
-            char quote = 0;
-            while (matcher.find()) {
-                String prefix = matcher.group(1);
-                if (prefix.length() > 0) {
-                    prefix = prefix.substring(1);
-                }
-                skip.add(prefix);
-                if (quote == 0) {
-                    quote = matcher.group(2).charAt(0);
+    private void push(CharSequence cs) throws IOException {
+        final int len = cs.length();
+        if (len == 0) {
+            return;
+        }
+        if (cs instanceof ByteSequence) {
+            ByteSequence bs = (ByteSequence)cs;
+            target.bytes(bs.getBytes(), bs.getOffset(), len);
+        } else if (binary) {
+            byte[] b = cs.toString().getBytes(charset);
+            target.bytes(b, 0, b.length);
+        } else if (cs instanceof RecordedText) {
+            // directly from the chunks of the recording buffer
+            ((RecordedText)cs).writeTo(sinkwriter);
+        } else {
+            for (int i = 0; i < len; i += scratch.length) {
+                final int n = Math.min(len - i, scratch.length);
+                for (int j = 0; j < n; j++) {
+                    scratch[j] = cs.charAt(i + j);
                 }
+                target.chars(scratch, 0, n);
             }
-            if (quote == 0) {
-                quote = '"';
-            }
-            boolean empty = stag.endsWith("/>"); 
-            sb.append(token.substring(0, stag.length() - (empty ? 2 : 1)));
-            for (Entry<String, String> e : getCurrentNamespaceBindings().entrySet()) {
-                if (!skip.contains(e.getKey())) {
-                    sb.append(e.getKey().length() == 0 ? " xmlns" : " xmlns:")
-                    .append(e.getKey()).append("=").append(quote).append(e.getValue()).append(quote);
-                }
+        }
+    }
+
+    private void pushChars(char[] c, int off, int len) throws IOException {
+        if (binary) {
+            byte[] b = new String(c, off, len).getBytes(charset);
+            target.bytes(b, 0, b.length);
+        } else {
+            target.chars(c, off, len);
+        }
+    }
+
+    private CharSequence createContextualToken(CharSequence token) {
+        if ((mode == 'w' && group == 1) || mode == 'i') {
+            appendContextualToken(token, builder);
+            return builder.view();
+        } else if (mode == 'u') {
+            int bp = indexOf(token, '>', 0);
+            int ep = lastIndexOf(token, '<', '/');
+            return bp > 0 && ep > 0 ? token.subSequence(bp + 1, ep) : token.subSequence(0, 0);
+        } else {
+            return token;
+        }
+    }
+
+    private void appendContextualToken(CharSequence token, TokenBuilder out) {
+        if (mode == 'w' && group == 1) {
+            for (int i = 0; i < segments.size(); i++) {
+                out.append(segments.get(i));
             }
-            sb.append(token.substring(stag.length() - (empty ? 2 : 1)));
+            out.append(token);
+            appendEndTags(out, path.size());
+        } else if (mode == 'i') {
+            final NamespaceScope scope = getCurrentNamespaceScope();
+            // the element's own declarations as reported by the reader are not injected again
+            final boolean declared = scope != getParentNamespaceScope();
+            final int sl = scanStartTag(token, declared) + 1;
+            final char quote = declared && stagquote != 0 ? stagquote : '"';
+            boolean empty = sl > 1 && token.charAt(sl - 2) == '/'; 
+            out.append(token, 0, sl - (empty ? 2 : 1));
+            out.append(declared ? scope.getInheritedBindings(quote) : scope.getBindings(quote));
+            out.append(token, sl - (empty ? 2 : 1), token.length());
         } else if (mode == 'u') {
-            int bp = token.indexOf(">");
-            int ep = token.lastIndexOf("</");
+            int bp = indexOf(token, '>', 0);
+            int ep = lastIndexOf(token, '<', '/');
             if (bp > 0 && ep > 0) {
-                sb.append(token.substring(bp + 1, ep));
-            }
-        } else if (mode == 't') {
-            int bp = 0;
-            for (;;) {
-                int ep = token.indexOf('>', bp);
-                bp = token.indexOf('<', ep);
-                if (bp < 0) {
-                    break;
-                }
-                sb.append(token.substring(ep + 1, bp));
+                out.append(token, bp + 1, ep);
             }
         } else {
-            return token;
+            out.append(token);
         }
-        return sb.toString();
     }
 
-    private String getGroupedToken() {
-        StringBuilder sb = new StringBuilder();
+    private void appendEndTags(TokenBuilder out, int n) {
+        for (int i = n - 1; i >= 0; i--) {
+            QName q = path.get(i);
+            out.append('<').append('/');
+            if (q.getPrefix().length() > 0) {
+                out.append(q.getPrefix()).append(':');
+            }
+            out.append(q.getLocalPart()).append('>');
+        }
+    }
+
+    private void pushGroupStart() throws IOException {
+        groupcontext = path.size() - 1;
+        target = spill;
         if (mode == 'w') {
-            // for wrapped
             for (int i = 0; i < segments.size(); i++) {
-                sb.append(segments.get(i));
-            }
-            for (String s : tokens) {
-                sb.append(s);
+                push(segments.get(i));
             }
-            for (int i = path.size() - 1; i >= 0; i--) {
-                QName q = path.get(i);
-                sb.append("</").append(makeName(q)).append(">");
+        } else {
+            push("<group>");
+        }
+        target = null;
+    }
+
+    private Object getSpilledGroupedToken() throws IOException {
+        target = spill;
+        if (mode == 'w') {
+            for (int i = groupcontext - 1; i >= 0; i--) {
+                push("</" + makeName(path.get(i)) + ">");
             }
         } else {
-            // for injected, unwrapped, text
-            sb.append("<group>");
-            for (String s : tokens) {
-                sb.append(s);
+            push("</group>");
+        }
+        target = null;
+        grouped = 0;
+        return spill.getToken(view);
+    }
+
+    private boolean isGroupComplete(int count, long size) {
+        if (count == 1) {
+            groupchars = 0;
+            groupstart = groupdelay > 0 ? System.nanoTime() : 0;
+        }
+        groupchars += size;
+        return count == group || (groupsize > 0 && groupchars >= groupsize)
+            || (groupdelay > 0 && System.nanoTime() - groupstart >= groupdelay);
+    }
+
+    private boolean isGroupDelayed() {
+        return groupdelay > 0 && grouped > 0 && System.nanoTime() - groupstart >= groupdelay;
+    }
+
+    private boolean hasGroupedTokens() {
+        return grouped > 0;
+    }
+
+    private void appendGroupStart() {
+        if (groupbuilder == null) {
+            groupbuilder = binary ? TokenBuilder.forBytes(charset) : TokenBuilder.forString();
+        }
+        groupview.clear();
+        groupcontext = path.size() - 1;
+        if (mode == 'w') {
+            for (int i = 0; i < segments.size(); i++) {
+                groupbuilder.append(segments.get(i));
             }
-            sb.append("</group>");
+        } else {
+            groupbuilder.append("<group>");
         }
-        tokens.clear();
-        return sb.toString();
     }
 
-    private String getNextToken() throws XMLStreamException {
+    private Object getGroupedToken() throws IOException {
+        if (spill != null) {
+            return getSpilledGroupedToken();
+        }
+        if (mode == 'w') {
+            appendEndTags(groupbuilder, groupcontext);
+        } else {
+            groupbuilder.append("</group>");
+        }
+        grouped = 0;
+        if (view) {
+            groupview.setText(groupbuilder.view());
+            return groupview;
+        }
+        // the builder keeps its capacity for the next group
+        return groupbuilder.build();
+    }
+
+    private Object getToken(CharSequence token) {
+        if (view) {
+            return token;
+        }
+        return token instanceof ByteSequence ? ((ByteSequence)token).toByteArray() : token.toString();
+    }
+
+    private Object getNextToken() throws XMLStreamException, IOException {
+        pendingpos = -1;
         int xcode = 0;
         while (xcode != XMLStreamConstants.END_DOCUMENT) {
+            if (isGroupDelayed()) {
+                return getGroupedToken();
+            }
             xcode = readNext();
+            if (isGroupDelayed()) {
+                // return the group without the event read after the delay
+                code = xcode;
+                return getGroupedToken();
+            }
 
             switch (xcode) {
             case XMLStreamConstants.START_ELEMENT:
@@ -409,45 +1258,91 @@ public class XMLTokenIterator implements Iterator<Object>, Closeable {
                     LOG.trace("se={}; depth={}; trackdepth={}", new Object[]{name, depth, trackdepth});
                 }
 
-                String token = getCurrenText();
-                LOG.trace("token={}", token);
-                if (!backtrack && mode == 'w') {
-                    pushSegment(name, token);
+                CharSequence token;
+                if (!backtrack && segments != null) {
+                    token = getCurrenText();
+                    LOG.trace("token={}", token);
+                    pushSegment(depth, token);
+                } else {
+                    // the preceding text is not needed
+                    skipCurrenText();
+                    if (checkpointinterval > 0 && mappedpos - (lastcheckpoint != null ? lastcheckpoint.getOffset() : 0) 
+                        >= checkpointinterval) {
+                        // resume before this start tag
+                        lastcheckpoint = createCheckpoint(depth - 1);
+                    }
                 }
                 pushName(name);
-                if (mode == 'i') {
+                if (namespaces != null) {
                     pushNamespaces(reader);
                 }
                 backtrack = false;
-                if (current().matches(name)) {
-                    // mark the position of the match in the segments list
-                    if (isBottom()) {
-                        // final match
-                        token = getCurrentToken();
+                int matched = pushStates(name);
+                if (matched >= 0) {
+                    // final match
+                    mode = modes[matched];
+                    nextPath = matched;
+                    if (mapped != null) {
+                        // the text before the start tag has been consumed
+                        pendingpos = mappedpos;
+                    }
+                    if (offsets) {
+                        return getCurrentOffsets();
+                    }
+                    if (sink != null && group == 1) {
+                        // push the token while reading it instead of returning it
+                        streamCurrentToken(sink);
                         backtrack = true;
                         trackdepth = depth;
-                        if (group > 1) {
-                            tokens.add(token);
-                            if (group == tokens.size()) {
-                                return getGroupedToken();
-                            }
-                        } else {
-                            return token;
+                        break;
+                    }
+                    if (spill != null) {
+                        // collect the token while reading it to spill it when it gets too large
+                        if (group == 1) {
+                            spill.reset(binary);
+                        } else if (grouped == 0) {
+                            spill.reset(binary);
+                            pushGroupStart();
                         }
-                    } else {
-                        // intermediary match
-                        down();
+                        long spilled = spill.length();
+                        streamCurrentToken(spill);
+                        backtrack = true;
+                        trackdepth = depth;
+                        if (group == 1) {
+                            return spill.getToken(view);
+                        } else if (isGroupComplete(++grouped, spill.length() - spilled)) {
+                            return getGroupedToken();
+                        }
+                        break;
                     }
-                } else if (isDoS()){
-                    // continue
-                } else {
-                    // skip
-                    readCurrent(false);
+                    if (group > 1) {
+                        // append the token directly to the group
+                        if (grouped == 0) {
+                            appendGroupStart();
+                        }
+                        int start = groupbuilder.length();
+                        appendCurrentToken(groupbuilder);
+                        int end = groupbuilder.length();
+                        groupview.add(start, end);
+                        backtrack = true;
+                        trackdepth = depth;
+                        if (isGroupComplete(++grouped, end - start)) {
+                            return getGroupedToken();
+                        }
+                        break;
+                    }
+                    token = getCurrentToken();
+                    backtrack = true;
+                    trackdepth = depth;
+                    return getToken(token);
+                } else if (matched == -2) {
+                    // skip as nothing can match in this subtree
+                    skipCurrent();
                 }
                 break;
             case XMLStreamConstants.END_ELEMENT:
             	if ((backtrack || (trackdepth > 0 && depth == trackdepth))
-            	    && (mode == 'w' && group > 1 && tokens.size() > 0)) {
+            	    && (mode == 'w' && group > 1 && hasGroupedTokens())) {
             		// flush the left over using the current context
             		code = XMLStreamConstants.END_ELEMENT;
             		return getGroupedToken();
@@ -457,7 +1352,7 @@ public class XMLTokenIterator implements Iterator<Object>, Closeable {
                 QName endname = reader.getName();
                 LOG.trace("ee={}", endname);
                 popName();
-                if (mode == 'i') {
+                if (namespaces != null) {
                     popNamespaces();
                 }
                 
@@ -466,30 +1361,24 @@ public class XMLTokenIterator implements Iterator<Object>, Closeable {
                     // reactivate backtracking if not backtracking and update the track depth
                     backtrack = true;
                     trackdepth--;
-                    if (mode == 'w') {
-                        while (!endname.equals(peekLog())) {
+                    if (segments != null) {
+                        // keep the segment of the ending element for its following siblings
+                        while (segmentlog.size() > 0 && peekLog() > depth + 1) {
                             pc++;
                             popLog();
                         }
                     }
                 }
 
-                if (backtrack) {
-                    if (mode == 'w') {
-                        for (int i = 0; i < pc; i++) {
-                            popSegment();
-                        }
-                    }
-
-                    if ((ancestor() == null && !isTop())
-                        || (ancestor() != null && ancestor().matches(endname))) {
-                        up();
+                if (backtrack && segments != null) {
+                    for (int i = 0; i < pc; i++) {
+                        popSegment();
                     }
                 }
                 break;
             case XMLStreamConstants.END_DOCUMENT:
                 LOG.trace("depth={}", depth);
-                if (group > 1 && tokens.size() > 0) {
+                if (group > 1 && hasGroupedTokens()) {
                     // flush the left over before really going EoD
                     code = XMLStreamConstants.END_DOCUMENT;
                     return getGroupedToken();
@@ -500,13 +1389,118 @@ public class XMLTokenIterator implements Iterator<Object>, Closeable {
         return null;
     }
 
+    private static int indexOf(CharSequence cs, char c, int from) {
+        if (cs instanceof String) {
+            return ((String)cs).indexOf(c, from);
+        }
+        for (int i = from < 0 ? 0 : from; i < cs.length(); i++) {
+            if (cs.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(CharSequence cs, char c1, char c2) {
+        for (int i = cs.length() - 2; i >= 0; i--) {
+            if (cs.charAt(i) == c1 && cs.charAt(i + 1) == c2) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     private static String makeName(QName qname) {
         String pfx = qname.getPrefix();
         return pfx.length() == 0 ? qname.getLocalPart() : qname.getPrefix() + ":" + qname.getLocalPart();
     }
 
+    /**
+     * Resets this iterator to extract the tokens from another document read from the reader, using 
+     * the same paths and settings. The buffers, the stacks, the builders, and the lexer are reused, 
+     * so that many small documents can be tokenized without constructing a new iterator for each.
+     * The previous input is not closed. This is not supported for the mapped input and the binary mode.
+     * 
+     * @param in the reader of the next document
+     * @throws XMLStreamException
+     */
+    public void reset(Reader in) throws XMLStreamException {
+        if (this.in == null) {
+            throw new IllegalStateException("reset with a reader not supported for " 
+                + (mapped != null ? "mapped input" : "binary mode"));
+        }
+        this.in.reset(in);
+        restart(this.in);
+    }
+
+    /**
+     * Resets this iterator to extract the tokens from another document read from the input stream 
+     * in the charset of this iterator, as in reset(Reader). This is not supported for the mapped input
+     * and the iterators constructed with a reader.
+     * 
+     * @param in the input stream of the next document
+     * @throws XMLStreamException
+     * @throws UnsupportedEncodingException
+     */
+    public void reset(InputStream in) throws XMLStreamException, UnsupportedEncodingException {
+        if (mapped != null || charset == null) {
+            throw new IllegalStateException("reset with an input stream not supported for " 
+                + (mapped != null ? "mapped input" : "reader input"));
+        }
+        if (bin != null) {
+            bin.reset(in);
+            restart(new InputStreamReader(bin, charset));
+        } else {
+            this.in.reset(new InputStreamReader(in, charset));
+            restart(this.in);
+        }
+    }
+
+    private void restart(Reader in) throws XMLStreamException {
+        reader = lexerfactory.resetLexer(reader, in);
+        for (int i = 0; i < splitpaths.length; i++) {
+            states[i] = splitpaths[i].getInitialState();
+        }
+        mode = modes[0];
+        path.clear();
+        if (namespaces != null) {
+            namespaces.clear();
+        }
+        if (segments != null) {
+            segments.clear();
+            segmentlog.clear();
+        }
+        builder.clear();
+        if (groupbuilder != null) {
+            groupbuilder.clear();
+        }
+        if (groupview != null) {
+            groupview.clear();
+        }
+        if (spill != null) {
+            spill.discard();
+        }
+        code = 0;
+        consumed = 0;
+        backtrack = false;
+        trackdepth = -1;
+        depth = 0;
+        nextToken = null;
+        ordinal = 0;
+        nextPath = 0;
+        currentPath = 0;
+        fetched = false;
+        target = null;
+        grouped = 0;
+        groupchars = 0;
+        readProlog();
+    }
+
     @Override
     public void close() throws IOException {
+        if (spill != null) {
+            spill.discard();
+        }
         try {
             reader.close();
         } catch (XMLStreamException e) {
@@ -514,26 +1508,158 @@ public class XMLTokenIterator implements Iterator<Object>, Closeable {
         }
     }
 
+    /**
+     * Closes the input of this iterator, which is not closed by close().
+     */
+    void closeInput() throws IOException {
+        if (in != null) {
+            in.close();
+        } else if (bin != null) {
+            bin.close();
+        } else if (mappedin != null) {
+            mappedin.close();
+        }
+    }
+
+    /**
+     * Sets the size above which a token is moved from memory to a temporary file. Such a token is 
+     * returned as a Reader, or as an InputStream in the binary mode, and its file is deleted when the 
+     * returned stream is closed. The size is counted in chars, or in bytes in the binary mode. For 
+     * the grouped tokens, the size of the whole group is counted.
+     * 
+     * @param threshold the size threshold, or 0 to keep all tokens in memory
+     * @param directory the directory for the temporary files, or null to use the default directory
+     */
+    public void setSpillThreshold(int threshold, File directory) {
+        this.spill = threshold > 0 ? new SpillBuffer(threshold, directory) : null;
+        prepareStreaming();
+    }
+
+    private static void copy(Reader r, TokenSink sink) throws IOException {
+        try {
+            char[] buf = new char[4096];
+            int n;
+            while ((n = r.read(buf)) > 0) {
+                sink.chars(buf, 0, n);
+            }
+        } finally {
+            r.close();
+        }
+    }
+
+    private static void copy(InputStream in, TokenSink sink) throws IOException {
+        try {
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                sink.bytes(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Extracts all the remaining tokens and pushes them to the sink. Each token is pushed while 
+     * it is being read so that its content is passed from the recording buffer to the sink 
+     * without building the token. The grouped tokens are pushed once each group is complete.
+     * 
+     * @param sink the token sink
+     * @throws XMLStreamException
+     * @throws IOException
+     */
+    public void tokenize(TokenSink sink) throws XMLStreamException, IOException {
+        if (fetched && nextToken != null) {
+            throw new IllegalStateException("a token has already been fetched");
+        }
+        this.sink = sink;
+        prepareStreaming();
+        try {
+            Object token;
+            while ((token = getNextToken()) != null) {
+                sink.startToken(splitpaths[nextPath].toString());
+                if (token instanceof Reader) {
+                    copy((Reader)token, sink);
+                } else if (token instanceof InputStream) {
+                    copy((InputStream)token, sink);
+                } else {
+                    target = sink;
+                    push(token instanceof byte[] ? new ByteSequence((byte[])token) : (CharSequence)token);
+                    target = null;
+                }
+                sink.endToken();
+            }
+        } finally {
+            this.sink = null;
+        }
+    }
+
     @Override
     public boolean hasNext() {
+        fetch();
         return nextToken != null;
     }
 
     @Override
     public Object next() {
+        fetch();
         Object o = nextToken;
-        try {
-            nextToken = getNextToken();
-        } catch (XMLStreamException e) {
+        if (o != null) {
+            currentPath = nextPath;
             nextToken = null;
-            throw new RuntimeException(e);
+            fetched = false;
         }
         return o;
     }
 
+    /**
+     * Returns the path expression that has been matched by the token last returned by next().
+     * 
+     * @return the path expression
+     */
+    public String getTokenPath() {
+        return splitpaths[currentPath].toString();
+    }
+
+    private void fetch() {
+        if (!fetched) {
+            // the token is fetched when needed so that the previous token view remains valid until then
+            fetched = true;
+            try {
+                nextToken = getNextToken();
+            } catch (XMLStreamException e) {
+                nextToken = null;
+                throw new RuntimeException(e);
+            } catch (IOException e) {
+                // failed to spill the token
+                nextToken = null;
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     @Override
     public void remove() {
         // nop
     }
 
+    /**
+     * Passes the chars written by RecordedText to the sink.
+     */
+    private final class SinkWriter extends Writer {
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            target.chars(cbuf, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // nop
+        }
+
+        @Override
+        public void close() throws IOException {
+            // nop
+        }
+    }
 }
@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * A pool of iterators extracting the tokens of a compiled path for tokenizing many small documents.
+ * A released iterator is kept by the releasing thread and reset for the next document acquired 
+ * by that thread, so that its buffers and its lexer are reused instead of constructing a new iterator.
+ * A pool is created for each path and its settings.
+ */
+public class XMLTokenIteratorPool {
+    private static final int DEFAULT_CAPACITY = 4;
+
+    private final XMLTokenPath path;
+    private final char mode;
+    private final int group;
+    private final String charset;
+    private final boolean binary;
+    private final int capacity;
+    private final ThreadLocal<List<XMLTokenIterator>> idle = new ThreadLocal<List<XMLTokenIterator>>() {
+        @Override
+        protected List<XMLTokenIterator> initialValue() {
+            return new ArrayList<XMLTokenIterator>();
+        }
+    };
+
+    /**
+     * Creates a pool of iterators keeping up to 4 iterators per thread.
+     * 
+     * @param path the compiled path
+     * @param mode the extraction mode. One of 'i', 'w', 'u', and 't'
+     * @param group the number of tokens to be grouped together
+     * @param charset the character encoding of the input streams
+     * @param binary true to extract the tokens as byte arrays, false to extract them as strings
+     */
+    public XMLTokenIteratorPool(XMLTokenPath path, char mode, int group, String charset, boolean binary) {
+        this(path, mode, group, charset, binary, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a pool of iterators.
+     * 
+     * @param path the compiled path
+     * @param mode the extraction mode. One of 'i', 'w', 'u', and 't'
+     * @param group the number of tokens to be grouped together
+     * @param charset the character encoding of the input streams
+     * @param binary true to extract the tokens as byte arrays, false to extract them as strings
+     * @param capacity the maximum number of the released iterators kept per thread
+     */
+    public XMLTokenIteratorPool(XMLTokenPath path, char mode, int group, String charset, boolean binary, 
+                                int capacity) {
+        this.path = path;
+        this.mode = mode;
+        this.group = group;
+        this.charset = charset;
+        this.binary = binary;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns an iterator reading the input stream.
+     * 
+     * @param in the input stream
+     * @return the iterator
+     * @throws XMLStreamException
+     * @throws UnsupportedEncodingException
+     */
+    public XMLTokenIterator acquire(InputStream in) throws XMLStreamException, UnsupportedEncodingException {
+        if (!binary) {
+            return acquire(new InputStreamReader(in, charset));
+        }
+        XMLTokenIterator tokenizer = poll();
+        if (tokenizer == null) {
+            tokenizer = new XMLTokenIterator(path, mode, group, in, charset, true);
+            tokenizer.pool = this;
+        } else {
+            tokenizer.reset(in);
+        }
+        return tokenizer;
+    }
+
+    /**
+     * Returns an iterator reading the reader. This is not supported in the binary mode.
+     * 
+     * @param in the reader
+     * @return the iterator
+     * @throws XMLStreamException
+     */
+    public XMLTokenIterator acquire(Reader in) throws XMLStreamException {
+        if (binary) {
+            throw new IllegalStateException("reader not supported in binary mode");
+        }
+        XMLTokenIterator tokenizer = poll();
+        if (tokenizer == null) {
+            tokenizer = new XMLTokenIterator(path, mode, group, in);
+            tokenizer.pool = this;
+        } else {
+            tokenizer.reset(in);
+        }
+        return tokenizer;
+    }
+
+    /**
+     * Closes the iterator and returns it to this pool. Its input is not closed. The iterator must 
+     * not be used after it has been released.
+     * 
+     * @param tokenizer the iterator acquired from this pool
+     * @throws IOException
+     */
+    public void release(XMLTokenIterator tokenizer) throws IOException {
+        if (tokenizer.pool != this) {
+            throw new IllegalArgumentException("iterator not acquired from this pool");
+        }
+        tokenizer.close();
+        List<XMLTokenIterator> list = idle.get();
+        if (list.size() < capacity && !list.contains(tokenizer)) {
+            list.add(tokenizer);
+        }
+    }
+
+    private XMLTokenIterator poll() {
+        List<XMLTokenIterator> list = idle.get();
+        return list.isEmpty() ? null : list.remove(list.size() - 1);
+    }
+}
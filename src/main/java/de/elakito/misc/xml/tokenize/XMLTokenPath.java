@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import de.elakito.misc.xml.util.AttributedQName;
+
+/**
+ * A path expression compiled into a nondeterministic automaton. The path uses the unix like notation
+ * of XMLTokenIterator, where each step is a QName that may contain wildcards and a step preceded by 
+ * "//" matches at any depth below its preceding step.
+ * 
+ * The state of the automaton is a bit set in which bit i is set when the first i steps have been
+ * matched. The state of an element is computed from the state of its parent element, so a matcher
+ * only needs to keep one state per depth.
+ * 
+ * A compiled path is immutable and can be shared by any number of iterators across threads.
+ */
+public final class XMLTokenPath {
+    private static final int MAX_STEPS = 63;
+
+    private final String path;
+    private final AttributedQName[] steps;
+    // the states that remain active for the descendant elements
+    private final long descendants;
+    // the state in which all the steps have been matched
+    private final long accepted;
+
+    private XMLTokenPath(String path, Map<String, String> nsmap) {
+        final String[] sl = path.substring(1).split("/");
+        List<AttributedQName> sq = new ArrayList<AttributedQName>();
+        long dm = 0;
+        boolean dos = false;
+        for (int i = 0; i < sl.length; i++) {
+            String s = sl[i];
+            if (s.length() > 0) {
+                if (sq.size() == MAX_STEPS) {
+                    throw new IllegalArgumentException("too many steps in path " + path);
+                }
+                if (dos) {
+                    dm |= 1L << sq.size();
+                }
+                int d = s.indexOf(':');
+                String pfx = d > 0 ? s.substring(0, d) : "";
+                sq.add(new AttributedQName(
+                    "*".equals(pfx) ? "*" : nsmap == null ? "" : nsmap.get(pfx), d > 0 ? s.substring(d + 1) : s, pfx));
+                dos = false;
+            } else {
+                // an empty step represents the descendant-or-self step
+                dos = true;
+            }
+        }
+        if (sq.isEmpty()) {
+            throw new IllegalArgumentException("no step in path " + path);
+        }
+        this.path = path;
+        this.steps = sq.toArray(new AttributedQName[sq.size()]);
+        this.descendants = dm;
+        this.accepted = 1L << steps.length;
+    }
+
+    /**
+     * Compiles the path. The prefixes used in the path are resolved against the namespace binding map
+     * at this time, so the map may be changed afterwards without affecting the compiled path.
+     * 
+     * @param path the unix like path notation using the QNames
+     * @param nsmap the namespace binding map
+     * @return the compiled path
+     * @throws IllegalArgumentException if the path has no step or more than 63 steps
+     */
+    public static XMLTokenPath compile(String path, Map<String, String> nsmap) {
+        return new XMLTokenPath(path, nsmap);
+    }
+
+    /**
+     * Returns the path expression of this path.
+     */
+    @Override
+    public String toString() {
+        return path;
+    }
+
+    /**
+     * Returns the state of the document node.
+     */
+    long getInitialState() {
+        return 1L;
+    }
+
+    /**
+     * Returns the state of an element with the specified name whose parent element is in the specified state.
+     * 
+     * @param state the state of the parent element
+     * @param name the name of the element
+     * @return the state of the element, which is 0 if no descendant of the element can match
+     */
+    long next(long state, QName name) {
+        long ns = state & descendants;
+        long s = state & ~accepted;
+        while (s != 0) {
+            int i = Long.numberOfTrailingZeros(s);
+            if (steps[i].matches(name)) {
+                ns |= 1L << (i + 1);
+            }
+            s &= s - 1;
+        }
+        return ns;
+    }
+
+    /**
+     * Returns the local part of the last step or null if it contains wildcards.
+     */
+    String getLastLocalPart() {
+        final String lp = steps[steps.length - 1].getLocalPart();
+        return lp.indexOf('*') < 0 && lp.indexOf('?') < 0 ? lp : null;
+    }
+
+    /**
+     * Returns true if the state is an accepting state.
+     */
+    boolean isAccepted(long state) {
+        return (state & accepted) != 0;
+    }
+}
@@ -0,0 +1,228 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A pipeline that tokenizes a document in a dedicated parser thread and hands the tokens off to
+ * a number of consumer threads. The tokens are passed in batches through a bounded queue, so that 
+ * the parser thread is blocked while the consumers are behind. The first exception thrown by the
+ * parser or by a handler aborts the pipeline and is reported by await(). The tokens are handled
+ * in the document order only when a single consumer is used.
+ */
+public class XMLTokenPipeline implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(XMLTokenPipeline.class);
+
+    // the batch telling a consumer to finish
+    private static final Batch END = new Batch(0);
+
+    private final XMLTokenIterator tokenizer;
+    private final BlockingQueue<Batch> queue;
+    private final int batchSize;
+    private final List<Thread> threads = new ArrayList<Thread>();
+    private volatile boolean aborted;
+    private volatile Throwable failure;
+
+    /**
+     * Constructs a pipeline.
+     * 
+     * @param tokenizer the tokenizer, which must not return the tokens as views
+     * @param capacity the maximum number of batches in the queue
+     * @param batchSize the maximum number of tokens in a batch
+     */
+    public XMLTokenPipeline(XMLTokenIterator tokenizer, int capacity, int batchSize) {
+        if (tokenizer.isTokenView()) {
+            throw new IllegalArgumentException("token view not supported in pipeline");
+        }
+        if (capacity <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("capacity and batch size must be positive");
+        }
+        this.tokenizer = tokenizer;
+        this.queue = new ArrayBlockingQueue<Batch>(capacity);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Starts the parser thread and the consumer threads.
+     * 
+     * @param handler the token handler, which is called concurrently by the consumer threads
+     * @param consumers the number of consumer threads
+     */
+    public synchronized void start(final TokenHandler handler, final int consumers) {
+        if (!threads.isEmpty()) {
+            throw new IllegalStateException("pipeline already started");
+        }
+        if (consumers <= 0) {
+            throw new IllegalArgumentException("consumers must be positive");
+        }
+        for (int i = 0; i < consumers; i++) {
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    consume(handler);
+                }
+            }, "xmltoken-consumer-" + i));
+        }
+        threads.add(new Thread(new Runnable() {
+            public void run() {
+                parse(consumers);
+            }
+        }, "xmltoken-parser"));
+        for (Thread t : threads) {
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
+    /**
+     * Waits until all the tokens have been handled or the pipeline has been aborted.
+     * 
+     * @throws InterruptedException
+     * @throws ExecutionException if the parser or a handler has failed
+     */
+    public void await() throws InterruptedException, ExecutionException {
+        for (Thread t : getThreads()) {
+            t.join();
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+    }
+
+    /**
+     * Aborts the pipeline if still running, waits for its threads to finish, and closes the tokenizer.
+     */
+    @Override
+    public void close() throws IOException {
+        aborted = true;
+        boolean interrupted = false;
+        for (Thread t : getThreads()) {
+            while (t.isAlive()) {
+                try {
+                    t.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        tokenizer.close();
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized List<Thread> getThreads() {
+        return new ArrayList<Thread>(threads);
+    }
+
+    private void parse(int consumers) {
+        try {
+            Batch batch = new Batch(batchSize);
+            while (!aborted && tokenizer.hasNext()) {
+                Object token = tokenizer.next();
+                batch.add(token, tokenizer.getTokenPath());
+                if (batch.size == batchSize) {
+                    queue.put(batch);
+                    batch = new Batch(batchSize);
+                }
+            }
+            if (batch.size > 0 && !aborted) {
+                queue.put(batch);
+            }
+        } catch (Throwable e) {
+            fail(e);
+        } finally {
+            // the consumers keep draining the queue until they receive the end batch
+            for (int i = 0; i < consumers; i++) {
+                putUninterruptibly(END);
+            }
+        }
+    }
+
+    private void consume(TokenHandler handler) {
+        try {
+            Batch batch;
+            while ((batch = queue.take()) != END) {
+                for (int i = 0; i < batch.size && !aborted; i++) {
+                    try {
+                        handler.handle(batch.tokens[i], batch.paths[i]);
+                    } catch (Throwable e) {
+                        fail(e);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Throwable e) {
+        synchronized (this) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        LOG.debug("pipeline aborted", e);
+        aborted = true;
+    }
+
+    private void putUninterruptibly(Batch batch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(batch);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A batch of tokens with their paths.
+     */
+    private static final class Batch {
+        final Object[] tokens;
+        final String[] paths;
+        int size;
+
+        Batch(int capacity) {
+            this.tokens = new Object[capacity];
+            this.paths = new String[capacity];
+        }
+
+        void add(Object token, String path) {
+            tokens[size] = token;
+            paths[size++] = path;
+        }
+    }
+}
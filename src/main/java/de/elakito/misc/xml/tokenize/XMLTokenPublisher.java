@@ -0,0 +1,242 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A publisher of the tokens of an XMLTokenIterator that only parses as far as requested by its subscriber. 
+ * The subscriber and the subscription follow the contract of the reactive streams, so that they can be 
+ * adapted to java.util.concurrent.Flow or org.reactivestreams by delegating each method. 
+ * 
+ * The tokens are parsed in the thread calling request(), or in the executor if one is given, which 
+ * should be used when reading from a blocking input. The calls to the subscriber are serialized and 
+ * a request made within onNext() is served after onNext() returns. Cancelling the subscription closes
+ * the iterator and its input. When the tokens are being parsed, the input is closed by the cancelling 
+ * thread to release a read blocked on a stalled input, which then ends without signalling an error. 
+ * A publisher only accepts a single subscriber.
+ */
+public class XMLTokenPublisher {
+    private static final Logger LOG = LoggerFactory.getLogger(XMLTokenPublisher.class);
+
+    /**
+     * The subscriber receiving the tokens.
+     */
+    public interface Subscriber {
+        void onSubscribe(Subscription subscription);
+
+        void onNext(Object token);
+
+        void onError(Throwable throwable);
+
+        void onComplete();
+    }
+
+    /**
+     * The subscription for requesting the tokens.
+     */
+    public interface Subscription {
+        void request(long n);
+
+        void cancel();
+    }
+
+    private static final Subscription CANCELLED = new Subscription() {
+        @Override
+        public void request(long n) {
+            // nop
+        }
+
+        @Override
+        public void cancel() {
+            // nop
+        }
+    };
+
+    private final XMLTokenIterator tokenizer;
+    private final Executor executor;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * Constructs a publisher parsing in the thread calling request().
+     * 
+     * @param tokenizer the tokenizer, which must not return the tokens as views
+     */
+    public XMLTokenPublisher(XMLTokenIterator tokenizer) {
+        this(tokenizer, null);
+    }
+
+    /**
+     * Constructs a publisher parsing in the executor.
+     * 
+     * @param tokenizer the tokenizer, which must not return the tokens as views
+     * @param executor the executor or null to parse in the thread calling request()
+     */
+    public XMLTokenPublisher(XMLTokenIterator tokenizer, Executor executor) {
+        if (tokenizer.isTokenView()) {
+            throw new IllegalArgumentException("token view not supported in publisher");
+        }
+        this.tokenizer = tokenizer;
+        this.executor = executor;
+    }
+
+    /**
+     * Subscribes the subscriber, which is rejected with an IllegalStateException if there is already a subscriber.
+     * 
+     * @param subscriber the subscriber
+     */
+    public void subscribe(Subscriber subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(CANCELLED);
+            subscriber.onError(new IllegalStateException("publisher already subscribed"));
+            return;
+        }
+        subscriber.onSubscribe(new TokenSubscription(subscriber));
+    }
+
+    /**
+     * The subscription whose events are processed by a single drain at a time, which is tracked by 
+     * the number of events not yet processed.
+     */
+    private final class TokenSubscription implements Subscription, Runnable {
+        private final Subscriber subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable invalid;
+        private boolean done;
+
+        TokenSubscription(Subscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalid = new IllegalArgumentException("non-positive request " + n);
+            } else {
+                long d;
+                do {
+                    d = demand.get();
+                } while (!demand.compareAndSet(d, d + n < 0 ? Long.MAX_VALUE : d + n));
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            if (pending.get() > 0) {
+                // close the input to wake up the drain that may be blocked in reading a stalled input
+                closeInput();
+            }
+            schedule();
+        }
+
+        private void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                if (executor == null) {
+                    run();
+                } else {
+                    try {
+                        executor.execute(this);
+                    } catch (RejectedExecutionException e) {
+                        done = true;
+                        close();
+                        subscriber.onError(e);
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (done) {
+                return;
+            }
+            if (cancelled || invalid != null) {
+                done = true;
+                close();
+                if (!cancelled) {
+                    subscriber.onError(invalid);
+                }
+                return;
+            }
+            while (demand.get() > 0 && !cancelled && invalid == null) {
+                Object token;
+                try {
+                    if (!tokenizer.hasNext()) {
+                        done = true;
+                        close();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    token = tokenizer.next();
+                } catch (RuntimeException e) {
+                    done = true;
+                    close();
+                    if (!cancelled) {
+                        subscriber.onError(e.getCause() != null ? e.getCause() : e);
+                    }
+                    return;
+                }
+                if (demand.get() != Long.MAX_VALUE) {
+                    demand.decrementAndGet();
+                }
+                subscriber.onNext(token);
+            }
+        }
+
+        private void close() {
+            try {
+                tokenizer.close();
+            } catch (IOException e) {
+                LOG.debug("Error closing the tokenizer", e);
+            }
+            closeInput();
+        }
+
+        private void closeInput() {
+            try {
+                tokenizer.closeInput();
+            } catch (IOException e) {
+                LOG.debug("Error closing the input", e);
+            }
+        }
+    }
+}
@@ -16,74 +16,139 @@
  * specific language governing permissions and limitations
  * under the License.
  */
-
 package de.elakito.misc.xml.util;
 
-import java.util.regex.Pattern;
-
 import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 
 /**
  * An extended QName to be used to pattern matching on the local part.
+ * The local part may contain the wildcards '*' and '?' that are matched without using regular expressions.
  */
 public class AttributedQName extends QName {
     private static final long serialVersionUID = 9878370226894144L;
-    private Pattern lcpattern;
+
+    private static final int EXACT = 0;
+    private static final int ANY = 1;
+    private static final int PREFIX = 2;
+    private static final int SUFFIX = 3;
+    private static final int CONTAINS = 4;
+    private static final int GLOB = 5;
+
+    // the kind of the local part pattern and its literal part for the prefix, suffix, and contains patterns
+    private int kind;
+    private String literal;
     private boolean nsany;
     
     public AttributedQName(String localPart) {
-        super(localPart);
+        super(intern(localPart));
         checkWildcard(XMLConstants.NULL_NS_URI, localPart);
     }
 
     public AttributedQName(String namespaceURI, String localPart, String prefix) {
-        super(namespaceURI, localPart, prefix);
+        super(intern(namespaceURI), intern(localPart), prefix);
         checkWildcard(namespaceURI, localPart);
     }
 
     public AttributedQName(String namespaceURI, String localPart) {
-        super(namespaceURI, localPart);
+        super(intern(namespaceURI), intern(localPart));
         checkWildcard(namespaceURI, localPart);
     }
 
     public boolean matches(QName qname) {
-        return (nsany || getNamespaceURI().equals(qname.getNamespaceURI()))
-            && (lcpattern != null 
-            ? lcpattern.matcher(qname.getLocalPart()).matches() 
-            : getLocalPart().equals(qname.getLocalPart()));
+        if (!nsany) {
+            // the parsers commonly intern the namespace names, so try the identity first
+            final String ns = getNamespaceURI();
+            final String qns = qname.getNamespaceURI();
+            if (ns != qns && !ns.equals(qns)) {
+                return false;
+            }
+        }
+        final String lp = qname.getLocalPart();
+        switch (kind) {
+        case EXACT:
+            final String local = getLocalPart();
+            return local == lp || local.equals(lp);
+        case ANY:
+            return true;
+        case PREFIX:
+            return lp.startsWith(literal);
+        case SUFFIX:
+            return lp.endsWith(literal);
+        case CONTAINS:
+            return lp.indexOf(literal) >= 0;
+        default:
+            return glob(getLocalPart(), lp);
+        }
     }
-    
+
+    private static String intern(String s) {
+        return s == null ? null : s.intern();
+    }
+
+    /**
+     * Matches the name against the pattern using '*' for any sequence and '?' for any single char.
+     * A mismatch after a '*' resumes the matching from the next char following the '*' position, 
+     * which is sufficient as each '*' only needs to be retried at its last position.
+     */
+    static boolean glob(String pattern, String name) {
+        final int pl = pattern.length();
+        final int nl = name.length();
+        int pi = 0;
+        int ni = 0;
+        int star = -1;
+        int mark = 0;
+        while (ni < nl) {
+            char c = pi < pl ? pattern.charAt(pi) : 0;
+            if (pi < pl && (c == '?' || c == name.charAt(ni))) {
+                pi++;
+                ni++;
+            } else if (c == '*' && pi < pl) {
+                star = pi++;
+                mark = ni;
+            } else if (star >= 0) {
+                pi = star + 1;
+                ni = ++mark;
+            } else {
+                return false;
+            }
+        }
+        while (pi < pl && pattern.charAt(pi) == '*') {
+            pi++;
+        }
+        return pi == pl;
+    }
+
     private void checkWildcard(String nsa, String lcp) {
         nsany = "*".equals(nsa);
-        boolean wc = false;
+        int stars = 0;
+        boolean any = false;
         for (int i = 0; i < lcp.length(); i++) {
             char c = lcp.charAt(i);
-            if (c == '?' || c == '*') {
-                wc = true;
-                break;
+            if (c == '*') {
+                stars++;
+            } else if (c == '?') {
+                any = true;
             }
         }
-        if (wc) {
-            StringBuilder sb = new StringBuilder();
-            for (int i = 0; i < lcp.length(); i++) {
-                char c = lcp.charAt(i);
-                switch (c) {
-                case '.':
-                    sb.append("\\.");
-                    break;
-                case '*':
-                    sb.append(".*");
-                    break;
-                case '?':
-                    sb.append('.');
-                    break;
-                default:
-                    sb.append(c);
-                    break;
-                }
-            }
-            lcpattern = Pattern.compile(sb.toString());
+        final int len = lcp.length();
+        if (stars == 0 && !any) {
+            kind = EXACT;
+        } else if (any) {
+            kind = GLOB;
+        } else if (stars == len) {
+            kind = ANY;
+        } else if (stars == 1 && lcp.charAt(len - 1) == '*') {
+            kind = PREFIX;
+            literal = lcp.substring(0, len - 1);
+        } else if (stars == 1 && lcp.charAt(0) == '*') {
+            kind = SUFFIX;
+            literal = lcp.substring(1);
+        } else if (stars == 2 && len > 2 && lcp.charAt(0) == '*' && lcp.charAt(len - 1) == '*') {
+            kind = CONTAINS;
+            literal = lcp.substring(1, len - 1);
+        } else {
+            kind = GLOB;
         }
     }
 }
@@ -23,6 +23,7 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 
 /**
  * 
@@ -31,18 +32,21 @@ public class RecordableInputStream extends FilterInputStream {
     private TrimmableByteArrayOutputStream buf;
     private String charset;
     private boolean recording;
+    // the number of bytes per char for an ascii compatible single byte charset, 0 for utf-8, or -1 otherwise 
+    private int width;
 
     public RecordableInputStream(InputStream in, String charset) {
         super(in);
         this.buf = new TrimmableByteArrayOutputStream();
         this.charset = charset;
         this.recording = true;
+        this.width = getCharWidth(charset == null ? Charset.defaultCharset() : Charset.forName(charset));
     }
 
     @Override
     public int read() throws IOException {
         int c = super.read();
-        if (c > 0 && recording) {
+        if (c >= 0 && recording) {
             buf.write(c);
         }
         return c;
@@ -61,11 +65,7 @@ public class RecordableInputStream extends FilterInputStream {
         String t = null;
         recording = false;
         try {
-            if (charset == null) {
-                t = new String(buf.getByteArray(), 0, pos);
-            } else {
-                t = new String(buf.getByteArray(), 0, pos, charset);
-            }
+            t = buf.toString(0, pos, charset);
         } catch (UnsupportedEncodingException e) {
             // ignore it as this should have be caught while scanning.
         } finally {
@@ -80,7 +80,86 @@ public class RecordableInputStream extends FilterInputStream {
         buf.trim(pos, 0);
         return b;
     }
+
+    /**
+     * Discards the recorded bytes up to the specified position.
+     * 
+     * @param pos the position relative to the beginning of the recorded bytes
+     */
+    public void discard(int pos) {
+        recording = false;
+        buf.trim(pos, 0);
+    }
     
+    /**
+     * Returns the position in the recorded bytes that corresponds to the specified char position
+     * of the decoded text. The position is determined by scanning the recorded bytes without decoding them.
+     * 
+     * @param pos the char position relative to the beginning of the recorded bytes
+     * @return the corresponding byte position
+     * @throws UnsupportedOperationException if the charset is not supported for this operation
+     */
+    public int getBytePosition(int pos) {
+        if (width > 0) {
+            return pos * width;
+        } else if (width < 0) {
+            throw new UnsupportedOperationException("byte position not supported for charset " + charset);
+        }
+        final int n = buf.size();
+        int i = 0;
+        int c = 0;
+        while (c < pos && i < n) {
+            int v = buf.byteAt(i) & 0xff;
+            if (v < 0xc0) {
+                // ascii or a misplaced continuation byte
+                i++;
+                c++;
+            } else if (v < 0xe0) {
+                i += 2;
+                c++;
+            } else if (v < 0xf0) {
+                i += 3;
+                c++;
+            } else {
+                // supplementary characters are decoded into surrogate pairs
+                i += 4;
+                c += 2;
+            }
+        }
+        return i < n ? i : n;
+    }
+
+    /**
+     * Returns true if the byte position can be determined for the charset of this stream.
+     * This is the case for utf-8 and the ascii compatible single byte charsets.
+     * 
+     * @return true if getBytePosition is supported
+     */
+    public boolean supportsBytePosition() {
+        return width >= 0;
+    }
+
+    /**
+     * Returns true if the byte position can be determined for the charset.
+     * 
+     * @param charset the charset
+     * @return true if getBytePosition is supported for the charset
+     */
+    public static boolean supportsBytePosition(String charset) {
+        return getCharWidth(Charset.forName(charset)) >= 0;
+    }
+
+    /**
+     * Resets this stream to record the specified stream, reusing the recording buffer.
+     * 
+     * @param in the stream to be recorded
+     */
+    public void reset(InputStream in) {
+        this.in = in;
+        buf.reset();
+        recording = true;
+    }
+
     public void record() {
         recording = true;
     }
@@ -88,4 +167,22 @@ public class RecordableInputStream extends FilterInputStream {
     int size() {
         return buf.size();
     }
+
+    private static int getCharWidth(Charset cs) {
+        if ("UTF-8".equals(cs.name())) {
+            return 0;
+        }
+        if (cs.canEncode() && cs.newEncoder().maxBytesPerChar() == 1.0f) {
+            // the markup characters must be encoded as in ascii
+            final String markup = "<>/=:?!'\" \t\r\n";
+            try {
+                if (markup.equals(new String(markup.getBytes(cs.name()), "us-ascii"))) {
+                    return 1;
+                }
+            } catch (UnsupportedEncodingException e) {
+                // ignore
+            }
+        }
+        return -1;
+    }
 }
@@ -29,17 +29,21 @@ import java.io.Reader;
 public class RecordableReader extends FilterReader {
     private TrimmableCharArrayWriter buf;
     private boolean recording;
+    private RecordedText view;
+    // the length of the text handed out as a view that is trimmed at the next retrieval
+    private int pending;
 
     public RecordableReader(Reader in) {
         super(in);
         this.buf = new TrimmableCharArrayWriter();
         this.recording = true;
+        this.view = new RecordedText(buf, 0, 0);
     }
 
     @Override
     public int read() throws IOException {
         int c = super.read();
-        if (c > 0 && recording) {
+        if (c >= 0 && recording) {
             buf.write(c);
         }
         return c;
@@ -56,23 +60,70 @@ public class RecordableReader extends FilterReader {
 
     public String getText(int pos) {
         recording = false;
-        String t = new String(buf.getCharArray(), 0, pos);
+        release();
+        String t = buf.toString(0, pos);
         buf.trim(pos, 0);
         return t;
     }
     
     public char[] getChars(int pos) {
         recording = false;
+        release();
         char[] c = buf.toCharArray(pos);
         buf.trim(pos, 0);
         return c;
     }
+
+    /**
+     * Returns a view of the recorded text up to the specified position without copying the text.
+     * The returned view is reused and remains valid until the next text is retrieved or discarded.
+     * 
+     * @param pos the position relative to the beginning of the recorded text
+     * @return the view of the text
+     */
+    public RecordedText getTextView(int pos) {
+        recording = false;
+        release();
+        pending = pos;
+        view.set(0, pos);
+        return view;
+    }
+
+    /**
+     * Discards the recorded text up to the specified position.
+     * 
+     * @param pos the position relative to the beginning of the recorded text
+     */
+    public void discard(int pos) {
+        recording = false;
+        release();
+        buf.trim(pos, 0);
+    }
     
+    /**
+     * Resets this reader to record the specified reader, reusing the recording buffer.
+     * 
+     * @param in the reader to be recorded
+     */
+    public void reset(Reader in) {
+        this.in = in;
+        buf.reset();
+        pending = 0;
+        recording = true;
+    }
+
     public void record() {
         recording = true;
     }
 
     int size() {
-        return buf.size();
+        return buf.size() - pending;
+    }
+
+    private void release() {
+        if (pending > 0) {
+            buf.trim(pending, 0);
+            pending = 0;
+        }
     }
 }
@@ -0,0 +1,93 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package de.elakito.misc.xml.util;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A char sequence view over the text recorded by RecordableReader. The view is only valid
+ * until the recorded text is retrieved or discarded again and must be copied using toString()
+ * if the text is needed beyond that point.
+ */
+public final class RecordedText implements CharSequence {
+    private final TrimmableCharArrayWriter buf;
+    private int offset;
+    private int count;
+
+    RecordedText(TrimmableCharArrayWriter buf, int offset, int count) {
+        this.buf = buf;
+        this.offset = offset;
+        this.count = count;
+    }
+
+    void set(int offset, int count) {
+        this.offset = offset;
+        this.count = count;
+    }
+
+    @Override
+    public int length() {
+        return count;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("index " + index);
+        }
+        return buf.charAt(offset + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > count || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end);
+        }
+        return new RecordedText(buf, offset + start, end - start);
+    }
+
+    /**
+     * Appends the specified part of this text to the string builder.
+     * 
+     * @param sb the string builder
+     * @param start the start index
+     * @param end the end index
+     */
+    public void appendTo(StringBuilder sb, int start, int end) {
+        buf.appendTo(sb, offset + start, end - start);
+    }
+
+    /**
+     * Writes this text to the writer.
+     * 
+     * @param w the writer
+     * @throws IOException
+     */
+    public void writeTo(Writer w) throws IOException {
+        buf.writeTo(w, offset, count);
+    }
+
+    @Override
+    public String toString() {
+        return buf.toString(offset, count);
+    }
+}
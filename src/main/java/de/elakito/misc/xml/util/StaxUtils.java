@@ -23,6 +23,8 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLEventWriter;
@@ -38,10 +40,55 @@ import javax.xml.stream.XMLStreamWriter;
 public final class StaxUtils {
     private static final XMLInputFactory infactory = XMLInputFactory.newInstance();
     private static final XMLOutputFactory outfactory = XMLOutputFactory.newInstance();
+    // the stax2 extension of the stream reader if available
+    private static final Class<?> stax2reader;
+    private static final Method skipelement;
+
+    static {
+        Class<?> cls = null;
+        Method m = null;
+        try {
+            cls = Class.forName("org.codehaus.stax2.XMLStreamReader2");
+            m = cls.getMethod("skipElement");
+        } catch (Exception e) {
+            // ignore as stax2 is not available
+            cls = null;
+        }
+        stax2reader = cls;
+        skipelement = m;
+    }
     
     private StaxUtils() {
     }
 
+    /**
+     * Returns true if the reader can skip an element without generating the events of its content.
+     */
+    public static boolean supportsSkipElement(XMLStreamReader reader) {
+        return stax2reader != null && stax2reader.isInstance(reader);
+    }
+
+    /**
+     * Skips the content of the element at which the reader is positioned using the stax2 extension
+     * and leaves the reader at its end element.
+     * 
+     * @param reader the reader positioned at a start element
+     * @throws XMLStreamException
+     * @see #supportsSkipElement(XMLStreamReader)
+     */
+    public static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        try {
+            skipelement.invoke(reader);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof XMLStreamException) {
+                throw (XMLStreamException)e.getCause();
+            }
+            throw new XMLStreamException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
     public static XMLStreamReader createXMLStreamReader(InputStream in) {
         try {
             return infactory.createXMLStreamReader(in);
@@ -16,24 +16,182 @@
  * specific language governing permissions and limitations
  * under the License.
  */
-
 package de.elakito.misc.xml.util;
 
-import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A byte buffer that stores the written bytes in fixed size chunks so that
+ * trimming the head of the buffer does not move the remaining bytes. 
+ * The chunks that are no longer used are recycled for the subsequent writes.
+ */
+class TrimmableByteArrayOutputStream extends OutputStream {
+    private static final int DEFAULT_CHUNK_BITS = 13;
+
+    private final int bits;
+    private final int mask;
+    // the ring of the chunks in use, the first chunk is at index first
+    private byte[][] chunks;
+    private int first;
+    private int nchunks;
+    // a released chunk kept for reuse
+    private byte[] spare;
+    // the position of the first byte in the first chunk
+    private int head;
+    private int count;
+
+    public TrimmableByteArrayOutputStream() {
+        this(DEFAULT_CHUNK_BITS);
+    }
+
+    TrimmableByteArrayOutputStream(int bits) {
+        this.bits = bits;
+        this.mask = (1 << bits) - 1;
+        this.chunks = new byte[4][];
+    }
+
+    @Override
+    public void write(int b) {
+        ensureCapacity(1);
+        int p = head + count;
+        chunk(p >> bits)[p & mask] = (byte)b;
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensureCapacity(len);
+        int p = head + count;
+        while (len > 0) {
+            int o = p & mask;
+            int n = Math.min(len, mask + 1 - o);
+            System.arraycopy(b, off, chunk(p >> bits), o, n);
+            off += n;
+            len -= n;
+            p += n;
+            count += n;
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void reset() {
+        trim(count, 0);
+    }
 
-class TrimmableByteArrayOutputStream extends ByteArrayOutputStream {
+    /**
+     * Removes the specified number of bytes from the head and the tail of this buffer.
+     * Only the chunks that become entirely unused are released, so the cost does not
+     * depend on the number of the remaining bytes.
+     * 
+     * @param head the number of bytes to remove from the beginning
+     * @param tail the number of bytes to remove from the end
+     */
     public void trim(int head, int tail) {
-        System.arraycopy(buf, head, buf, 0, count - head - tail);
         count -= head + tail;
+        this.head += head;
+        if (count == 0) {
+            // nothing left, so start over from the beginning of the first chunk
+            this.head = nchunks > 0 ? 0 : this.head;
+            while (nchunks > 1) {
+                release(nchunks - 1);
+            }
+        }
+        while (this.head > mask) {
+            release(0);
+            this.head -= mask + 1;
+        }
     }
-    
+
     public byte[] toByteArray(int len) {
         byte[] b = new byte[len];
-        System.arraycopy(buf, 0, b, 0, len);
+        getBytes(0, len, b, 0);
         return b;
     }
 
-    byte[] getByteArray() {
-        return buf;
+    public byte[] toByteArray() {
+        return toByteArray(count);
+    }
+
+    /**
+     * Copies the bytes from this buffer into the destination array.
+     * 
+     * @param begin the index of the first byte to copy
+     * @param end the index after the last byte to copy
+     * @param dst the destination array
+     * @param dbegin the start offset in the destination array
+     */
+    void getBytes(int begin, int end, byte[] dst, int dbegin) {
+        int p = head + begin;
+        int len = end - begin;
+        while (len > 0) {
+            int o = p & mask;
+            int n = Math.min(len, mask + 1 - o);
+            System.arraycopy(chunk(p >> bits), o, dst, dbegin, n);
+            dbegin += n;
+            len -= n;
+            p += n;
+        }
+    }
+
+    byte byteAt(int index) {
+        int p = head + index;
+        return chunk(p >> bits)[p & mask];
+    }
+
+    String toString(int off, int len, String charset) throws UnsupportedEncodingException {
+        int p = head + off;
+        byte[] b;
+        int o;
+        if ((p & mask) + len <= mask + 1) {
+            // contained in a single chunk
+            if (len == 0) {
+                return "";
+            }
+            b = chunk(p >> bits);
+            o = p & mask;
+        } else {
+            b = new byte[len];
+            getBytes(off, off + len, b, 0);
+            o = 0;
+        }
+        return charset == null ? new String(b, o, len) : new String(b, o, len, charset);
+    }
+
+    private byte[] chunk(int i) {
+        return chunks[(first + i) & (chunks.length - 1)];
+    }
+
+    private void ensureCapacity(int len) {
+        int needed = (head + count + len + mask) >> bits;
+        while (nchunks < needed) {
+            if (nchunks == chunks.length) {
+                // double the ring while keeping the order of the chunks
+                byte[][] nc = new byte[chunks.length << 1][];
+                for (int i = 0; i < nchunks; i++) {
+                    nc[i] = chunk(i);
+                }
+                chunks = nc;
+                first = 0;
+            }
+            byte[] b = spare != null ? spare : new byte[mask + 1];
+            spare = null;
+            chunks[(first + nchunks) & (chunks.length - 1)] = b;
+            nchunks++;
+        }
+    }
+
+    private void release(int i) {
+        // only the first or the last chunk is released
+        int idx = (first + i) & (chunks.length - 1);
+        spare = chunks[idx];
+        chunks[idx] = null;
+        if (i == 0) {
+            first = (first + 1) & (chunks.length - 1);
+        }
+        nchunks--;
     }
 }
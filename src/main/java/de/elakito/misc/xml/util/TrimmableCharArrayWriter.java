@@ -16,24 +16,224 @@
  * specific language governing permissions and limitations
  * under the License.
  */
-
 package de.elakito.misc.xml.util;
 
-import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A char buffer that stores the written chars in fixed size chunks so that
+ * trimming the head of the buffer does not move the remaining chars. 
+ * The chunks that are no longer used are recycled for the subsequent writes.
+ */
+class TrimmableCharArrayWriter extends Writer {
+    private static final int DEFAULT_CHUNK_BITS = 12;
+
+    private final int bits;
+    private final int mask;
+    // the ring of the chunks in use, the first chunk is at index first
+    private char[][] chunks;
+    private int first;
+    private int nchunks;
+    // a released chunk kept for reuse
+    private char[] spare;
+    // the position of the first char in the first chunk
+    private int head;
+    private int count;
+
+    public TrimmableCharArrayWriter() {
+        this(DEFAULT_CHUNK_BITS);
+    }
+
+    TrimmableCharArrayWriter(int bits) {
+        this.bits = bits;
+        this.mask = (1 << bits) - 1;
+        this.chunks = new char[4][];
+    }
+
+    @Override
+    public void write(int c) {
+        ensureCapacity(1);
+        int p = head + count;
+        chunk(p >> bits)[p & mask] = (char)c;
+        count++;
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+        ensureCapacity(len);
+        int p = head + count;
+        while (len > 0) {
+            int o = p & mask;
+            int n = Math.min(len, mask + 1 - o);
+            System.arraycopy(cbuf, off, chunk(p >> bits), o, n);
+            off += n;
+            len -= n;
+            p += n;
+            count += n;
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+        ensureCapacity(len);
+        int p = head + count;
+        while (len > 0) {
+            int o = p & mask;
+            int n = Math.min(len, mask + 1 - o);
+            str.getChars(off, off + n, chunk(p >> bits), o);
+            off += n;
+            len -= n;
+            p += n;
+            count += n;
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
 
-class TrimmableCharArrayWriter extends CharArrayWriter {
+    @Override
+    public void close() {
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public void reset() {
+        trim(count, 0);
+    }
+
+    /**
+     * Removes the specified number of chars from the head and the tail of this buffer.
+     * Only the chunks that become entirely unused are released, so the cost does not
+     * depend on the number of the remaining chars.
+     * 
+     * @param head the number of chars to remove from the beginning
+     * @param tail the number of chars to remove from the end
+     */
     public void trim(int head, int tail) {
-        System.arraycopy(buf, head, buf, 0, count - head - tail);
         count -= head + tail;
+        this.head += head;
+        if (count == 0) {
+            // nothing left, so start over from the beginning of the first chunk
+            this.head = nchunks > 0 ? 0 : this.head;
+            while (nchunks > 1) {
+                release(nchunks - 1);
+            }
+        }
+        while (this.head > mask) {
+            release(0);
+            this.head -= mask + 1;
+        }
     }
-    
+
     public char[] toCharArray(int len) {
         char[] c = new char[len];
-        System.arraycopy(buf, 0, c, 0, len);
+        getChars(0, len, c, 0);
         return c;
     }
 
-    char[] getCharArray() {
-        return buf;
+    public char[] toCharArray() {
+        return toCharArray(count);
+    }
+
+    @Override
+    public String toString() {
+        return toString(0, count);
+    }
+
+    /**
+     * Copies the chars from this buffer into the destination array.
+     * 
+     * @param begin the index of the first char to copy
+     * @param end the index after the last char to copy
+     * @param dst the destination array
+     * @param dbegin the start offset in the destination array
+     */
+    void getChars(int begin, int end, char[] dst, int dbegin) {
+        int p = head + begin;
+        int len = end - begin;
+        while (len > 0) {
+            int o = p & mask;
+            int n = Math.min(len, mask + 1 - o);
+            System.arraycopy(chunk(p >> bits), o, dst, dbegin, n);
+            dbegin += n;
+            len -= n;
+            p += n;
+        }
+    }
+
+    char charAt(int index) {
+        int p = head + index;
+        return chunk(p >> bits)[p & mask];
+    }
+
+    String toString(int off, int len) {
+        int p = head + off;
+        if ((p & mask) + len <= mask + 1) {
+            // contained in a single chunk
+            return len == 0 ? "" : new String(chunk(p >> bits), p & mask, len);
+        }
+        char[] c = new char[len];
+        getChars(off, off + len, c, 0);
+        return new String(c);
+    }
+
+    void appendTo(StringBuilder sb, int off, int len) {
+        int p = head + off;
+        while (len > 0) {
+            int o = p & mask;
+            int n = Math.min(len, mask + 1 - o);
+            sb.append(chunk(p >> bits), o, n);
+            len -= n;
+            p += n;
+        }
+    }
+
+    void writeTo(Writer w, int off, int len) throws IOException {
+        int p = head + off;
+        while (len > 0) {
+            int o = p & mask;
+            int n = Math.min(len, mask + 1 - o);
+            w.write(chunk(p >> bits), o, n);
+            len -= n;
+            p += n;
+        }
+    }
+
+    private char[] chunk(int i) {
+        return chunks[(first + i) & (chunks.length - 1)];
+    }
+
+    private void ensureCapacity(int len) {
+        int needed = (head + count + len + mask) >> bits;
+        while (nchunks < needed) {
+            if (nchunks == chunks.length) {
+                // double the ring while keeping the order of the chunks
+                char[][] nc = new char[chunks.length << 1][];
+                for (int i = 0; i < nchunks; i++) {
+                    nc[i] = chunk(i);
+                }
+                chunks = nc;
+                first = 0;
+            }
+            char[] c = spare != null ? spare : new char[mask + 1];
+            spare = null;
+            chunks[(first + nchunks) & (chunks.length - 1)] = c;
+            nchunks++;
+        }
+    }
+
+    private void release(int i) {
+        // only the first or the last chunk is released
+        int idx = (first + i) & (chunks.length - 1);
+        spare = chunks[idx];
+        chunks[idx] = null;
+        if (i == 0) {
+            first = (first + 1) & (chunks.length - 1);
+        }
+        nchunks--;
     }
 }
@@ -81,7 +81,7 @@ public class XMLEventReaderReader extends Reader {
             		// check if the chunk is full
             		final int csize = buffer.length - bpos;
             		if (chunk.size() > csize) {
-            			System.arraycopy(chunk.getCharArray(), 0, buffer, bpos, csize);
+            			chunk.getChars(0, csize, buffer, bpos);
             			bpos = buffer.length;
             			chunk.trim(csize, 0);
             			return buffer.length;
@@ -90,7 +90,7 @@ public class XMLEventReaderReader extends Reader {
             }
             final int csize = chunk.size() < buffer.length - bpos ? chunk.size() : buffer.length - bpos; 
 			if (csize > 0) {
-				System.arraycopy(chunk.getCharArray(), 0, buffer, bpos, csize);
+				chunk.getChars(0, csize, buffer, bpos);
 				bpos += csize;
 				chunk.trim(csize, 0);
 				return bpos;
@@ -128,7 +128,7 @@ public class XMLStreamReaderInputStream extends InputStream {
             		// check if the chunk is full
             		final int csize = buffer.length - bpos;
             		if (chunk.size() > csize) {
-            			System.arraycopy(chunk.getByteArray(), 0, buffer, bpos, csize);
+            			chunk.getBytes(0, csize, buffer, bpos);
             			bpos = buffer.length;
             			chunk.trim(csize, 0);
             			return buffer.length;
@@ -137,7 +137,7 @@ public class XMLStreamReaderInputStream extends InputStream {
             }
             final int csize = chunk.size() < buffer.length - bpos ? chunk.size() : buffer.length - bpos; 
 			if (csize > 0) {
-				System.arraycopy(chunk.getByteArray(), 0, buffer, bpos, csize);
+				chunk.getBytes(0, csize, buffer, bpos);
 				bpos += csize;
 				chunk.trim(csize, 0);
 				return bpos;
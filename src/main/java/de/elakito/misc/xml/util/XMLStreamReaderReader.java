@@ -119,7 +119,7 @@ public class XMLStreamReaderReader extends Reader {
             		// check if the chunk is full
             		final int csize = buffer.length - bpos;
             		if (chunk.size() > csize) {
-            			System.arraycopy(chunk.getCharArray(), 0, buffer, bpos, csize);
+            			chunk.getChars(0, csize, buffer, bpos);
             			bpos = buffer.length;
             			chunk.trim(csize, 0);
             			return buffer.length;
@@ -128,7 +128,7 @@ public class XMLStreamReaderReader extends Reader {
             }
             final int csize = chunk.size() < buffer.length - bpos ? chunk.size() : buffer.length - bpos; 
 			if (csize > 0) {
-				System.arraycopy(chunk.getCharArray(), 0, buffer, bpos, csize);
+				chunk.getChars(0, csize, buffer, bpos);
 				bpos += csize;
 				chunk.trim(csize, 0);
 				return bpos;
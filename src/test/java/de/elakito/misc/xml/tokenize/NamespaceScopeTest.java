@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import java.io.StringReader;
+
+import javax.xml.stream.XMLStreamConstants;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class NamespaceScopeTest extends Assert {
+
+    @Test
+    public void testPushAndSerialize() throws Exception {
+        XMLLexer lexer = XMLLexerFactory.SIMPLE.createLexer(new StringReader(
+            "<a xmlns:a='urn:a'><b><c xmlns:c='urn:c' xmlns:d='urn:d' xmlns='urn:x'><d xmlns:a='urn:a2'/></c></b></a>"));
+
+        NamespaceScope sa = nextScope(lexer, NamespaceScope.EMPTY);
+        NamespaceScope sb = nextScope(lexer, sa);
+        // no new scope for the element without declarations
+        assertSame(sa, sb);
+        NamespaceScope sc = nextScope(lexer, sb);
+        NamespaceScope sd = nextScope(lexer, sc);
+
+        assertEquals(" xmlns:a=\"urn:a\"", sa.getBindings('"'));
+        assertEquals(" xmlns='urn:x' xmlns:a='urn:a' xmlns:d='urn:d' xmlns:c='urn:c'", sc.getBindings('\''));
+        // the inner declaration overrides the outer one
+        assertEquals(" xmlns=\"urn:x\" xmlns:d=\"urn:d\" xmlns:c=\"urn:c\" xmlns:a=\"urn:a2\"", sd.getBindings('"'));
+        assertEquals(" xmlns=\"urn:x\" xmlns:d=\"urn:d\" xmlns:c=\"urn:c\"", sd.getInheritedBindings('"'));
+        assertEquals(" xmlns:a='urn:a'", sc.getInheritedBindings('\''));
+        lexer.close();
+    }
+
+    @Test
+    public void testBindingsCached() throws Exception {
+        XMLLexer lexer = XMLLexerFactory.SIMPLE.createLexer(new StringReader("<a xmlns:a='urn:a'/>"));
+        NamespaceScope sa = nextScope(lexer, NamespaceScope.EMPTY);
+        assertSame(sa.getBindings('"'), sa.getBindings('"'));
+        assertSame(sa.getBindings('\''), sa.getBindings('\''));
+        assertSame(sa.getInheritedBindings('"'), sa.getInheritedBindings('"'));
+        assertSame(sa.getInheritedBindings('\''), sa.getInheritedBindings('\''));
+        assertEquals("", NamespaceScope.EMPTY.getBindings('"'));
+        lexer.close();
+    }
+
+    private static NamespaceScope nextScope(XMLLexer lexer, NamespaceScope scope) throws Exception {
+        while (lexer.next() != XMLStreamConstants.START_ELEMENT) {
+            // skip
+        }
+        return scope.push(lexer);
+    }
+}
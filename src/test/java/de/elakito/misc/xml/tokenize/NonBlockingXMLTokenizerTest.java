@@ -0,0 +1,218 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class NonBlockingXMLTokenizerTest extends Assert {
+    private static final String DATA = 
+        "<?xml version='1.0'?>\n"
+        + "<g:A xmlns:g='urn:g'>"
+        + "<c:B attr='1' xmlns:c='urn:c'>"
+        + "<c:C attr='1'>peach &amp; p\u00e9ar</c:C>"
+        + "<c:C attr='2'/>"
+        + "<c:C attr='3'><c:D>or\u00e4nge</c:D><![CDATA[<lime>]]></c:C>"
+        + "</c:B>"
+        + "<!-- > -->"
+        + "<c:B attr='2' xmlns:c='urn:c'>"
+        + "<c:C attr='4'>m\u00e4ngo</c:C>"
+        + "<c:C attr='5'></c:C>"
+        + "</c:B>"
+        + "</g:A>";
+
+    private Map<String, String> nsmap;
+
+    @Before
+    public void setup() {
+        nsmap = new HashMap<String, String>();
+        nsmap.put("G", "urn:g");
+        nsmap.put("C", "urn:c");
+    }
+
+    @Test
+    public void testFeedChunks() throws Exception {
+        for (char mode : new char[]{'i', 'w', 'u', 't'}) {
+            for (int size : new int[]{1, 3, 7, 64, 1024}) {
+                invokeAndVerify("//C:C", mode, size, "utf-8");
+            }
+        }
+    }
+
+    @Test
+    public void testFeedChunksISOLatin() throws Exception {
+        for (char mode : new char[]{'i', 'w', 'u', 't'}) {
+            invokeAndVerify("//C:C", mode, 5, "iso-8859-1");
+        }
+    }
+
+    @Test
+    public void testTokenBeforeEndOfInput() throws Exception {
+        NonBlockingXMLTokenizer tokenizer = 
+            new NonBlockingXMLTokenizer(XMLTokenPath.compile("//C:C", nsmap), 'i', "utf-8", false);
+        byte[] data = DATA.getBytes("utf-8");
+        int end = DATA.substring(0, DATA.indexOf("<c:C attr='2'/>")).getBytes("utf-8").length;
+        tokenizer.feed(ByteBuffer.wrap(data, 0, end - 4));
+        assertNull(tokenizer.pollToken());
+        tokenizer.feed(ByteBuffer.wrap(data, end - 4, 4));
+        // the token is returned when the following event has started
+        assertNull(tokenizer.pollToken());
+        tokenizer.feed(ByteBuffer.wrap(data, end, "<c:C attr='2'/>".length()));
+        assertEquals("<c:C attr='1' xmlns:g=\"urn:g\" xmlns:c=\"urn:c\">peach &amp; p\u00e9ar</c:C>", 
+                     tokenizer.pollToken());
+        assertNull(tokenizer.pollToken());
+        assertFalse(tokenizer.isFinished());
+        tokenizer.close();
+    }
+
+    @Test
+    public void testLargeTokenParsedOnceComplete() throws Exception {
+        StringBuilder sb = new StringBuilder("<c:C xmlns:c='urn:c'>");
+        while (sb.length() < 200000) {
+            sb.append("<f a='1>'>text<!-- </c:C> --><![CDATA[</c:C>]]><?pi </c:C>?></f>");
+        }
+        sb.append("</c:C>");
+        String token = sb.toString();
+        byte[] data = ("<A>" + token + "<c:C xmlns:c='urn:c'/></A>").getBytes("utf-8");
+        NonBlockingXMLTokenizer tokenizer = 
+            new NonBlockingXMLTokenizer(XMLTokenPath.compile("//C:C", nsmap), 'i', "utf-8", false);
+        List<Object> results = new ArrayList<Object>();
+        for (int i = 0; i < data.length; i += 512) {
+            tokenizer.feed(ByteBuffer.wrap(data, i, Math.min(512, data.length - i)));
+            Object t;
+            while ((t = tokenizer.pollToken()) != null) {
+                results.add(t);
+            }
+        }
+        // the token is not parsed again for each chunk containing a '>'
+        assertTrue("restarts: " + tokenizer.getRestartCount(), tokenizer.getRestartCount() < 10);
+        tokenizer.endOfInput();
+        Object t;
+        while ((t = tokenizer.pollToken()) != null) {
+            results.add(t);
+        }
+        assertEquals(2, results.size());
+        assertEquals(token, results.get(0));
+        tokenizer.close();
+    }
+
+    @Test
+    public void testLongDocumentWithoutTokens() throws Exception {
+        StringBuilder sb = new StringBuilder("<A>");
+        while (sb.length() < 1000000) {
+            sb.append("<B b='1'><b:E xmlns:b='urn:b'>text</b:E><D>text<!-- <c:C> --></D></B>");
+        }
+        sb.append("<c:C xmlns:c='urn:c'>last</c:C></A>");
+        byte[] data = sb.toString().getBytes("utf-8");
+        NonBlockingXMLTokenizer tokenizer = 
+            new NonBlockingXMLTokenizer(XMLTokenPath.compile("//C:C", nsmap), 'i', "utf-8", false);
+        List<Object> results = new ArrayList<Object>();
+        int maxlen = 0;
+        for (int i = 0; i < data.length; i += 1024) {
+            tokenizer.feed(ByteBuffer.wrap(data, i, Math.min(1024, data.length - i)));
+            Object t;
+            while ((t = tokenizer.pollToken()) != null) {
+                results.add(t);
+            }
+            maxlen = Math.max(maxlen, tokenizer.getBufferedLength());
+        }
+        tokenizer.endOfInput();
+        Object t;
+        while ((t = tokenizer.pollToken()) != null) {
+            results.add(t);
+        }
+        // the consumed bytes are dropped and not parsed again for each chunk
+        assertTrue("restarts: " + tokenizer.getRestartCount(), tokenizer.getRestartCount() < 40);
+        assertTrue("buffered: " + maxlen, maxlen < 128 * 1024);
+        assertEquals(1, results.size());
+        assertEquals("<c:C xmlns:c='urn:c'>last</c:C>", results.get(0));
+        tokenizer.close();
+    }
+
+    @Test
+    public void testInvalidDocument() throws Exception {
+        NonBlockingXMLTokenizer tokenizer = 
+            new NonBlockingXMLTokenizer(XMLTokenPath.compile("//C:C", nsmap), 'i', "utf-8", false);
+        tokenizer.feed(ByteBuffer.wrap(DATA.substring(0, DATA.indexOf("<c:C attr='3'>")).getBytes("utf-8")));
+        assertNotNull(tokenizer.pollToken());
+        assertNull(tokenizer.pollToken());
+        tokenizer.feed(ByteBuffer.wrap("</c:B>".getBytes("utf-8")));
+        tokenizer.endOfInput();
+        assertNotNull(tokenizer.pollToken());
+        try {
+            tokenizer.pollToken();
+            fail("XMLStreamException expected");
+        } catch (XMLStreamException e) {
+            // expected
+        }
+        assertTrue(tokenizer.isFinished());
+        tokenizer.close();
+    }
+
+    private void invokeAndVerify(String path, char mode, int size, String charset) throws Exception {
+        byte[] data = DATA.replace("?>", " encoding='" + charset + "'?>").getBytes(charset);
+        for (boolean binary : new boolean[]{false, true}) {
+            List<String> expected = new ArrayList<String>();
+            XMLTokenIterator iterator = new XMLTokenIterator(path, nsmap, mode, 1, new ByteArrayInputStream(data), 
+                                                             charset, binary);
+            while (iterator.hasNext()) {
+                expected.add(toString(iterator.next(), charset));
+            }
+            iterator.close();
+
+            List<String> results = new ArrayList<String>();
+            NonBlockingXMLTokenizer tokenizer = 
+                new NonBlockingXMLTokenizer(XMLTokenPath.compile(path, nsmap), mode, charset, binary);
+            for (int i = 0; i < data.length; i += size) {
+                tokenizer.feed(ByteBuffer.wrap(data, i, Math.min(size, data.length - i)));
+                Object token;
+                while ((token = tokenizer.pollToken()) != null) {
+                    results.add(toString(token, charset));
+                }
+            }
+            tokenizer.endOfInput();
+            Object token;
+            while ((token = tokenizer.pollToken()) != null) {
+                results.add(toString(token, charset));
+            }
+            assertTrue(tokenizer.isFinished());
+            tokenizer.close();
+
+            assertFalse(expected.isEmpty());
+            assertEquals("mode " + mode + ", size " + size, expected, results);
+        }
+    }
+
+    private static String toString(Object token, String charset) throws Exception {
+        return token instanceof byte[] ? new String((byte[])token, charset) : (String)token;
+    }
+}
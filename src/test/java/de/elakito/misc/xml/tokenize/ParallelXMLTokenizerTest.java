@@ -0,0 +1,273 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class ParallelXMLTokenizerTest extends Assert {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Map<String, String> nsmap;
+    private byte[] data;
+
+    @Before
+    public void setup() throws Exception {
+        nsmap = new HashMap<String, String>();
+        nsmap.put("G", "urn:g");
+        nsmap.put("C", "urn:c");
+        data = createData(0);
+    }
+
+    private static byte[] createData(int min) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version='1.0' encoding='UTF-8'?>\n<!-- <c:C> in a comment -->\n");
+        sb.append("<g:A xmlns:g='urn:g' xmlns='urn:d'>\n  ");
+        for (int i = 0; i < 20; i++) {
+            sb.append("<c:B attr='").append(i).append("' xmlns:c=\"urn:c\">\n    ");
+            for (int j = 0; j < min + i % 7; j++) {
+                sb.append("<c:C attr='").append(j).append("'>");
+                switch (j % 4) {
+                case 0:
+                    sb.append("<c:D>m\u00e4ngo ").append(i).append("</c:D>");
+                    break;
+                case 1:
+                    sb.append("<![CDATA[<c:C>").append(i).append("]]>");
+                    break;
+                case 2:
+                    sb.append("<!-- <c:C> -->text &amp; <?pi <c:C>?><E/>");
+                    break;
+                default:
+                    sb.append("<c:C attr='nested'>").append(i).append("</c:C>");
+                    break;
+                }
+                sb.append("</c:C>\n    ");
+            }
+            sb.append("<c:X/></c:B>\n  ");
+        }
+        sb.append("</g:A>\n<!-- end -->\n");
+        return sb.toString().getBytes("utf-8");
+    }
+
+    @Test
+    public void testTokenizeInjected() throws Exception {
+        invokeAndVerify("//C:C", 'i');
+    }
+
+    @Test
+    public void testWrappedRejected() throws Exception {
+        // the sequential extraction keeps the preceding siblings without tokens in the context
+        try {
+            new ParallelXMLTokenizer(XMLTokenPath.compile("//C:C", nsmap), 'w', "utf-8", false);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTokenizeUnwrapped() throws Exception {
+        invokeAndVerify("/G:A/C:B/C:C", 'u');
+    }
+
+    @Test
+    public void testTokenizeText() throws Exception {
+        invokeAndVerify("//C:B", 't');
+    }
+
+    @Test
+    public void testTokenizeFile() throws Exception {
+        File file = folder.newFile("data.xml");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+
+        List<String> expected = tokenize("//C:C", 'i', false);
+        ParallelXMLTokenizer tokenizer = new ParallelXMLTokenizer(XMLTokenPath.compile("//C:C", nsmap), 'i', "utf-8", false);
+        tokenizer.setChunkSize(200);
+        CollectingSink sink = new CollectingSink();
+        tokenizer.tokenize(file, sink);
+        assertEquals(expected, sink.tokens);
+    }
+
+    @Test
+    public void testTokenizeUnordered() throws Exception {
+        List<String> expected = tokenize("//C:C", 'i', false);
+        ParallelXMLTokenizer tokenizer = new ParallelXMLTokenizer(XMLTokenPath.compile("//C:C", nsmap), 'i', "utf-8", false);
+        tokenizer.setChunkSize(100);
+        tokenizer.setParallelism(4);
+        tokenizer.setOrdered(false);
+        CollectingSink sink = new CollectingSink();
+        tokenizer.tokenize(ByteBuffer.wrap(data), sink);
+        Collections.sort(expected);
+        Collections.sort(sink.tokens);
+        assertEquals(expected, sink.tokens);
+    }
+
+    @Test
+    public void testSinkFailure() throws Exception {
+        // the tasks blocked in queuing their tokens are released when the sink fails
+        data = createData(40);
+        for (boolean ordered : new boolean[]{true, false}) {
+            ParallelXMLTokenizer tokenizer = new ParallelXMLTokenizer(XMLTokenPath.compile("//C:C", nsmap), 'i', "utf-8", false);
+            tokenizer.setChunkSize(100);
+            tokenizer.setParallelism(2);
+            tokenizer.setOrdered(ordered);
+            CollectingSink sink = new CollectingSink() {
+                @Override
+                public void endToken() throws IOException {
+                    super.endToken();
+                    if (getTokens().size() == 3) {
+                        throw new IOException("sink failed");
+                    }
+                }
+            };
+            try {
+                tokenizer.tokenize(ByteBuffer.wrap(data), sink);
+                fail("IOException expected");
+            } catch (IOException e) {
+                assertEquals("sink failed", e.getMessage());
+            }
+            assertEquals(3, sink.getTokens().size());
+        }
+    }
+
+    @Test
+    public void testTokenizeInvalid() throws Exception {
+        ParallelXMLTokenizer tokenizer = new ParallelXMLTokenizer(XMLTokenPath.compile("//C:C", nsmap), 'i', "utf-8", false);
+        tokenizer.setChunkSize(100);
+        try {
+            tokenizer.tokenize(ByteBuffer.wrap("<A><B><C></C></A></B>".getBytes("utf-8")), new CollectingSink());
+            fail("XMLStreamException expected");
+        } catch (XMLStreamException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTokenizeBoundaryInMarkup() throws Exception {
+        // the splits within the markup are followed by an end tag not matching the split element
+        String[] docs = {
+            "<root><x><![CDATA[<rec>]]></x><rec>1</rec><rec>2</rec></root>",
+            "<root><x><!-- <rec> --></x><rec>1</rec><rec>2</rec></root>",
+            "<root><x><?pi <rec>?></x><rec>1</rec><rec>2</rec></root>"
+        };
+        for (String doc : docs) {
+            byte[] b = doc.getBytes("utf-8");
+            for (long chunkSize : new long[]{1, 5, 13}) {
+                ParallelXMLTokenizer tokenizer = new ParallelXMLTokenizer(XMLTokenPath.compile("//rec", nsmap), 'i', "utf-8", false);
+                tokenizer.setChunkSize(chunkSize);
+                CollectingSink sink = new CollectingSink();
+                tokenizer.tokenize(ByteBuffer.wrap(b), sink);
+                assertEquals(doc + " with chunk size " + chunkSize, Arrays.asList("<rec>1</rec>", "<rec>2</rec>"), sink.tokens);
+            }
+        }
+    }
+
+    @Test
+    public void testUnsupportedCharset() throws Exception {
+        try {
+            new ParallelXMLTokenizer(XMLTokenPath.compile("//C:C", nsmap), 'i', "utf-16", false);
+            fail("UnsupportedEncodingException expected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private void invokeAndVerify(String path, char mode) throws Exception {
+        for (boolean binary : new boolean[]{false, true}) {
+            List<String> expected = tokenize(path, mode, binary);
+            assertFalse(expected.isEmpty());
+            for (long chunkSize : new long[]{50, 97, 333, 1 << 20}) {
+                ParallelXMLTokenizer tokenizer = new ParallelXMLTokenizer(XMLTokenPath.compile(path, nsmap), mode, "utf-8", binary);
+                tokenizer.setChunkSize(chunkSize);
+                tokenizer.setParallelism(3);
+                CollectingSink sink = new CollectingSink();
+                tokenizer.tokenize(ByteBuffer.wrap(data), sink);
+                assertEquals("chunk size " + chunkSize, expected, sink.tokens);
+            }
+        }
+    }
+
+    private List<String> tokenize(String path, char mode, boolean binary) throws Exception {
+        List<String> tokens = new ArrayList<String>();
+        XMLTokenIterator tokenizer = new XMLTokenIterator(path, nsmap, mode, 1, new ByteArrayInputStream(data), "utf-8", binary);
+        while (tokenizer.hasNext()) {
+            Object token = tokenizer.next();
+            tokens.add(binary ? new String((byte[])token, "utf-8") : (String)token);
+        }
+        ((Closeable)tokenizer).close();
+        return tokens;
+    }
+
+    private static class CollectingSink implements TokenSink {
+        private List<String> tokens = new ArrayList<String>();
+        private StringBuilder chars = new StringBuilder();
+        private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public void startToken(String path) throws IOException {
+            chars.setLength(0);
+            bytes.reset();
+        }
+
+        @Override
+        public void chars(char[] buf, int off, int len) throws IOException {
+            chars.append(buf, off, len);
+        }
+
+        @Override
+        public void bytes(byte[] buf, int off, int len) throws IOException {
+            bytes.write(buf, off, len);
+        }
+
+        @Override
+        public void endToken() throws IOException {
+            tokens.add(bytes.size() > 0 ? new String(bytes.toByteArray(), "utf-8") : chars.toString());
+        }
+
+        List<String> getTokens() {
+            return tokens;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class SimpleXMLLexerTest extends Assert {
+    private static final String[] DOCUMENTS = {
+        "<A/>",
+        "<?xml version='1.0' encoding='utf-8'?>\n<!-- comment --><?pi data?>\r\n"
+        + "<A xmlns='urn:a' xmlns:b=\"urn:b?x=1&amp;y=2\"><b:B x='1&gt;' y=\"'\">text &#x1F34E;&lt;&#65;"
+        + "<![CDATA[<c>]]]></b:B><b:B/><C xmlns=''>\r\nline</C><b:B xmlns:b='urn:b2'/></A><!-- tail -->",
+        "<g:A xmlns:g='urn:g'><g:B><g:C a='>'><!-- <g:D> --></g:C></g:B><?pi <g:E>?><g:F\n/></g:A >",
+        "<A><xml:B xml:lang='en'>\u00e4\u00f6\u00fc \ud83c\udf4e</xml:B></A>",
+        "<A b:x='1' x='2' xmlns:b='urn:b'>]] ]&#93;> ]]&gt;<!----><!-- - --><B>]]</B></A>"
+    };
+
+    private static final String[] INVALID_DOCUMENTS = {
+        "<A><B></A>",
+        "<A>a < b</A>",
+        "<A x='<'/>",
+        "<A>&unknown;</A>",
+        "<p:A/>",
+        "<A/><B/>",
+        "<A>",
+        "text<A/>",
+        "<A><",
+        "<A p:x='1'/>",
+        "<A>a ]]> b</A>",
+        "<A x='1' x='2'/>",
+        "<A xmlns:p='urn:p' xmlns:q='urn:p' p:x='1' q:x='2'/>",
+        "<A>\u0001</A>",
+        "<A x='\u0001'/>",
+        "<A>&#1;</A>",
+        "<A>&#xD800;</A>",
+        "<A><![CDATA[\u0001]]></A>",
+        "<A xmlns:p=''/>",
+        "<A><!-- a -- b --></A>",
+        "<A><!-- a ---></A>"
+    };
+
+    @Test
+    public void testEvents() throws Exception {
+        for (String doc : DOCUMENTS) {
+            assertEquals(doc, getEvents(XMLLexerFactory.STAX.createLexer(new StringReader(doc))), 
+                         getEvents(XMLLexerFactory.SIMPLE.createLexer(new StringReader(doc))));
+        }
+    }
+
+    @Test
+    public void testInvalidDocuments() throws Exception {
+        for (String doc : INVALID_DOCUMENTS) {
+            XMLLexer lexer = XMLLexerFactory.SIMPLE.createLexer(new StringReader(doc));
+            try {
+                while (lexer.next() != XMLStreamConstants.END_DOCUMENT) {
+                    // read on
+                }
+                fail("XMLStreamException expected for " + doc);
+            } catch (XMLStreamException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidDocumentsRejectedByStax() throws Exception {
+        for (String doc : INVALID_DOCUMENTS) {
+            XMLLexer lexer = XMLLexerFactory.STAX.createLexer(new StringReader(doc));
+            try {
+                while (lexer.next() != XMLStreamConstants.END_DOCUMENT) {
+                    // read on
+                }
+                fail("XMLStreamException expected for " + doc);
+            } catch (XMLStreamException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testDocumentTypeFallback() throws Exception {
+        String doc = "<?xml version='1.0'?>\n<!DOCTYPE A [<!ENTITY e 'entity'>]><A><B>&e;</B></A>";
+        assertEquals(getEvents(XMLLexerFactory.STAX.createLexer(new StringReader(doc))), 
+                     getEvents(XMLLexerFactory.SIMPLE.createLexer(new StringReader(doc))));
+    }
+
+    @Test
+    public void testSkipElement() throws Exception {
+        String doc = "<A><B><C a='/>'><![CDATA[</B>]]><!-- </B> --><D/></C><E/></B><F/></A>";
+        XMLLexer lexer = XMLLexerFactory.SIMPLE.createLexer(new StringReader(doc));
+        assertEquals(XMLStreamConstants.START_ELEMENT, lexer.next());
+        assertEquals(XMLStreamConstants.START_ELEMENT, lexer.next());
+        assertEquals("B", lexer.getName().getLocalPart());
+        assertTrue(lexer.skipElement());
+        assertEquals(XMLStreamConstants.END_ELEMENT, lexer.getEventType());
+        assertEquals("B", lexer.getName().getLocalPart());
+        assertEquals(doc.indexOf("</B><F/>"), lexer.getCharacterOffset());
+        assertEquals(XMLStreamConstants.START_ELEMENT, lexer.next());
+        assertEquals("F", lexer.getName().getLocalPart());
+        assertTrue(lexer.skipElement());
+        assertEquals(XMLStreamConstants.END_ELEMENT, lexer.getEventType());
+        assertEquals(doc.indexOf("<F/>"), lexer.getCharacterOffset());
+        assertEquals(XMLStreamConstants.END_ELEMENT, lexer.next());
+        assertEquals("A", lexer.getName().getLocalPart());
+        assertEquals(XMLStreamConstants.END_DOCUMENT, lexer.next());
+    }
+
+    @Test
+    public void testLargeDocument() throws Exception {
+        StringBuilder sb = new StringBuilder("<A>");
+        for (int i = 0; i < 5000; i++) {
+            sb.append("<B n='").append(i).append("'>text ").append(i).append(" &amp; more</B>");
+        }
+        sb.append("</A>");
+        String doc = sb.toString();
+        assertEquals(getEvents(XMLLexerFactory.STAX.createLexer(new StringReader(doc))), 
+                     getEvents(XMLLexerFactory.SIMPLE.createLexer(new StringReader(doc))));
+    }
+
+    @Test
+    public void testLargeTextNode() throws Exception {
+        StringBuilder sb = new StringBuilder("<A><B>");
+        for (int i = 0; i < 20000; i++) {
+            sb.append("text\r\n&amp;]]&#x1F34E;\ud83c\udf4e ");
+        }
+        sb.append("</B><B><![CDATA[");
+        for (int i = 0; i < 20000; i++) {
+            sb.append("<c>]]\r\n]\ud83c\udf4e ");
+        }
+        sb.append("]]></B></A>");
+        String doc = sb.toString();
+        assertEquals(getTexts(XMLLexerFactory.STAX.createLexer(new StringReader(doc))), 
+                     getTexts(XMLLexerFactory.SIMPLE.createLexer(new StringReader(doc))));
+
+        XMLLexer lexer = XMLLexerFactory.SIMPLE.createLexer(new StringReader(doc));
+        int count = 0;
+        int e;
+        while ((e = lexer.next()) != XMLStreamConstants.END_DOCUMENT) {
+            if (e == XMLStreamConstants.CHARACTERS || e == XMLStreamConstants.CDATA) {
+                // the text is reported in bounded segments
+                assertTrue(lexer.getTextLength() <= 8192);
+                assertTrue(lexer.getTextCharacters().length <= 8192);
+                count++;
+            }
+        }
+        assertTrue("events: " + count, count > 20);
+        lexer.close();
+    }
+
+    @Test
+    public void testTokenizeWithStax() throws Exception {
+        String doc = DOCUMENTS[1];
+        List<Object> expected = tokenize(doc);
+        XMLLexerFactory.setDefault(XMLLexerFactory.STAX);
+        try {
+            assertEquals(expected, tokenize(doc));
+        } finally {
+            XMLLexerFactory.setDefault(null);
+        }
+    }
+
+    @Test
+    public void testTokenizeLargeTextWithStax() throws Exception {
+        StringBuilder sb = new StringBuilder("<A><B>");
+        for (int i = 0; i < 10000; i++) {
+            sb.append("text ]]&amp;<![CDATA[<c>]]>\r\n");
+        }
+        sb.append("</B><B>x</B></A>");
+        String doc = sb.toString();
+        for (char mode : new char[]{'i', 't'}) {
+            List<Object> expected = tokenize(doc, mode);
+            XMLLexerFactory.setDefault(XMLLexerFactory.STAX);
+            try {
+                assertEquals(expected, tokenize(doc, mode));
+            } finally {
+                XMLLexerFactory.setDefault(null);
+            }
+        }
+    }
+
+    private static List<Object> tokenize(String doc, char mode) throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//B", null, mode, new StringReader(doc));
+        List<Object> tokens = new ArrayList<Object>();
+        while (tokenizer.hasNext()) {
+            tokens.add(tokenizer.next());
+        }
+        tokenizer.close();
+        assertEquals(2, tokens.size());
+        return tokens;
+    }
+
+    private static List<Object> tokenize(String doc) throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//b:B", Collections.singletonMap("b", "urn:b?x=1&y=2"), 
+                                                          'i', new StringReader(doc));
+        List<Object> tokens = new ArrayList<Object>();
+        while (tokenizer.hasNext()) {
+            tokens.add(tokenizer.next());
+        }
+        tokenizer.close();
+        assertEquals(2, tokens.size());
+        return tokens;
+    }
+
+    /**
+     * Returns the texts of the elements with the adjacent text events concatenated.
+     */
+    private static List<String> getTexts(XMLLexer lexer) throws Exception {
+        List<String> texts = new ArrayList<String>();
+        StringBuilder sb = new StringBuilder();
+        int e;
+        while ((e = lexer.next()) != XMLStreamConstants.END_DOCUMENT) {
+            if (e == XMLStreamConstants.CHARACTERS || e == XMLStreamConstants.CDATA) {
+                sb.append(lexer.getTextCharacters(), lexer.getTextStart(), lexer.getTextLength());
+            } else if (sb.length() > 0) {
+                texts.add(sb.toString());
+                sb.setLength(0);
+            }
+        }
+        lexer.close();
+        return texts;
+    }
+
+    private static List<String> getEvents(XMLLexer lexer) throws Exception {
+        List<String> events = new ArrayList<String>();
+        int e;
+        do {
+            e = lexer.next();
+            StringBuilder sb = new StringBuilder();
+            sb.append(e).append('@').append(lexer.getCharacterOffset());
+            if (e == XMLStreamConstants.START_ELEMENT || e == XMLStreamConstants.END_ELEMENT) {
+                sb.append(' ').append(lexer.getName()).append(' ').append(lexer.getName().getPrefix());
+            }
+            if (e == XMLStreamConstants.START_ELEMENT) {
+                for (int i = 0; i < lexer.getNamespaceCount(); i++) {
+                    String pfx = lexer.getNamespacePrefix(i);
+                    sb.append(' ').append(pfx == null ? "" : pfx).append('=').append(lexer.getNamespaceURI(i));
+                }
+            }
+            if (e == XMLStreamConstants.CHARACTERS || e == XMLStreamConstants.CDATA) {
+                sb.append(' ').append(lexer.getTextCharacters(), lexer.getTextStart(), lexer.getTextLength());
+            }
+            if (e != XMLStreamConstants.SPACE) {
+                // the whitespace outside of the root element is not reported by all readers
+                events.add(sb.toString());
+            }
+        } while (e != XMLStreamConstants.END_DOCUMENT);
+        lexer.close();
+        return events;
+    }
+}
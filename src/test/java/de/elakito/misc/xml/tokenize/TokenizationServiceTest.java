@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class TokenizationServiceTest extends Assert {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final AtomicLong completed = new AtomicLong();
+        TokenizationService service = new TokenizationService(3);
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        for (int i = 0; i < 40; i++) {
+            final int n = i % 7 + 1;
+            futures.add(service.submit(new TrackingInputStream(createData(n), active, maxActive), 
+                                       XMLTokenPath.compile("//B", null), 'u', "utf-8", false, 
+                                       new TokenHandler() {
+                                           public void handle(Object token, String path) throws Exception {
+                                               assertEquals("//B", path);
+                                               Thread.sleep(1);
+                                           }
+                                       }, 
+                                       new TokenizationService.Callback() {
+                                           public void completed(long count) {
+                                               completed.addAndGet(count);
+                                           }
+
+                                           public void failed(Throwable throwable) {
+                                               // not expected
+                                           }
+                                       }));
+        }
+        long total = 0;
+        for (int i = 0; i < futures.size(); i++) {
+            long count = futures.get(i).get(30, TimeUnit.SECONDS);
+            assertEquals(i % 7 + 1, count);
+            total += count;
+        }
+        service.close();
+        assertTrue(service.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(total, completed.get());
+        assertTrue(maxActive.get() <= 3);
+        assertEquals(0, active.get());
+    }
+
+    @Test
+    public void testSubmitFile() throws Exception {
+        File file = folder.newFile("data.xml");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(createData(5));
+        out.close();
+        final List<Object> tokens = new ArrayList<Object>();
+        TokenizationService service = new TokenizationService(2);
+        Future<Long> future = service.submit(file.toPath(), XMLTokenPath.compile("//B", null), 'i', "utf-8", true, 
+                                             new TokenHandler() {
+                                                 public void handle(Object token, String path) throws Exception {
+                                                     tokens.add(new String((byte[])token, "utf-8"));
+                                                 }
+                                             }, null);
+        assertEquals(5L, future.get(30, TimeUnit.SECONDS).longValue());
+        assertEquals("<B>0</B>", tokens.get(0));
+        service.close();
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        final AtomicInteger failures = new AtomicInteger();
+        TokenizationService service = new TokenizationService(2);
+        Future<Long> future = service.submit(new ByteArrayInputStream("<A><B>1</B><B></A>".getBytes("utf-8")), 
+                                             XMLTokenPath.compile("//B", null), 'u', "utf-8", false, 
+                                             new TokenHandler() {
+                                                 public void handle(Object token, String path) throws Exception {
+                                                     // nop
+                                                 }
+                                             }, 
+                                             new TokenizationService.Callback() {
+                                                 public void completed(long count) {
+                                                     fail("failure expected");
+                                                 }
+
+                                                 public void failed(Throwable throwable) {
+                                                     assertTrue(throwable instanceof XMLStreamException);
+                                                     failures.incrementAndGet();
+                                                 }
+                                             });
+        try {
+            future.get(30, TimeUnit.SECONDS);
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof XMLStreamException);
+        }
+        assertEquals(1, failures.get());
+        service.close();
+    }
+
+    private static byte[] createData(int n) throws IOException {
+        StringBuilder sb = new StringBuilder("<A>");
+        for (int i = 0; i < n; i++) {
+            sb.append("<B>").append(i).append("</B>");
+        }
+        return sb.append("</A>").toString().getBytes("utf-8");
+    }
+
+    /**
+     * Counts the documents being read from their first read until they are closed.
+     */
+    private static class TrackingInputStream extends ByteArrayInputStream {
+        private final AtomicInteger active;
+        private final AtomicInteger maxActive;
+        private boolean started;
+
+        TrackingInputStream(byte[] data, AtomicInteger active, AtomicInteger maxActive) {
+            super(data);
+            this.active = active;
+            this.maxActive = maxActive;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            if (!started) {
+                started = true;
+                int n = active.incrementAndGet();
+                int m;
+                while ((m = maxActive.get()) < n && !maxActive.compareAndSet(m, n)) {
+                    // retry
+                }
+            }
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (started) {
+                active.decrementAndGet();
+            }
+            super.close();
+        }
+    }
+}
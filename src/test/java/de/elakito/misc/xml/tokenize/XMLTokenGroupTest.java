@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class XMLTokenGroupTest extends Assert {
+    private static final byte[] DATA = (
+        "<?xml version='1.0' encoding='UTF-8'?>"
+        + "<g:A xmlns:g='urn:g'>"
+        + "<c:B attr='1' xmlns:c='urn:c'>"
+        + "<c:C attr='1'>peach</c:C>"
+        + "<c:C attr='2'/>"
+        + "<c:C attr='3'>orange</c:C>"
+        + "<c:C attr='4'/>"
+        + "<c:C attr='5'>mango</c:C>"
+        + "</c:B>"
+        + "</g:A>").getBytes();
+
+    private Map<String, String> nsmap;
+
+    @Before
+    public void setUp() throws Exception {
+        nsmap = new HashMap<String, String>();
+        nsmap.put("G", "urn:g");
+        nsmap.put("C", "urn:c");
+    }
+
+    @Test
+    public void testInjected() throws Exception {
+        invokeAndVerify('i');
+    }
+
+    @Test
+    public void testUnwrapped() throws Exception {
+        invokeAndVerify('u');
+    }
+
+    @Test
+    public void testText() throws Exception {
+        invokeAndVerify('t');
+    }
+
+    @Test
+    public void testWrapped() throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//C:C", nsmap, 'w', 2, new ByteArrayInputStream(DATA), "utf-8");
+        tokenizer.setTokenView(true);
+        XMLTokenGroup group = (XMLTokenGroup)tokenizer.next();
+        assertEquals(2, group.size());
+        assertEquals("<c:C attr='1'>peach</c:C>", group.getToken(0).toString());
+        assertEquals("<c:C attr='2'/>", group.getToken(1).toString());
+        assertTrue(group.toString().startsWith("<?xml version='1.0' encoding='UTF-8'?><g:A xmlns:g='urn:g'>"));
+        assertTrue(group.toString().endsWith("</c:B></g:A>"));
+        tokenizer.close();
+    }
+
+    @Test
+    public void testGroupMatchesString() throws Exception {
+        List<String> groups = new ArrayList<String>();
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//C:C", nsmap, 'i', 2, new ByteArrayInputStream(DATA), "utf-8");
+        while (tokenizer.hasNext()) {
+            groups.add((String)tokenizer.next());
+        }
+        tokenizer.close();
+
+        tokenizer = new XMLTokenIterator("//C:C", nsmap, 'i', 2, new ByteArrayInputStream(DATA), "utf-8");
+        tokenizer.setTokenView(true);
+        int i = 0;
+        while (tokenizer.hasNext()) {
+            XMLTokenGroup group = (XMLTokenGroup)tokenizer.next();
+            assertEquals(groups.get(i++), group.toString());
+            assertEquals("<group>", group.subSequence(0, group.getStart(0)).toString());
+            assertEquals("</group>", group.subSequence(group.getEnd(group.size() - 1), group.length()).toString());
+        }
+        tokenizer.close();
+        assertEquals(3, i);
+    }
+
+    @Test
+    public void testIndexOutOfBounds() throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//C:C", nsmap, 'i', 2, new ByteArrayInputStream(DATA), "utf-8");
+        tokenizer.setTokenView(true);
+        XMLTokenGroup group = (XMLTokenGroup)tokenizer.next();
+        try {
+            group.getToken(2);
+            fail("index beyond the group must be rejected");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        tokenizer.close();
+    }
+
+    private void invokeAndVerify(char mode) throws Exception {
+        List<String> expected = new ArrayList<String>();
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//C:C", nsmap, mode, new ByteArrayInputStream(DATA), "utf-8");
+        while (tokenizer.hasNext()) {
+            expected.add((String)tokenizer.next());
+        }
+        tokenizer.close();
+        assertEquals(5, expected.size());
+
+        List<String> results = new ArrayList<String>();
+        List<Integer> sizes = new ArrayList<Integer>();
+        tokenizer = new XMLTokenIterator("//C:C", nsmap, mode, 2, new ByteArrayInputStream(DATA), "utf-8");
+        tokenizer.setTokenView(true);
+        while (tokenizer.hasNext()) {
+            XMLTokenGroup group = (XMLTokenGroup)tokenizer.next();
+            sizes.add(group.size());
+            for (int i = 0; i < group.size(); i++) {
+                assertEquals(group.subSequence(group.getStart(i), group.getEnd(i)).toString(), 
+                    group.getToken(i).toString());
+                results.add(group.getToken(i).toString());
+            }
+        }
+        tokenizer.close();
+        assertEquals(expected, results);
+        assertEquals(3, sizes.size());
+        assertEquals(1, sizes.get(2).intValue());
+    }
+}
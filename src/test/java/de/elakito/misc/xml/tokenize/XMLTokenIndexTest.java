@@ -0,0 +1,166 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class XMLTokenIndexTest extends Assert {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File data;
+    private List<String> expected;
+
+    @Before
+    public void setup() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version='1.0' encoding='utf-8'?>\n<A>\n");
+        for (int i = 0; i < 100; i++) {
+            sb.append("  <B id='").append(i).append("'>");
+            if (i % 3 == 0) {
+                sb.append("<record>p\u00e9ar ").append(i).append("<x/></record>");
+            } else {
+                sb.append("<record id='").append(i).append("'/>");
+            }
+            sb.append("<other><record>nested</record></other></B>\n");
+        }
+        sb.append("</A>\n");
+        data = folder.newFile("data.xml");
+        FileOutputStream out = new FileOutputStream(data);
+        out.write(sb.toString().getBytes("utf-8"));
+        out.close();
+
+        expected = new ArrayList<String>();
+        XMLTokenIterator tokenizer = new XMLTokenIterator("/A/B/record", null, 'i', 1, 
+            new ByteArrayInputStream(sb.toString().getBytes("utf-8")), "utf-8", false);
+        while (tokenizer.hasNext()) {
+            expected.add((String)tokenizer.next());
+        }
+        tokenizer.close();
+    }
+
+    @Test
+    public void testBuildAndRead() throws Exception {
+        File index = folder.newFile("data.idx");
+        RandomAccessFile raf = new RandomAccessFile(data, "r");
+        assertEquals(100, XMLTokenIndex.build(XMLTokenPath.compile("/A/B/record", null), raf.getChannel(), "utf-8", index));
+        assertEquals(16 + 100 * 12, index.length());
+
+        XMLTokenIndex tindex = XMLTokenIndex.open(index);
+        assertEquals(100, tindex.size());
+        // random access
+        for (int i : new int[]{42, 0, 99, 3}) {
+            assertEquals(expected.get(i), new String(tindex.read(raf.getChannel(), i), "utf-8"));
+            assertEquals(tindex.getEnd(i) - tindex.getStart(i), tindex.read(raf.getChannel(), i).length);
+        }
+        List<byte[]> tokens = tindex.read(raf.getChannel(), 10, 20);
+        assertEquals(10, tokens.size());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(expected.get(10 + i), new String(tokens.get(i), "utf-8"));
+        }
+        try {
+            tindex.read(raf.getChannel(), 100);
+            fail("IndexOutOfBoundsException expected");
+        } catch (IndexOutOfBoundsException e) {
+            // expected
+        }
+        tindex.close();
+        raf.close();
+    }
+
+    @Test
+    public void testMappedInWindows() throws Exception {
+        File index = folder.newFile("data.idx");
+        RandomAccessFile raf = new RandomAccessFile(data, "r");
+        XMLTokenIndex.build(XMLTokenPath.compile("/A/B/record", null), raf.getChannel(), "utf-8", index);
+
+        // the entries are spread over 15 windows with the last one partially filled
+        XMLTokenIndex tindex = XMLTokenIndex.open(index, 7);
+        assertEquals(100, tindex.size());
+        List<byte[]> tokens = tindex.read(raf.getChannel(), 0, 100);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(expected.get(i), new String(tokens.get(i), "utf-8"));
+            assertEquals(tindex.getEnd(i) - tindex.getStart(i), tokens.get(i).length);
+        }
+        tindex.close();
+        raf.close();
+    }
+
+    @Test
+    public void testOffsetMode() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(data, "r");
+        XMLTokenIterator tokenizer = new XMLTokenIterator(XMLTokenPath.compile("//record", null), 'i', 1, 
+                                                          raf.getChannel(), "utf-8", false);
+        tokenizer.setOffsetMode(true);
+        long n = 0;
+        long last = 0;
+        while (tokenizer.hasNext()) {
+            long[] offsets = (long[])tokenizer.next();
+            assertEquals(n++, offsets[2]);
+            assertTrue(offsets[0] >= last && offsets[1] > offsets[0]);
+            last = offsets[1];
+        }
+        assertEquals(200, n);
+        tokenizer.close();
+        raf.close();
+    }
+
+    @Test
+    public void testInvalidIndex() throws Exception {
+        File index = folder.newFile("invalid.idx");
+        FileOutputStream out = new FileOutputStream(index);
+        out.write("not an index".getBytes());
+        out.close();
+        try {
+            XMLTokenIndex.open(index);
+            fail("IOException expected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testOffsetModeRejectedForStream() throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//record", null, 'i', 
+                                                          new ByteArrayInputStream("<A/>".getBytes()), "utf-8");
+        try {
+            tokenizer.setOffsetMode(true);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        tokenizer.close();
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class XMLTokenIteratorBinaryTest extends Assert {
+    private static final String DATA = 
+        "<?xml version='1.0'?>"
+        + "<g:list xmlns:g='urn:g'>"
+        + "<g:item id='1'>we l\u00f3ve iso-latin</g:item>"
+        + "<g:item id='2'/>"
+        + "<g:item id='3'>we h\u00e4te <![CDATA[<unicode>]]></g:item>"
+        + "</g:list>";
+
+    private static final String DATA_SUPPLEMENTARY = 
+        "<?xml version='1.0'?>"
+        + "<g:list xmlns:g='urn:g'>"
+        + "<g:item id='1'>\ud834\udd1e \u20ac</g:item>"
+        + "<g:item id='2'>\u00e4\ud834\udd1e</g:item>"
+        + "</g:list>";
+
+    private static final String[] RESULTS_INJECTED = {
+        "<g:item id='1' xmlns:g=\"urn:g\">we l\u00f3ve iso-latin</g:item>",
+        "<g:item id='2' xmlns:g=\"urn:g\"/>",
+        "<g:item id='3' xmlns:g=\"urn:g\">we h\u00e4te <![CDATA[<unicode>]]></g:item>"
+    };
+
+    private static final String[] RESULTS_WRAPPED = {
+        "<?xml version='1.0'?><g:list xmlns:g='urn:g'><g:item id='1'>we l\u00f3ve iso-latin</g:item></g:list>",
+        "<?xml version='1.0'?><g:list xmlns:g='urn:g'><g:item id='2'/></g:list>",
+        "<?xml version='1.0'?><g:list xmlns:g='urn:g'><g:item id='3'>we h\u00e4te <![CDATA[<unicode>]]></g:item></g:list>"
+    };
+
+    private static final String[] RESULTS_UNWRAPPED = {
+        "we l\u00f3ve iso-latin",
+        "",
+        "we h\u00e4te <![CDATA[<unicode>]]>"
+    };
+
+    private static final String[] RESULTS_TEXT = {
+        "we l\u00f3ve iso-latin",
+        "",
+        "we h\u00e4te <unicode>"
+    };
+
+    private static final String[] RESULTS_GROUPED = {
+        "<group><g:item id='1' xmlns:g=\"urn:g\">we l\u00f3ve iso-latin</g:item>"
+        + "<g:item id='2' xmlns:g=\"urn:g\"/></group>",
+        "<group><g:item id='3' xmlns:g=\"urn:g\">we h\u00e4te <![CDATA[<unicode>]]></g:item></group>"
+    };
+
+    private static final String[] RESULTS_SUPPLEMENTARY = {
+        "<g:item id='1' xmlns:g=\"urn:g\">\ud834\udd1e \u20ac</g:item>",
+        "<g:item id='2' xmlns:g=\"urn:g\">\u00e4\ud834\udd1e</g:item>"
+    };
+
+    private static final Map<String, String> NSMAP = Collections.singletonMap("g", "urn:g");
+
+    @Test
+    public void testExtractInjectedUTF8() throws Exception {
+        invokeAndVerify(DATA, 'i', 1, "utf-8", RESULTS_INJECTED);
+    }
+
+    @Test
+    public void testExtractInjectedISOLatin() throws Exception {
+        invokeAndVerify(DATA, 'i', 1, "iso-8859-1", RESULTS_INJECTED);
+    }
+
+    @Test
+    public void testExtractWrappedUTF8() throws Exception {
+        invokeAndVerify(DATA, 'w', 1, "utf-8", RESULTS_WRAPPED);
+    }
+
+    @Test
+    public void testExtractUnwrappedUTF8() throws Exception {
+        invokeAndVerify(DATA, 'u', 1, "utf-8", RESULTS_UNWRAPPED);
+    }
+
+    @Test
+    public void testExtractTextISOLatin() throws Exception {
+        invokeAndVerify(DATA, 't', 1, "iso-8859-1", RESULTS_TEXT);
+    }
+
+    @Test
+    public void testExtractGroupedUTF8() throws Exception {
+        invokeAndVerify(DATA, 'i', 2, "utf-8", RESULTS_GROUPED);
+    }
+
+    @Test
+    public void testExtractSupplementaryUTF8() throws Exception {
+        invokeAndVerify(DATA_SUPPLEMENTARY, 'i', 1, "utf-8", RESULTS_SUPPLEMENTARY);
+    }
+
+    @Test
+    public void testUnsupportedCharset() throws Exception {
+        try {
+            new XMLTokenIterator("//g:item", NSMAP, 'i', 1, 
+                new ByteArrayInputStream(DATA.getBytes("utf-16")), "utf-16", true);
+            fail("binary mode must not be supported for utf-16");
+        } catch (UnsupportedEncodingException e) {
+            // expected
+        }
+    }
+
+    private static void invokeAndVerify(String data, char mode, int group, String charset, String[] expected) 
+        throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//g:item", NSMAP, mode, group, 
+            new ByteArrayInputStream(data.getBytes(charset)), charset, true);
+
+        List<byte[]> results = new ArrayList<byte[]>();
+        while (tokenizer.hasNext()) {
+            byte[] token = (byte[])tokenizer.next();
+            System.out.println("#### result: " + new String(token, charset));
+            results.add(token);
+        }
+        ((Closeable)tokenizer).close();
+
+        assertEquals("token count", expected.length, results.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("mismatch [" + i + "]", expected[i], new String(results.get(i), charset));
+            assertArrayEquals("mismatch [" + i + "]", expected[i].getBytes(charset), results.get(i));
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class XMLTokenIteratorCheckpointTest extends Assert {
+    private static final String DATA = 
+        "<?xml version='1.0'?>\n"
+        + "<g:A xmlns:g='urn:g' xmlns='urn:d?a=1&amp;b=&quot;2&quot;'>"
+        + "<c:B attr='1' xmlns:c='urn:c'>"
+        + "<c:C attr='1'>peach &amp; p\u00e9ar</c:C>"
+        + "<c:C attr='2'/>"
+        + "<c:C attr='3'><c:D>or\u00e4nge</c:D><![CDATA[<lime>]]></c:C>"
+        + "</c:B>"
+        + "<X><c:B attr='2' xmlns:c='urn:c' xmlns:x='urn:x'>"
+        + "<c:C attr='4'>m\u00e4ngo<x:Y/></c:C>"
+        + "<c:C attr='5'></c:C>"
+        + "</c:B></X>"
+        + "<c:B xmlns:c='urn:c'><c:C attr='6'>kiwi</c:C></c:B>"
+        + "</g:A>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Map<String, String> nsmap;
+    private int files;
+
+    @Before
+    public void setup() {
+        nsmap = new HashMap<String, String>();
+        nsmap.put("G", "urn:g");
+        nsmap.put("C", "urn:c");
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        for (char mode : new char[]{'i', 'w', 'u', 't'}) {
+            invokeAndVerify("//C:C", mode, "utf-8");
+            invokeAndVerify("/G:A/C:B/C:C", mode, "utf-8");
+        }
+    }
+
+    @Test
+    public void testResumeISOLatin() throws Exception {
+        for (char mode : new char[]{'i', 'w', 'u', 't'}) {
+            invokeAndVerify("//C:C", mode, "iso-8859-1");
+        }
+    }
+
+    @Test
+    public void testResumeOffsets() throws Exception {
+        File file = write(DATA, "utf-8");
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        XMLTokenIterator tokenizer = new XMLTokenIterator(XMLTokenPath.compile("//C:C", nsmap), 'i', 1, 
+                                                          raf.getChannel(), "utf-8", false);
+        tokenizer.setOffsetMode(true);
+        List<String> expected = new ArrayList<String>();
+        while (tokenizer.hasNext()) {
+            expected.add(Arrays.toString((long[])tokenizer.next()));
+        }
+        tokenizer.close();
+
+        tokenizer = new XMLTokenIterator(XMLTokenPath.compile("//C:C", nsmap), 'i', 1, 
+                                         raf.getChannel(), "utf-8", false);
+        tokenizer.setOffsetMode(true);
+        tokenizer.next();
+        tokenizer.next();
+        XMLTokenCheckpoint checkpoint = tokenizer.getCheckpoint();
+        tokenizer.close();
+
+        tokenizer = new XMLTokenIterator(XMLTokenPath.compile("//C:C", nsmap), 'i', raf.getChannel(), "utf-8", 
+                                         false, checkpoint);
+        tokenizer.setOffsetMode(true);
+        List<String> results = new ArrayList<String>();
+        while (tokenizer.hasNext()) {
+            results.add(Arrays.toString((long[])tokenizer.next()));
+        }
+        tokenizer.close();
+        raf.close();
+        assertEquals(expected.subList(2, expected.size()), results);
+    }
+
+    @Test
+    public void testCheckpointNotAvailable() throws Exception {
+        File file = write(DATA, "utf-8");
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        XMLTokenIterator tokenizer = new XMLTokenIterator(XMLTokenPath.compile("//C:C", nsmap), 'i', 2, 
+                                                          raf.getChannel(), "utf-8", false);
+        try {
+            tokenizer.getCheckpoint();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        tokenizer.close();
+
+        tokenizer = new XMLTokenIterator(XMLTokenPath.compile("//C:C", nsmap), 'i', 1, 
+                                         raf.getChannel(), "utf-8", false);
+        tokenizer.next();
+        tokenizer.hasNext();
+        try {
+            tokenizer.getCheckpoint();
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        tokenizer.close();
+        raf.close();
+    }
+
+    private void invokeAndVerify(String path, char mode, String charset) throws Exception {
+        File file = write(DATA.replace("?>", " encoding='" + charset + "'?>"), charset);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        for (boolean binary : new boolean[]{false, true}) {
+            List<String> expected = new ArrayList<String>();
+            XMLTokenIterator tokenizer = new XMLTokenIterator(XMLTokenPath.compile(path, nsmap), mode, 1, 
+                                                              raf.getChannel(), charset, binary);
+            while (tokenizer.hasNext()) {
+                expected.add(toString(tokenizer.next(), charset));
+            }
+            tokenizer.close();
+            assertFalse(expected.isEmpty());
+
+            for (int k = 0; k <= expected.size(); k++) {
+                tokenizer = new XMLTokenIterator(XMLTokenPath.compile(path, nsmap), mode, 1, 
+                                                 raf.getChannel(), charset, binary);
+                for (int i = 0; i < k; i++) {
+                    tokenizer.next();
+                }
+                XMLTokenCheckpoint checkpoint = copy(tokenizer.getCheckpoint());
+                tokenizer.close();
+
+                List<String> results = new ArrayList<String>();
+                tokenizer = new XMLTokenIterator(XMLTokenPath.compile(path, nsmap), mode, raf.getChannel(), 
+                                                 charset, binary, checkpoint);
+                while (tokenizer.hasNext()) {
+                    results.add(toString(tokenizer.next(), charset));
+                }
+                tokenizer.close();
+                assertEquals("resumed at " + checkpoint, expected.subList(k, expected.size()), results);
+            }
+        }
+        raf.close();
+    }
+
+    private static String toString(Object token, String charset) throws Exception {
+        return token instanceof byte[] ? new String((byte[])token, charset) : (String)token;
+    }
+
+    private static XMLTokenCheckpoint copy(XMLTokenCheckpoint checkpoint) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bos);
+        out.writeObject(checkpoint);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        XMLTokenCheckpoint cp = (XMLTokenCheckpoint)in.readObject();
+        in.close();
+        return cp;
+    }
+
+    private File write(String data, String charset) throws Exception {
+        File file = folder.newFile("data" + (files++) + ".xml");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data.getBytes(charset));
+        out.close();
+        return file;
+    }
+}
@@ -0,0 +1,219 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class XMLTokenIteratorGroupLimitTest extends Assert {
+    private static final String DATA_FIRST =
+        "<?xml version='1.0' encoding='UTF-8'?>"
+        + "<g:A xmlns:g='urn:g'>"
+        + "<c:B attr='1' xmlns:c='urn:c'>"
+        + "<c:C attr='1'>peach</c:C>"
+        + "<c:C attr='2'/>"
+        + "<c:C attr='3'>orange</c:C>"
+        + "<c:C attr='4'/>"
+        + "</c:B>";
+    private static final String DATA_SECOND =
+        "<c:B attr='2' xmlns:c='urn:c'>"
+        + "<c:C attr='5'>mango</c:C>"
+        + "<c:C attr='6'/>"
+        + "<c:C attr='7'>pear</c:C>"
+        + "<c:C attr='8'/>"
+        + "</c:B>"
+        + "</g:A>";
+    private static final String DATA = DATA_FIRST + DATA_SECOND;
+
+    private Map<String, String> nsmap;
+    private List<String> tokens;
+
+    @Before
+    public void setUp() throws Exception {
+        nsmap = new HashMap<String, String>();
+        nsmap.put("G", "urn:g");
+        nsmap.put("C", "urn:c");
+
+        tokens = new ArrayList<String>();
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//C:C", nsmap, 'i', new StringReader(DATA));
+        while (tokenizer.hasNext()) {
+            tokens.add((String)tokenizer.next());
+        }
+        tokenizer.close();
+        assertEquals(8, tokens.size());
+    }
+
+    @Test
+    public void testSizeLimit() throws Exception {
+        // each token is shorter than the limit and each two tokens are longer than the limit together
+        int limit = getMaxLength() + 1;
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//C:C", nsmap, 'i', 100, new StringReader(DATA));
+        tokenizer.setGroupLimits(limit, 0, TimeUnit.MILLISECONDS);
+        verifyGroups(tokenizer, 2, 2, 2, 2);
+    }
+
+    @Test
+    public void testSizeLimitWithCount() throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//C:C", nsmap, 'i', 3, new StringReader(DATA));
+        tokenizer.setGroupLimits(1024, 0, TimeUnit.MILLISECONDS);
+        verifyGroups(tokenizer, 3, 3, 2);
+    }
+
+    @Test
+    public void testSizeLimitSpilled() throws Exception {
+        int limit = getMaxLength() + 1;
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//C:C", nsmap, 'i', 100, new StringReader(DATA));
+        tokenizer.setSpillThreshold(1024 * 1024, null);
+        tokenizer.setGroupLimits(limit, 0, TimeUnit.MILLISECONDS);
+        verifyGroups(tokenizer, 2, 2, 2, 2);
+    }
+
+    @Test
+    public void testSizeLimitBinary() throws Exception {
+        int limit = getMaxLength() + 1;
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//C:C", nsmap, 'i', 100, 
+            new ByteArrayInputStream(DATA.getBytes("utf-8")), "utf-8", true);
+        tokenizer.setGroupLimits(limit, 0, TimeUnit.MILLISECONDS);
+        List<String> groups = new ArrayList<String>();
+        while (tokenizer.hasNext()) {
+            groups.add(new String((byte[])tokenizer.next(), "utf-8"));
+        }
+        tokenizer.close();
+        assertEquals(4, groups.size());
+        assertEquals("<group>" + tokens.get(0) + tokens.get(1) + "</group>", groups.get(0));
+    }
+
+    @Test
+    public void testDelayLimit() throws Exception {
+        // the second half of the input arrives after the delay has elapsed
+        Reader in = new DelayedReader(new StringReader(DATA), DATA_FIRST.length(), 300);
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//C:C", nsmap, 'i', 100, in);
+        tokenizer.setGroupLimits(0, 100, TimeUnit.MILLISECONDS);
+        verifyGroups(tokenizer, 4, 4);
+    }
+
+    @Test
+    public void testDelayLimitWrapped() throws Exception {
+        // the input stalls within a sibling subtree, whose elements are not closed in the returned group
+        String first = "<g:A xmlns:g='urn:g'><c:B xmlns:c='urn:c'><c:C>1</c:C><c:C>2</c:C><c:D><c:E>";
+        String second = "x</c:E></c:D><c:C>3</c:C></c:B></g:A>";
+        Reader in = new DelayedReader(new StringReader(first + second), first.length(), 300);
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//C:C", nsmap, 'w', 100, in);
+        tokenizer.setGroupLimits(0, 100, TimeUnit.MILLISECONDS);
+        List<String> groups = new ArrayList<String>();
+        while (tokenizer.hasNext()) {
+            groups.add((String)tokenizer.next());
+        }
+        tokenizer.close();
+        assertEquals(2, groups.size());
+        assertEquals("<g:A xmlns:g='urn:g'><c:B xmlns:c='urn:c'><c:C>1</c:C><c:C>2</c:C></c:B></g:A>", groups.get(0));
+        assertTrue(groups.get(1).endsWith("<c:C>3</c:C></c:B></g:A>"));
+    }
+
+    @Test
+    public void testNoLimits() throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//C:C", nsmap, 'i', 100, new StringReader(DATA));
+        tokenizer.setGroupLimits(0, 0, TimeUnit.MILLISECONDS);
+        verifyGroups(tokenizer, 8);
+    }
+
+    @Test
+    public void testUngrouped() throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//C:C", nsmap, 'i', new StringReader(DATA));
+        try {
+            tokenizer.setGroupLimits(1024, 0, TimeUnit.MILLISECONDS);
+            fail("group limits must be rejected for ungrouped tokens");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        tokenizer.close();
+    }
+
+    private int getMaxLength() {
+        int max = 0;
+        for (String token : tokens) {
+            max = Math.max(max, token.length());
+        }
+        return max;
+    }
+
+    private void verifyGroups(XMLTokenIterator tokenizer, int... sizes) throws Exception {
+        int n = 0;
+        int i = 0;
+        while (tokenizer.hasNext()) {
+            assertTrue("too many groups", i < sizes.length);
+            StringBuilder expected = new StringBuilder("<group>");
+            for (int j = 0; j < sizes[i]; j++) {
+                expected.append(tokens.get(n++));
+            }
+            expected.append("</group>");
+            assertEquals(expected.toString(), tokenizer.next());
+            i++;
+        }
+        tokenizer.close();
+        assertEquals(sizes.length, i);
+    }
+
+    // a reader pausing once at the given position
+    private static class DelayedReader extends FilterReader {
+        private int position;
+        private final int pause;
+        private final long millis;
+
+        DelayedReader(Reader in, int pause, long millis) {
+            super(in);
+            this.pause = pause;
+            this.millis = millis;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (position < pause) {
+                len = Math.min(len, pause - position);
+            } else if (position == pause) {
+                try {
+                    Thread.sleep(millis);
+                } catch (InterruptedException e) {
+                    throw new IOException(e.toString());
+                }
+            }
+            int n = super.read(cbuf, off, len);
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+    }
+}
@@ -60,6 +60,54 @@ public class XMLTokenIteratorInvalidXMLTest extends Assert {
         invokeAndVerify(tokenizer, true);
     }
 
+    @Test
+    public void testInvalidPrologFailsInConstructor() throws Exception {
+        String[] docs = {
+            "text<Statements/>", 
+            "<?xml version='1.0'?><!-- a -- b --><Statements/>", 
+            "<Statements x='1' x='2'><statement/></Statements>",
+            "<p:Statements><statement/></p:Statements>",
+            "<Statements"
+        };
+        for (String doc : docs) {
+            try {
+                new XMLTokenIterator("//statement", NSMAP, 'i', new StringReader(doc));
+                fail("XMLStreamException expected for " + doc);
+            } catch (XMLStreamException e) {
+                // expected
+            }
+            try {
+                new XMLTokenIterator("//statement", NSMAP, 'i', 1, 
+                                     new ByteArrayInputStream(doc.getBytes("utf-8")), "utf-8", true);
+                fail("XMLStreamException expected for " + doc);
+            } catch (XMLStreamException e) {
+                // expected
+            }
+            XMLTokenIterator tokenizer = new XMLTokenIterator("//statement", NSMAP, 'i', 
+                                                              new StringReader("<Statements/>"));
+            try {
+                tokenizer.reset(new StringReader(doc));
+                fail("XMLStreamException expected for " + doc);
+            } catch (XMLStreamException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidContentFailsInHasNext() throws Exception {
+        // the content after the root start tag is read when the tokens are fetched
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//statement", NSMAP, 'i', 
+                                                          new StringReader("<Statements><statement></Statements>"));
+        try {
+            tokenizer.hasNext();
+            fail("RuntimeException expected");
+        } catch (RuntimeException e) {
+            assertTrue(e.getCause() instanceof XMLStreamException);
+        }
+        tokenizer.close();
+    }
+
     private void invokeAndVerify(XMLTokenIterator tokenizer, boolean error) throws IOException, XMLStreamException {
         Exception exp = null;
         try {
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class XMLTokenIteratorMappedTest extends Assert {
+    private static final String DATA = 
+        "<?xml version='1.0'?>\n"
+        + "<g:A xmlns:g='urn:g'>"
+        + "<c:B attr='1' xmlns:c='urn:c'>"
+        + "<c:C attr='1'>peach &amp; p\u00e9ar</c:C>"
+        + "<c:C attr='2'/>"
+        + "<c:C attr='3'><c:D>or\u00e4nge</c:D><![CDATA[<lime>]]></c:C>"
+        + "</c:B>"
+        + "<c:B attr='2' xmlns:c='urn:c'>"
+        + "<c:C attr='4'>m\u00e4ngo</c:C>"
+        + "<c:C attr='5'></c:C>"
+        + "</c:B>"
+        + "</g:A>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Map<String, String> nsmap;
+    private int files;
+
+    @Before
+    public void setup() {
+        nsmap = new HashMap<String, String>();
+        nsmap.put("G", "urn:g");
+        nsmap.put("C", "urn:c");
+    }
+
+    @Test
+    public void testExtractMapped() throws Exception {
+        for (char mode : new char[]{'i', 'w', 'u', 't'}) {
+            invokeAndVerify("//C:C", mode, 1, "utf-8");
+            invokeAndVerify("//C:C", mode, 2, "utf-8");
+        }
+    }
+
+    @Test
+    public void testExtractMappedISOLatin() throws Exception {
+        for (char mode : new char[]{'i', 'w', 'u', 't'}) {
+            invokeAndVerify("//C:C", mode, 1, "iso-8859-1");
+        }
+    }
+
+    @Test
+    public void testExtractMappedSupplementary() throws Exception {
+        File file = write("<A><B>\ud83c\udf4e</B><B>pear</B></A>", "utf-8");
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        XMLTokenIterator tokenizer = new XMLTokenIterator(XMLTokenPath.compile("/A/B", null), 'i', 1, 
+                                                          raf.getChannel(), "utf-8", false);
+        assertEquals("<B>\ud83c\udf4e</B>", tokenizer.next());
+        assertEquals("<B>pear</B>", tokenizer.next());
+        assertFalse(tokenizer.hasNext());
+        tokenizer.close();
+        raf.close();
+    }
+
+    @Test
+    public void testUnsupportedCharset() throws Exception {
+        File file = write(DATA, "utf-16");
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            new XMLTokenIterator(XMLTokenPath.compile("//C:C", nsmap), 'i', 1, raf.getChannel(), "utf-16", false);
+            fail("UnsupportedEncodingException expected");
+        } catch (UnsupportedEncodingException e) {
+            // expected
+        } finally {
+            raf.close();
+        }
+    }
+
+    private void invokeAndVerify(String path, char mode, int group, String charset) throws Exception {
+        File file = write(DATA.replace("?>", " encoding='" + charset + "'?>"), charset);
+        for (boolean binary : new boolean[]{false, true}) {
+            List<String> expected = new ArrayList<String>();
+            XMLTokenIterator tokenizer = new XMLTokenIterator(path, nsmap, mode, group, 
+                new ByteArrayInputStream(DATA.replace("?>", " encoding='" + charset + "'?>").getBytes(charset)), 
+                charset, binary);
+            while (tokenizer.hasNext()) {
+                Object token = tokenizer.next();
+                expected.add(binary ? new String((byte[])token, charset) : (String)token);
+            }
+            tokenizer.close();
+
+            List<String> results = new ArrayList<String>();
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            tokenizer = new XMLTokenIterator(XMLTokenPath.compile(path, nsmap), mode, group, raf.getChannel(), 
+                                             charset, binary);
+            while (tokenizer.hasNext()) {
+                Object token = tokenizer.next();
+                results.add(binary ? new String((byte[])token, charset) : (String)token);
+            }
+            tokenizer.close();
+            raf.close();
+
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, results);
+        }
+    }
+
+    private File write(String data, String charset) throws Exception {
+        File file = folder.newFile("data" + (files++) + ".xml");
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(data.getBytes(charset));
+        out.close();
+        return file;
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class XMLTokenIteratorMultiPathTest extends Assert {
+    private static final byte[] DATA = (
+        "<?xml version='1.0' encoding='UTF-8'?>"
+        + "<g:greatgrandparent xmlns:g='urn:g'><grandparent><uncle/><aunt>emma</aunt>"
+        + "<c:parent some_attr='1' xmlns:c='urn:c' xmlns:d=\"urn:d\">"
+        + "<c:child some_attr='a' anotherAttr='a'></c:child>"
+        + "<c:child some_attr='b' anotherAttr='b'/>"
+        + "</c:parent>"
+        + "<c:parent some_attr='2' xmlns:c='urn:c' xmlns:d=\"urn:d\">"
+        + "<c:child some_attr='c' anotherAttr='c'>"
+        + "<d:note xmlns:d='urn:d'>first</d:note>"
+        + "</c:child>"
+        + "<c:child some_attr='d' anotherAttr='d'/>"
+        + "</c:parent>"
+        + "</grandparent>"
+        + "<grandparent><uncle>ben</uncle><aunt/>"
+        + "<c:parent some_attr='3' xmlns:c='urn:c' xmlns:d=\"urn:d\">"
+        + "<c:child some_attr='e' anotherAttr='e'></c:child>"
+        + "<c:child some_attr='f' anotherAttr='f'/>"
+        + "</c:parent>"
+        + "</grandparent>"
+        + "</g:greatgrandparent>").getBytes();
+
+    private Map<String, String> nsmap;
+
+    @Before
+    public void setup() {
+        nsmap = new HashMap<String, String>();
+        nsmap.put("G", "urn:g");
+        nsmap.put("C", "urn:c");
+        nsmap.put("D", "urn:d");
+    }
+
+    @Test
+    public void testExtractMixedModes() throws Exception {
+        invokeAndVerify(new String[]{"//C:child", "//aunt", "//uncle"}, new char[]{'i', 'u', 't'});
+        invokeAndVerify(new String[]{"//grandparent/uncle", "/G:greatgrandparent//D:note", "//aunt"}, 
+                        new char[]{'t', 'i', 'u'});
+    }
+
+    @Test
+    public void testExtractWrappedWithOtherModes() throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator(new String[]{"//C:child", "//aunt"}, nsmap, new char[]{'w', 'u'},
+                                                          new ByteArrayInputStream(DATA), "utf-8");
+        List<String> results = new ArrayList<String>();
+        while (tokenizer.hasNext()) {
+            results.add((String)tokenizer.next());
+        }
+        ((Closeable)tokenizer).close();
+
+        assertEquals(8, results.size());
+        assertEquals("emma", results.get(0));
+        // the preceding token extracted for the other path is not part of the wrapping context
+        assertEquals("<?xml version='1.0' encoding='UTF-8'?>"
+                     + "<g:greatgrandparent xmlns:g='urn:g'><grandparent><uncle/>"
+                     + "<c:parent some_attr='1' xmlns:c='urn:c' xmlns:d=\"urn:d\">"
+                     + "<c:child some_attr='a' anotherAttr='a'></c:child>"
+                     + "</c:parent></grandparent></g:greatgrandparent>", results.get(1));
+    }
+
+    @Test
+    public void testExtractInDocumentOrder() throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator(new String[]{"//aunt", "//uncle"}, nsmap, new char[]{'u', 'u'},
+                                                          new ByteArrayInputStream(DATA), "utf-8");
+        List<String> results = new ArrayList<String>();
+        while (tokenizer.hasNext()) {
+            String token = (String)tokenizer.next();
+            results.add(tokenizer.getTokenPath() + "=" + token);
+        }
+        ((Closeable)tokenizer).close();
+
+        String[] expected = {"//uncle=", "//aunt=emma", "//uncle=ben", "//aunt="};
+        assertEquals(expected.length, results.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("mismatch [" + i + "]", expected[i], results.get(i));
+        }
+    }
+
+    @Test
+    public void testExtractOverlappingPaths() throws Exception {
+        // the children are contained in the parents and are not extracted separately
+        XMLTokenIterator tokenizer = new XMLTokenIterator(new String[]{"//C:child", "//C:parent"}, nsmap, 
+                                                          new char[]{'i', 'i'}, new ByteArrayInputStream(DATA), "utf-8");
+        List<String> results = new ArrayList<String>();
+        while (tokenizer.hasNext()) {
+            tokenizer.next();
+            results.add(tokenizer.getTokenPath());
+        }
+        ((Closeable)tokenizer).close();
+
+        assertEquals(3, results.size());
+        for (String path : results) {
+            assertEquals("//C:parent", path);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingMode() throws Exception {
+        new XMLTokenIterator(new String[]{"//C:child", "//aunt"}, nsmap, new char[]{'w'}, new ByteArrayInputStream(DATA), "utf-8");
+    }
+
+    private void invokeAndVerify(String[] paths, char[] modes) throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator(paths, nsmap, modes, new ByteArrayInputStream(DATA), "utf-8");
+        Map<String, List<String>> results = new HashMap<String, List<String>>();
+        for (String path : paths) {
+            results.put(path, new ArrayList<String>());
+        }
+        while (tokenizer.hasNext()) {
+            String token = (String)tokenizer.next();
+            results.get(tokenizer.getTokenPath()).add(token);
+        }
+        ((Closeable)tokenizer).close();
+
+        // each path must yield the same tokens as a separate pass using a single path
+        for (int i = 0; i < paths.length; i++) {
+            XMLTokenIterator single = new XMLTokenIterator(paths[i], nsmap, modes[i], new ByteArrayInputStream(DATA), "utf-8");
+            List<String> expected = new ArrayList<String>();
+            while (single.hasNext()) {
+                expected.add((String)single.next());
+            }
+            ((Closeable)single).close();
+            assertFalse(expected.isEmpty());
+            assertEquals("path " + paths[i], expected, results.get(paths[i]));
+        }
+    }
+}
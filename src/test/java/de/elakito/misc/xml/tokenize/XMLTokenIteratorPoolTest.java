@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class XMLTokenIteratorPoolTest extends Assert {
+    private static final String DATA =
+        "<?xml version='1.0' encoding='UTF-8'?>"
+        + "<g:A xmlns:g='urn:g'>"
+        + "<c:B attr='1' xmlns:c='urn:c'>"
+        + "<c:C attr='1'>peach</c:C>"
+        + "<c:C attr='2'/>"
+        + "</c:B>"
+        + "</g:A>";
+
+    private XMLTokenPath path;
+
+    @Before
+    public void setUp() throws Exception {
+        Map<String, String> nsmap = new HashMap<String, String>();
+        nsmap.put("C", "urn:c");
+        path = XMLTokenPath.compile("//C:C", nsmap);
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        XMLTokenIteratorPool pool = new XMLTokenIteratorPool(path, 'u', 1, "utf-8", false);
+        XMLTokenIterator tokenizer = pool.acquire(new StringReader(DATA));
+        assertEquals("peach", tokenizer.next());
+        pool.release(tokenizer);
+
+        XMLTokenIterator reused = pool.acquire(new ByteArrayInputStream(DATA.getBytes("utf-8")));
+        assertSame(tokenizer, reused);
+        assertEquals("peach", reused.next());
+        assertEquals("", reused.next());
+        assertFalse(reused.hasNext());
+
+        // an iterator in use is not handed out again
+        XMLTokenIterator another = pool.acquire(new StringReader(DATA));
+        assertNotSame(reused, another);
+        pool.release(reused);
+        pool.release(another);
+    }
+
+    @Test
+    public void testReuseBinary() throws Exception {
+        XMLTokenIteratorPool pool = new XMLTokenIteratorPool(path, 'u', 1, "utf-8", true);
+        for (int i = 0; i < 3; i++) {
+            XMLTokenIterator tokenizer = pool.acquire(new ByteArrayInputStream(DATA.getBytes("utf-8")));
+            assertEquals("peach", new String((byte[])tokenizer.next(), "utf-8"));
+            pool.release(tokenizer);
+        }
+        try {
+            pool.acquire(new StringReader(DATA));
+            fail("reader must be rejected in the binary mode");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPerThread() throws Exception {
+        final XMLTokenIteratorPool pool = new XMLTokenIteratorPool(path, 'u', 1, "utf-8", false);
+        XMLTokenIterator tokenizer = pool.acquire(new StringReader(DATA));
+        pool.release(tokenizer);
+
+        final XMLTokenIterator[] others = new XMLTokenIterator[1];
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    others[0] = pool.acquire(new StringReader(DATA));
+                } catch (Exception e) {
+                    // checked below
+                }
+            }
+        });
+        t.start();
+        t.join();
+        assertNotNull(others[0]);
+        assertNotSame(tokenizer, others[0]);
+        assertSame(tokenizer, pool.acquire(new StringReader(DATA)));
+    }
+
+    @Test
+    public void testCapacity() throws Exception {
+        XMLTokenIteratorPool pool = new XMLTokenIteratorPool(path, 'u', 1, "utf-8", false, 1);
+        XMLTokenIterator first = pool.acquire(new StringReader(DATA));
+        XMLTokenIterator second = pool.acquire(new StringReader(DATA));
+        pool.release(first);
+        pool.release(second);
+        assertSame(first, pool.acquire(new StringReader(DATA)));
+        assertNotSame(second, pool.acquire(new StringReader(DATA)));
+    }
+
+    @Test
+    public void testReleaseForeign() throws Exception {
+        XMLTokenIteratorPool pool = new XMLTokenIteratorPool(path, 'u', 1, "utf-8", false);
+        XMLTokenIterator tokenizer = new XMLTokenIterator(path, 'u', 1, new StringReader(DATA));
+        try {
+            pool.release(tokenizer);
+            fail("iterator not acquired from the pool must be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        tokenizer.close();
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class XMLTokenIteratorResetTest extends Assert {
+    private static final String[] DOCUMENTS = {
+        "<?xml version='1.0' encoding='UTF-8'?>"
+        + "<g:A xmlns:g='urn:g'>"
+        + "<c:B attr='1' xmlns:c='urn:c'>"
+        + "<c:C attr='1'>peach</c:C>"
+        + "<c:C attr='2'/>"
+        + "</c:B>"
+        + "</g:A>",
+        "<g:A xmlns:g='urn:g' xmlns:c='urn:c'>"
+        + "<c:B attr='2'><x/>"
+        + "<c:C attr='3'>orange</c:C>"
+        + "</c:B>"
+        + "<c:B attr='3'>"
+        + "<c:C attr='4'>caf\u00e9</c:C>"
+        + "<c:C attr='5'/>"
+        + "<c:C attr='6'>lemon</c:C>"
+        + "</c:B>"
+        + "</g:A>",
+        "<?xml version='1.0'?>"
+        + "<!DOCTYPE g:A [<!ENTITY fruit 'plum'>]>"
+        + "<g:A xmlns:g='urn:g'>"
+        + "<c:B xmlns:c='urn:c'>"
+        + "<c:C attr='7'>&fruit;</c:C>"
+        + "</c:B>"
+        + "</g:A>",
+        "<A><B><C>no namespace</C></B></A>"
+    };
+
+    private Map<String, String> nsmap;
+    private XMLTokenPath path;
+
+    @Before
+    public void setUp() throws Exception {
+        nsmap = new HashMap<String, String>();
+        nsmap.put("C", "urn:c");
+        path = XMLTokenPath.compile("//C:C", nsmap);
+    }
+
+    @Test
+    public void testResetInjected() throws Exception {
+        invokeAndVerify('i', 1);
+    }
+
+    @Test
+    public void testResetWrapped() throws Exception {
+        invokeAndVerify('w', 1);
+    }
+
+    @Test
+    public void testResetUnwrapped() throws Exception {
+        invokeAndVerify('u', 1);
+    }
+
+    @Test
+    public void testResetText() throws Exception {
+        invokeAndVerify('t', 1);
+    }
+
+    @Test
+    public void testResetGrouped() throws Exception {
+        invokeAndVerify('i', 2);
+        invokeAndVerify('w', 2);
+    }
+
+    @Test
+    public void testResetInputStream() throws Exception {
+        XMLTokenIterator tokenizer = null;
+        for (String doc : DOCUMENTS) {
+            ByteArrayInputStream in = new ByteArrayInputStream(doc.getBytes("utf-8"));
+            if (tokenizer == null) {
+                tokenizer = new XMLTokenIterator(path, 'i', 1, in, "utf-8", false);
+            } else {
+                tokenizer.reset(in);
+            }
+            assertEquals(tokenize(doc, 'i', 1), collect(tokenizer));
+        }
+        tokenizer.close();
+    }
+
+    @Test
+    public void testResetBinary() throws Exception {
+        XMLTokenIterator tokenizer = null;
+        for (String doc : DOCUMENTS) {
+            ByteArrayInputStream in = new ByteArrayInputStream(doc.getBytes("utf-8"));
+            if (tokenizer == null) {
+                tokenizer = new XMLTokenIterator(path, 'i', 1, in, "utf-8", true);
+            } else {
+                tokenizer.reset(in);
+            }
+            List<String> results = new ArrayList<String>();
+            while (tokenizer.hasNext()) {
+                results.add(new String((byte[])tokenizer.next(), "utf-8"));
+            }
+            assertEquals(tokenize(doc, 'i', 1), results);
+        }
+        try {
+            tokenizer.reset(new StringReader(DOCUMENTS[0]));
+            fail("reset with a reader must be rejected in the binary mode");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        tokenizer.close();
+    }
+
+    @Test
+    public void testResetPartiallyRead() throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator(path, 'w', 1, new StringReader(DOCUMENTS[1]));
+        tokenizer.setSpillThreshold(16, null);
+        assertNotNull(tokenizer.next());
+        tokenizer.reset(new StringReader(DOCUMENTS[0]));
+        List<String> results = new ArrayList<String>();
+        while (tokenizer.hasNext()) {
+            results.add(toString(tokenizer.next()));
+        }
+        tokenizer.close();
+        assertEquals(tokenize(DOCUMENTS[0], 'w', 1), results);
+    }
+
+    @Test
+    public void testResetInputStreamForReader() throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator(path, 'i', 1, new StringReader(DOCUMENTS[0]));
+        try {
+            tokenizer.reset(new ByteArrayInputStream(DOCUMENTS[0].getBytes("utf-8")));
+            fail("reset with an input stream must be rejected for the reader input");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        tokenizer.close();
+    }
+
+    private void invokeAndVerify(char mode, int group) throws Exception {
+        XMLTokenIterator tokenizer = null;
+        // run twice to reset the iterator after the fallback to the stax stream reader
+        List<String> docs = new ArrayList<String>(Arrays.asList(DOCUMENTS));
+        docs.addAll(Arrays.asList(DOCUMENTS));
+        for (String doc : docs) {
+            if (tokenizer == null) {
+                tokenizer = new XMLTokenIterator(path, mode, group, new StringReader(doc));
+            } else {
+                tokenizer.reset(new StringReader(doc));
+            }
+            assertEquals(tokenize(doc, mode, group), collect(tokenizer));
+        }
+        tokenizer.close();
+    }
+
+    private List<String> tokenize(String doc, char mode, int group) throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator(path, mode, group, new StringReader(doc));
+        List<String> results = collect(tokenizer);
+        tokenizer.close();
+        return results;
+    }
+
+    private static String toString(Object token) throws Exception {
+        if (token instanceof Reader) {
+            StringBuilder sb = new StringBuilder();
+            Reader r = (Reader)token;
+            int c;
+            while ((c = r.read()) >= 0) {
+                sb.append((char)c);
+            }
+            r.close();
+            return sb.toString();
+        }
+        return (String)token;
+    }
+
+    private static List<String> collect(XMLTokenIterator tokenizer) {
+        List<String> results = new ArrayList<String>();
+        while (tokenizer.hasNext()) {
+            results.add((String)tokenizer.next());
+        }
+        return results;
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class XMLTokenIteratorSinkTest extends Assert {
+    private static final String DATA = 
+        "<?xml version='1.0' encoding='UTF-8'?>"
+        + "<g:A xmlns:g='urn:g'>"
+        + "<c:B attr='1' xmlns:c='urn:c'>"
+        + "<c:C attr='1'>peach &amp; pear</c:C>"
+        + "<c:C attr='2'/>"
+        + "<c:C attr='3'><c:D>orange</c:D><![CDATA[<lime>]]></c:C>"
+        + "</c:B>"
+        + "<c:B attr='2' xmlns:c='urn:c'>"
+        + "<c:C attr='4'>m\u00e4ngo</c:C>"
+        + "<c:C attr='5'></c:C>"
+        + "</c:B>"
+        + "</g:A>";
+
+    private Map<String, String> nsmap;
+
+    @Before
+    public void setup() {
+        nsmap = new HashMap<String, String>();
+        nsmap.put("G", "urn:g");
+        nsmap.put("C", "urn:c");
+    }
+
+    @Test
+    public void testPushInjected() throws Exception {
+        invokeAndVerify("//C:C", 'i', 1, DATA);
+    }
+
+    @Test
+    public void testPushWrapped() throws Exception {
+        invokeAndVerify("//C:C", 'w', 1, DATA);
+    }
+
+    @Test
+    public void testPushUnwrapped() throws Exception {
+        invokeAndVerify("//C:C", 'u', 1, DATA);
+    }
+
+    @Test
+    public void testPushText() throws Exception {
+        invokeAndVerify("//C:B", 't', 1, DATA);
+    }
+
+    @Test
+    public void testPushGrouped() throws Exception {
+        invokeAndVerify("//C:C", 'i', 2, DATA);
+        invokeAndVerify("//C:C", 'w', 2, DATA);
+    }
+
+    @Test
+    public void testPushLargeToken() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<g:A xmlns:g='urn:g'><c:B xmlns:c='urn:c'>");
+        for (int i = 0; i < 3; i++) {
+            sb.append("<c:C attr='").append(i).append("'>");
+            for (int j = 0; j < 2000; j++) {
+                sb.append("<c:D>value ").append(j).append("</c:D>");
+            }
+            sb.append("</c:C>");
+        }
+        sb.append("</c:B></g:A>");
+        final String data = sb.toString();
+        invokeAndVerify("//C:C", 'i', 1, data);
+        invokeAndVerify("//C:C", 'w', 1, data);
+        invokeAndVerify("//C:C", 'u', 1, data);
+        invokeAndVerify("//C:C", 't', 1, data);
+    }
+
+    @Test
+    public void testPushPaths() throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator(new String[]{"//C:C", "/G:A/C:B"}, nsmap,
+                                                          new char[]{'u', 'u'}, 
+                                                          new ByteArrayInputStream(DATA.getBytes("utf-8")), "utf-8");
+        CollectingSink sink = new CollectingSink();
+        tokenizer.tokenize(sink);
+        ((Closeable)tokenizer).close();
+        assertEquals(2, sink.paths.size());
+        assertEquals("/G:A/C:B", sink.paths.get(0));
+        assertEquals("/G:A/C:B", sink.paths.get(1));
+    }
+
+    private void invokeAndVerify(String path, char mode, int group, String data) throws Exception {
+        for (boolean binary : new boolean[]{false, true}) {
+            List<String> expected = new ArrayList<String>();
+            XMLTokenIterator tokenizer = new XMLTokenIterator(path, nsmap, mode, group, 
+                                                              new ByteArrayInputStream(data.getBytes("utf-8")), "utf-8", binary);
+            while (tokenizer.hasNext()) {
+                Object token = tokenizer.next();
+                expected.add(binary ? new String((byte[])token, "utf-8") : (String)token);
+            }
+            ((Closeable)tokenizer).close();
+
+            tokenizer = new XMLTokenIterator(path, nsmap, mode, group, 
+                                             new ByteArrayInputStream(data.getBytes("utf-8")), "utf-8", binary);
+            CollectingSink sink = new CollectingSink();
+            tokenizer.tokenize(sink);
+            ((Closeable)tokenizer).close();
+
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, sink.tokens);
+            assertEquals(binary, sink.binary);
+        }
+    }
+
+    private static class CollectingSink implements TokenSink {
+        private List<String> paths = new ArrayList<String>();
+        private List<String> tokens = new ArrayList<String>();
+        private StringBuilder chars;
+        private ByteArrayOutputStream bytes;
+        private boolean binary;
+
+        @Override
+        public void startToken(String path) throws IOException {
+            assertNull(chars);
+            paths.add(path);
+            chars = new StringBuilder();
+            bytes = new ByteArrayOutputStream();
+        }
+
+        @Override
+        public void chars(char[] buf, int off, int len) throws IOException {
+            assertTrue(len > 0);
+            chars.append(buf, off, len);
+        }
+
+        @Override
+        public void bytes(byte[] buf, int off, int len) throws IOException {
+            assertTrue(len > 0);
+            binary = true;
+            bytes.write(buf, off, len);
+        }
+
+        @Override
+        public void endToken() throws IOException {
+            assertTrue(chars.length() == 0 || bytes.size() == 0);
+            tokens.add(bytes.size() > 0 ? new String(bytes.toByteArray(), "utf-8") : chars.toString());
+            chars = null;
+        }
+    }
+}
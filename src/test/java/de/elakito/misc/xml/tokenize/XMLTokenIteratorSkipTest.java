@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class XMLTokenIteratorSkipTest extends Assert {
+    private static final String DATA;
+
+    static {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version='1.0' encoding='utf-8'?>\n<A>");
+        for (int i = 0; i < 3; i++) {
+            sb.append("<S n='").append(i).append("'>");
+            for (int j = 0; j < 500; j++) {
+                sb.append("<R><C>skipped p\u00e9ach ").append(j).append("</C><!-- note --><![CDATA[<C/>]]><E/></R>");
+            }
+            sb.append("</S>\n<B><C>pe\u00e4r ").append(i).append("</C></B>");
+        }
+        sb.append("</A>");
+        DATA = sb.toString();
+    }
+
+    private static final String[] RESULTS_INJECTED = {
+        "<C>pe\u00e4r 0</C>", "<C>pe\u00e4r 1</C>", "<C>pe\u00e4r 2</C>"
+    };
+
+    private static final String[] RESULTS_UNWRAPPED = {
+        "pe\u00e4r 0", "pe\u00e4r 1", "pe\u00e4r 2"
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSkipInjected() throws Exception {
+        for (String input : new String[]{"reader", "stream", "mapped"}) {
+            assertEquals(input, Arrays.asList(RESULTS_INJECTED), invoke("/A/B/C", 'i', input));
+        }
+    }
+
+    @Test
+    public void testSkipUnwrapped() throws Exception {
+        for (char mode : new char[]{'u', 't'}) {
+            for (String input : new String[]{"reader", "stream", "mapped"}) {
+                assertEquals(input, Arrays.asList(RESULTS_UNWRAPPED), invoke("/A/B/C", mode, input));
+            }
+        }
+    }
+
+    @Test
+    public void testSkipWrapped() throws Exception {
+        // the skipped text is kept in the segments of the wrapped tokens
+        List<String> expected = invoke("/A/B/C", 'w', "reader");
+        assertEquals(3, expected.size());
+        for (String token : expected) {
+            assertTrue(token.contains("<A><S n='0'>"));
+        }
+        assertEquals(expected, invoke("/A/B/C", 'w', "stream"));
+        assertEquals(expected, invoke("/A/B/C", 'w', "mapped"));
+    }
+
+    @Test
+    public void testSkipLargeTextAndDeepRun() throws Exception {
+        // the skipped subtree has a text node and a run of start tags both larger than the discard size
+        StringBuilder sb = new StringBuilder("<A><S>");
+        for (int i = 0; i < 20000; i++) {
+            sb.append("t\u00e9xt ");
+        }
+        for (int i = 0; i < 500; i++) {
+            sb.append("<R n='").append(i).append("' note='within the run of start tags'>");
+        }
+        for (int i = 0; i < 500; i++) {
+            sb.append("</R>");
+        }
+        sb.append("</S><B><C>pe\u00e4r 0</C></B></A>");
+        for (char mode : new char[]{'i', 't'}) {
+            for (String input : new String[]{"reader", "stream", "mapped"}) {
+                assertEquals(input, Arrays.asList(mode == 'i' ? "<C>pe\u00e4r 0</C>" : "pe\u00e4r 0"), 
+                             invoke("/A/B/C", mode, input, sb.toString()));
+            }
+        }
+    }
+
+    private List<String> invoke(String path, char mode, String input) throws Exception {
+        return invoke(path, mode, input, DATA);
+    }
+
+    private List<String> invoke(String path, char mode, String input, String data) throws Exception {
+        XMLTokenIterator tokenizer;
+        RandomAccessFile raf = null;
+        if ("reader".equals(input)) {
+            tokenizer = new XMLTokenIterator(path, null, mode, 1, new StringReader(data));
+        } else if ("stream".equals(input)) {
+            tokenizer = new XMLTokenIterator(path, null, mode, 1, 
+                                             new ByteArrayInputStream(data.getBytes("utf-8")), "utf-8", true);
+        } else {
+            File file = folder.newFile(path.replace("/", "_") + mode + data.length() + ".xml");
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(data.getBytes("utf-8"));
+            out.close();
+            raf = new RandomAccessFile(file, "r");
+            tokenizer = new XMLTokenIterator(XMLTokenPath.compile(path, null), mode, 1, raf.getChannel(), "utf-8", true);
+        }
+        List<String> results = new ArrayList<String>();
+        while (tokenizer.hasNext()) {
+            Object token = tokenizer.next();
+            results.add(token instanceof byte[] ? new String((byte[])token, "utf-8") : token.toString());
+        }
+        tokenizer.close();
+        if (raf != null) {
+            raf.close();
+        }
+        return results;
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class XMLTokenIteratorSpillTest extends Assert {
+    private static final String DATA = 
+        "<?xml version='1.0' encoding='UTF-8'?>"
+        + "<g:A xmlns:g='urn:g'>"
+        + "<c:B attr='1' xmlns:c='urn:c'>"
+        + "<c:C attr='1'>peach</c:C>"
+        + "<c:C attr='2'/>"
+        + "<c:C attr='3'><c:D>orange and m\u00e4ngo</c:D><c:D>lime</c:D><c:D>apple</c:D></c:C>"
+        + "</c:B>"
+        + "<c:B attr='2' xmlns:c='urn:c'>"
+        + "<c:C attr='4'>melon</c:C>"
+        + "<c:C attr='5'></c:C>"
+        + "</c:B>"
+        + "</g:A>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Map<String, String> nsmap;
+
+    @Before
+    public void setup() {
+        nsmap = new HashMap<String, String>();
+        nsmap.put("G", "urn:g");
+        nsmap.put("C", "urn:c");
+    }
+
+    @Test
+    public void testInMemory() throws Exception {
+        for (char mode : new char[]{'i', 'w', 'u', 't'}) {
+            assertEquals(0, invokeAndVerify("//C:C", mode, 1, 1000));
+            assertEquals(0, invokeAndVerify("//C:C", mode, 2, 1000));
+        }
+    }
+
+    @Test
+    public void testSpilled() throws Exception {
+        for (char mode : new char[]{'i', 'w', 'u'}) {
+            assertTrue(invokeAndVerify("//C:C", mode, 1, 40) > 0);
+        }
+        assertTrue(invokeAndVerify("//C:C", 't', 1, 20) > 0);
+    }
+
+    @Test
+    public void testSpilledGrouped() throws Exception {
+        assertTrue(invokeAndVerify("//C:C", 'i', 2, 100) > 0);
+        assertTrue(invokeAndVerify("//C:C", 'w', 2, 100) > 0);
+    }
+
+    @Test
+    public void testSpilledSupplementary() throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 6000; i++) {
+            text.append("\uD834\uDD1E");
+        }
+        // shift the surrogate pairs against the chunks in which the chars are spilled
+        for (int pad = 0; pad < 40; pad++) {
+            StringBuilder padding = new StringBuilder();
+            for (int i = 0; i < pad; i++) {
+                padding.append('x');
+            }
+            String data = "<A><B>" + padding + text + "</B></A>";
+            for (char mode : new char[]{'i', 'u', 't'}) {
+                XMLTokenIterator tokenizer = new XMLTokenIterator("//B", nsmap, mode, 1, 
+                                                                  new ByteArrayInputStream(data.getBytes("utf-8")), "utf-8");
+                tokenizer.setSpillThreshold(100, folder.getRoot());
+                Object token = tokenizer.next();
+                assertTrue(token instanceof Reader);
+                String expected = mode == 'i' ? "<B>" + padding + text + "</B>" : padding.toString() + text;
+                assertEquals("mode " + mode + " with padding " + pad, expected, toString(token));
+                ((Closeable)tokenizer).close();
+            }
+        }
+    }
+
+    @Test
+    public void testDiscardedOnClose() throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//C:C", nsmap, 'i', 10, 
+                                                          new ByteArrayInputStream(DATA.getBytes("utf-8")), "utf-8");
+        tokenizer.setSpillThreshold(10, folder.getRoot());
+        Object token = tokenizer.next();
+        assertTrue(token instanceof Reader);
+        ((Reader)token).close();
+        ((Closeable)tokenizer).close();
+        assertEquals(0, folder.getRoot().list().length);
+    }
+
+    private int invokeAndVerify(String path, char mode, int group, int threshold) throws Exception {
+        int spilled = 0;
+        for (boolean binary : new boolean[]{false, true}) {
+            List<String> expected = new ArrayList<String>();
+            XMLTokenIterator tokenizer = new XMLTokenIterator(path, nsmap, mode, group, 
+                                                              new ByteArrayInputStream(DATA.getBytes("utf-8")), "utf-8", binary);
+            while (tokenizer.hasNext()) {
+                expected.add(toString(tokenizer.next()));
+            }
+            ((Closeable)tokenizer).close();
+
+            List<String> results = new ArrayList<String>();
+            tokenizer = new XMLTokenIterator(path, nsmap, mode, group, 
+                                             new ByteArrayInputStream(DATA.getBytes("utf-8")), "utf-8", binary);
+            tokenizer.setSpillThreshold(threshold, folder.getRoot());
+            int n = 0;
+            int expectedn = 0;
+            for (String token : expected) {
+                // the size is counted in chars or in bytes in the binary mode
+                if ((binary ? token.getBytes("utf-8").length : token.length()) > threshold) {
+                    expectedn++;
+                }
+            }
+            while (tokenizer.hasNext()) {
+                Object token = tokenizer.next();
+                if (token instanceof Reader || token instanceof InputStream) {
+                    assertEquals(binary, token instanceof InputStream);
+                    n++;
+                }
+                results.add(toString(token));
+            }
+            ((Closeable)tokenizer).close();
+
+            assertEquals(expected, results);
+            assertEquals(expectedn, n);
+            // the files are deleted when the spilled tokens are closed
+            assertEquals(0, folder.getRoot().list().length);
+            spilled += n;
+        }
+        return spilled;
+    }
+
+    private static String toString(Object token) throws Exception {
+        if (token instanceof String) {
+            return (String)token;
+        } else if (token instanceof byte[]) {
+            return new String((byte[])token, "utf-8");
+        } else if (token instanceof Reader) {
+            Reader r = (Reader)token;
+            StringBuilder sb = new StringBuilder();
+            char[] buf = new char[16];
+            int n;
+            while ((n = r.read(buf)) > 0) {
+                sb.append(buf, 0, n);
+            }
+            r.close();
+            return sb.toString();
+        } else {
+            InputStream in = (InputStream)token;
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[16];
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                out.write(buf, 0, n);
+            }
+            in.close();
+            return new String(out.toByteArray(), "utf-8");
+        }
+    }
+}
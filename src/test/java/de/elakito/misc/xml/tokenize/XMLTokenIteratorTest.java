@@ -395,6 +395,38 @@ public class XMLTokenIteratorTest extends Assert {
                nsmap, 'w', new ByteArrayInputStream(DATA), "utf-8", RESULTS_CHILD_WRAPPED);
     }
     
+    @Test
+    public void testExtractChildWithAncestorsDescendants() throws Exception {
+        invokeAndVerify("//G:greatgrandparent//grandparent//*:parent//C:c*d", 
+               nsmap, 'w', new ByteArrayInputStream(DATA), "utf-8", RESULTS_CHILD_WRAPPED);
+    }
+
+    @Test
+    public void testExtractChildWithAncestorsDescendantsInjected() throws Exception {
+        invokeAndVerify("/*:greatgrandparent//C:parent//C:child", 
+               nsmap, 'i', new ByteArrayInputStream(DATA), "utf-8", RESULTS_CHILD, RESULTS_CHILD_VAR2);
+    }
+
+    @Test
+    public void testExtractChildOfDifferentParents() throws Exception {
+        invokeAndVerify("//C:child", 
+               nsmap, 'w', new ByteArrayInputStream(
+                   "<c:a xmlns:c='urn:c'><c:b1><c:child/></c:b1><c:b2><c:child/></c:b2></c:a>".getBytes()), "utf-8", 
+               new String[]{"<c:a xmlns:c='urn:c'><c:b1><c:child/></c:b1></c:a>", 
+                            "<c:a xmlns:c='urn:c'><c:b2><c:child/></c:b2></c:a>"});
+    }
+
+    @Test
+    public void testExtractInjectedWithSpecialStartTag() throws Exception {
+        // a prefix with non-word chars and an attribute value containing '>'
+        invokeAndVerify("//C:c*", 
+               nsmap, 'i', new ByteArrayInputStream(
+                   ("<g:a xmlns:g='urn:g'><my-c.x:child xmlns:my-c.x='urn:c' attr='x>y'/>"
+                    + "<c:child xmlns:c = \"urn:c\" xmlnsfoo='z'>text</c:child></g:a>").getBytes()), "utf-8", 
+               new String[]{"<my-c.x:child xmlns:my-c.x='urn:c' attr='x>y' xmlns:g='urn:g'/>", 
+                            "<c:child xmlns:c = \"urn:c\" xmlnsfoo='z' xmlns:g=\"urn:g\">text</c:child>"});
+    }
+
     @Test
     public void testExtractParent() throws Exception {
         invokeAndVerify("//C:parent", 
@@ -443,6 +475,15 @@ public class XMLTokenIteratorTest extends Assert {
                nsmap, 't', new ByteArrayInputStream(DATA), "utf-8", RESULTS_GRANDPARENT_TEXT);
     }
 
+    @Test
+    public void testExtractTextDecoded() throws Exception {
+        invokeAndVerify("//C:child", 
+               nsmap, 't', new ByteArrayInputStream(
+                   ("<c:parent xmlns:c='urn:c'><c:child>a &amp; b<!-- comment --><c:sub>&lt;c&gt;</c:sub>"
+                    + "<![CDATA[<d>]]></c:child><c:child/><c:child> e </c:child></c:parent>").getBytes()), "utf-8", 
+               new String[]{"a & b<c><d>", "", " e "});
+    }
+
     private static void invokeAndVerify(String path, Map<String, String> nsmap, char mode,
             InputStream in, String charset, String[] expected) throws Exception {
         invokeAndVerify(path, nsmap, mode, in, charset, expected, null);
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class XMLTokenIteratorViewTest extends Assert {
+    private static final byte[] DATA = (
+        "<?xml version='1.0' encoding='UTF-8'?>"
+        + "<g:A xmlns:g='urn:g'>"
+        + "<c:B attr='1' xmlns:c='urn:c'>"
+        + "<c:C attr='1'>peach</c:C>"
+        + "<c:C attr='2'/>"
+        + "<c:C attr='3'>orange</c:C>"
+        + "</c:B>"
+        + "<c:B attr='2' xmlns:c='urn:c'>"
+        + "<c:C attr='4'>mango</c:C>"
+        + "<c:C attr='5'/>"
+        + "</c:B>"
+        + "</g:A>").getBytes();
+
+    private Map<String, String> nsmap;
+
+    @Before
+    public void setup() {
+        nsmap = new HashMap<String, String>();
+        nsmap.put("G", "urn:g");
+        nsmap.put("C", "urn:c");
+    }
+
+    @Test
+    public void testExtractInjected() throws Exception {
+        invokeAndVerify("//C:C", 'i', 1);
+    }
+
+    @Test
+    public void testExtractWrapped() throws Exception {
+        invokeAndVerify("//C:C", 'w', 1);
+    }
+
+    @Test
+    public void testExtractUnwrapped() throws Exception {
+        invokeAndVerify("//C:C", 'u', 1);
+    }
+
+    @Test
+    public void testExtractText() throws Exception {
+        invokeAndVerify("//C:B", 't', 1);
+    }
+
+    @Test
+    public void testExtractInjectedGrouped() throws Exception {
+        invokeAndVerify("//C:C", 'i', 2);
+    }
+
+    @Test
+    public void testExtractWrappedGrouped() throws Exception {
+        invokeAndVerify("//C:C", 'w', 2);
+    }
+
+    @Test
+    public void testViewRejectedInBinaryMode() throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator("//C:C", nsmap, 'i', 1,
+                                                          new ByteArrayInputStream(DATA), "utf-8", true);
+        try {
+            tokenizer.setTokenView(true);
+            fail("IllegalStateException expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        ((Closeable)tokenizer).close();
+    }
+
+    private void invokeAndVerify(String path, char mode, int group) throws Exception {
+        List<String> expected = tokenize(path, mode, group, false);
+        List<String> results = tokenize(path, mode, group, true);
+
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, results);
+    }
+
+    private List<String> tokenize(String path, char mode, int group, boolean view) throws Exception {
+        XMLTokenIterator tokenizer = new XMLTokenIterator(path, nsmap, mode, group, new ByteArrayInputStream(DATA), "utf-8");
+        tokenizer.setTokenView(view);
+
+        List<String> results = new ArrayList<String>();
+        while (tokenizer.hasNext()) {
+            Object token = tokenizer.next();
+            assertEquals(view, !(token instanceof String));
+            // the view is only valid until the next token is requested
+            results.add(token.toString());
+        }
+        ((Closeable)tokenizer).close();
+        return results;
+    }
+}
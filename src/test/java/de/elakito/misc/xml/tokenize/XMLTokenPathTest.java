@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class XMLTokenPathTest extends Assert {
+    private Map<String, String> nsmap;
+
+    @Before
+    public void setup() {
+        nsmap = new HashMap<String, String>();
+        nsmap.put("A", "urn:a");
+        nsmap.put("B", "urn:b");
+    }
+
+    @Test
+    public void testChildSteps() throws Exception {
+        XMLTokenPath path = XMLTokenPath.compile("/A:a/B:b", nsmap);
+        assertTrue(accepts(path, new QName("urn:a", "a"), new QName("urn:b", "b")));
+        assertFalse(accepts(path, new QName("urn:a", "a"), new QName("urn:a", "b")));
+        assertFalse(accepts(path, new QName("urn:a", "a"), new QName("urn:a", "x"), new QName("urn:b", "b")));
+        assertFalse(accepts(path, new QName("urn:a", "a")));
+
+        // no descendant can match once a child step fails
+        long state = path.next(path.getInitialState(), new QName("urn:a", "x"));
+        assertEquals(0, state);
+    }
+
+    @Test
+    public void testMultipleDescendantSteps() throws Exception {
+        XMLTokenPath path = XMLTokenPath.compile("/a//b/*:c//d", nsmap);
+        assertTrue(accepts(path, q("a"), q("b"), q("c"), q("d")));
+        assertTrue(accepts(path, q("a"), q("x"), q("y"), q("b"), new QName("urn:b", "c"), q("x"), q("d")));
+        // the descendant step may be retried after a partial match
+        assertTrue(accepts(path, q("a"), q("b"), q("x"), q("b"), q("c"), q("d")));
+        assertFalse(accepts(path, q("a"), q("b"), q("x"), q("c"), q("d")));
+        assertFalse(accepts(path, q("x"), q("b"), q("c"), q("d")));
+    }
+
+    @Test
+    public void testWildcardSteps() throws Exception {
+        XMLTokenPath path = XMLTokenPath.compile("//*:*/B:c*d//B:?", nsmap);
+        assertTrue(accepts(path, q("x"), new QName("urn:b", "cd"), q("y"), new QName("urn:b", "e")));
+        assertTrue(accepts(path, q("x"), new QName("urn:b", "child"), new QName("urn:b", "e")));
+        assertFalse(accepts(path, q("x"), new QName("urn:b", "child"), new QName("urn:b", "ee")));
+        assertFalse(accepts(path, new QName("urn:b", "child"), new QName("urn:b", "e")));
+    }
+
+    @Test
+    public void testDeepPath() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        QName[] names = new QName[63];
+        for (int i = 0; i < names.length; i++) {
+            sb.append(i % 2 == 0 ? "//" : "/").append("e").append(i);
+            names[i] = q("e" + i);
+        }
+        XMLTokenPath path = XMLTokenPath.compile(sb.toString(), nsmap);
+        assertTrue(accepts(path, names));
+
+        try {
+            XMLTokenPath.compile(sb.append("/e63").toString(), nsmap);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPrefixesResolvedAtCompile() throws Exception {
+        XMLTokenPath path = XMLTokenPath.compile("//A:a", nsmap);
+        nsmap.put("A", "urn:x");
+        assertTrue(accepts(path, new QName("urn:a", "a")));
+        assertFalse(accepts(path, new QName("urn:x", "a")));
+        assertEquals("//A:a", path.toString());
+    }
+
+    @Test
+    public void testSharedAcrossIterators() throws Exception {
+        final byte[] data = ("<A:root xmlns:A='urn:a' xmlns:B='urn:b'>"
+            + "<B:b id='1'/><A:a id='2'/><B:b id='3'><A:a id='4'/></B:b></A:root>").getBytes();
+        final XMLTokenPath path = XMLTokenPath.compile("//B:b", nsmap);
+        final List<String> expected = tokenize(new XMLTokenIterator("//B:b", nsmap, 'u', 1, 
+                                                                    new ByteArrayInputStream(data), "utf-8", false));
+        assertEquals(2, expected.size());
+
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 100; j++) {
+                            assertEquals(expected, tokenize(new XMLTokenIterator(path, 'u', 1, 
+                                new InputStreamReader(new ByteArrayInputStream(data), "utf-8"))));
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    private static List<String> tokenize(XMLTokenIterator tokenizer) throws Exception {
+        List<String> results = new ArrayList<String>();
+        while (tokenizer.hasNext()) {
+            results.add((String)tokenizer.next());
+        }
+        tokenizer.close();
+        return results;
+    }
+
+    private static QName q(String name) {
+        return new QName(name);
+    }
+
+    private static boolean accepts(XMLTokenPath path, QName... names) {
+        long state = path.getInitialState();
+        for (QName name : names) {
+            state = path.next(state, name);
+        }
+        return path.isAccepted(state);
+    }
+}
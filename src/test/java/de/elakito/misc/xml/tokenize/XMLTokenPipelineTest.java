@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package de.elakito.misc.xml.tokenize;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class XMLTokenPipelineTest extends Assert {
+    private Map<String, String> nsmap;
+    private byte[] data;
+    private List<String> expected;
+
+    @Before
+    public void setup() throws Exception {
+        nsmap = new HashMap<String, String>();
+        nsmap.put("C", "urn:c");
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("<c:A xmlns:c='urn:c'>");
+        expected = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            sb.append("<c:B>").append(i).append("</c:B>");
+            expected.add("<c:B xmlns:c=\"urn:c\">" + i + "</c:B>");
+        }
+        sb.append("</c:A>");
+        data = sb.toString().getBytes("utf-8");
+    }
+
+    @Test
+    public void testConsumeOrdered() throws Exception {
+        final List<String> results = new ArrayList<String>();
+        XMLTokenPipeline pipeline = new XMLTokenPipeline(createTokenizer(data), 4, 16);
+        pipeline.start(new TokenHandler() {
+            public void handle(Object token, String path) throws Exception {
+                assertEquals("//C:B", path);
+                results.add((String)token);
+            }
+        }, 1);
+        pipeline.await();
+        pipeline.close();
+        assertEquals(expected, results);
+    }
+
+    @Test
+    public void testConsumeConcurrently() throws Exception {
+        final List<String> results = Collections.synchronizedList(new ArrayList<String>());
+        XMLTokenPipeline pipeline = new XMLTokenPipeline(createTokenizer(data), 2, 7);
+        pipeline.start(new TokenHandler() {
+            public void handle(Object token, String path) throws Exception {
+                results.add((String)token);
+            }
+        }, 4);
+        pipeline.await();
+        pipeline.close();
+        List<String> sorted = new ArrayList<String>(results);
+        Collections.sort(sorted);
+        List<String> sortedexp = new ArrayList<String>(expected);
+        Collections.sort(sortedexp);
+        assertEquals(sortedexp, sorted);
+    }
+
+    @Test
+    public void testHandlerFailure() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        XMLTokenPipeline pipeline = new XMLTokenPipeline(createTokenizer(data), 1, 1);
+        pipeline.start(new TokenHandler() {
+            public void handle(Object token, String path) throws Exception {
+                if (count.incrementAndGet() == 10) {
+                    throw new IllegalStateException("failed");
+                }
+            }
+        }, 2);
+        try {
+            pipeline.await();
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        pipeline.close();
+        assertTrue(count.get() < expected.size());
+    }
+
+    @Test
+    public void testParserFailure() throws Exception {
+        XMLTokenPipeline pipeline = new XMLTokenPipeline(createTokenizer("<c:A xmlns:c='urn:c'><c:B></c:A>".getBytes()), 1, 1);
+        pipeline.start(new TokenHandler() {
+            public void handle(Object token, String path) throws Exception {
+            }
+        }, 2);
+        try {
+            pipeline.await();
+            fail("ExecutionException expected");
+        } catch (ExecutionException e) {
+            // expected
+        }
+        pipeline.close();
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        final AtomicInteger count = new AtomicInteger();
+        XMLTokenPipeline pipeline = new XMLTokenPipeline(createTokenizer(data), 1, 1);
+        pipeline.start(new TokenHandler() {
+            public void handle(Object token, String path) throws Exception {
+                count.incrementAndGet();
+                Thread.sleep(1);
+            }
+        }, 1);
+        pipeline.close();
+        assertTrue(count.get() < expected.size());
+        // no failure is reported for the aborted pipeline
+        pipeline.await();
+    }
+
+    @Test
+    public void testViewRejected() throws Exception {
+        XMLTokenIterator tokenizer = createTokenizer(data);
+        tokenizer.setTokenView(true);
+        try {
+            new XMLTokenPipeline(tokenizer, 1, 1);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        tokenizer.close();
+    }
+
+    private XMLTokenIterator createTokenizer(byte[] data) throws Exception {
+        return new XMLTokenIterator("//C:B", nsmap, 'i', new ByteArrayInputStream(data), "utf-8");
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.tokenize;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class XMLTokenPublisherTest extends Assert {
+    private static final String DATA;
+
+    static {
+        StringBuilder sb = new StringBuilder("<A>");
+        for (int i = 0; i < 100; i++) {
+            sb.append("<B>").append(i).append("</B>");
+        }
+        sb.append("</A>");
+        DATA = sb.toString();
+    }
+
+    @Test
+    public void testRequestOneByOne() throws Exception {
+        TrackingReader in = new TrackingReader(DATA);
+        XMLTokenPublisher publisher = new XMLTokenPublisher(new XMLTokenIterator("//B", null, 'u', in));
+        TestSubscriber subscriber = new TestSubscriber(1);
+        publisher.subscribe(subscriber);
+        assertEquals(0, subscriber.tokens.size());
+        subscriber.subscription.request(1);
+        assertEquals(Collections.singletonList("0"), subscriber.tokens);
+        subscriber.subscription.request(2);
+        assertEquals(3, subscriber.tokens.size());
+        assertFalse(subscriber.completed);
+
+        subscriber.next = 1;
+        subscriber.subscription.request(1);
+        assertEquals(100, subscriber.tokens.size());
+        assertEquals("99", subscriber.tokens.get(99));
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+        assertTrue(in.closed);
+    }
+
+    @Test
+    public void testDemandLimitsParsing() throws Exception {
+        StringBuilder sb = new StringBuilder("<A>");
+        for (int i = 0; i < 20000; i++) {
+            sb.append("<B>").append(i).append("</B>");
+        }
+        sb.append("</A>");
+        TrackingReader in = new TrackingReader(sb.toString());
+        XMLTokenPublisher publisher = new XMLTokenPublisher(new XMLTokenIterator("//B", null, 'u', in));
+        TestSubscriber subscriber = new TestSubscriber(0);
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(5);
+        assertEquals(5, subscriber.tokens.size());
+        assertTrue(in.count < sb.length() / 2);
+
+        subscriber.subscription.cancel();
+        assertTrue(in.closed);
+        subscriber.subscription.request(5);
+        assertEquals(5, subscriber.tokens.size());
+        assertFalse(subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void testInvalidRequest() throws Exception {
+        XMLTokenPublisher publisher = new XMLTokenPublisher(new XMLTokenIterator("//B", null, 'u', 
+                                                                                 new StringReader(DATA)));
+        TestSubscriber subscriber = new TestSubscriber(0);
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+    }
+
+    @Test
+    public void testInvalidDocument() throws Exception {
+        XMLTokenPublisher publisher = new XMLTokenPublisher(new XMLTokenIterator("//B", null, 'u', 
+                                                                                 new StringReader("<A><B>1</B><B></A>")));
+        TestSubscriber subscriber = new TestSubscriber(0);
+        publisher.subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        assertEquals(Collections.singletonList("1"), subscriber.tokens);
+        assertTrue(subscriber.error instanceof XMLStreamException);
+        assertFalse(subscriber.completed);
+    }
+
+    @Test
+    public void testSingleSubscriber() throws Exception {
+        XMLTokenPublisher publisher = new XMLTokenPublisher(new XMLTokenIterator("//B", null, 'u', 
+                                                                                 new StringReader(DATA)));
+        publisher.subscribe(new TestSubscriber(0));
+        TestSubscriber subscriber = new TestSubscriber(0);
+        publisher.subscribe(subscriber);
+        assertTrue(subscriber.error instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            XMLTokenPublisher publisher = new XMLTokenPublisher(new XMLTokenIterator("//B", null, 'u', 
+                                                                new StringReader(DATA)), executor);
+            TestSubscriber subscriber = new TestSubscriber(1);
+            publisher.subscribe(subscriber);
+            // each token after the 3rd one requests the next one
+            subscriber.subscription.request(4);
+            assertTrue(subscriber.latch.await(10, TimeUnit.SECONDS));
+            assertEquals(100, subscriber.tokens.size());
+            assertTrue(subscriber.completed);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCancelReleasesStalledInput() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            StallingReader in = new StallingReader("<A><B>0</B><C/>");
+            XMLTokenPublisher publisher = new XMLTokenPublisher(new XMLTokenIterator("//B", null, 'u', in), executor);
+            TestSubscriber subscriber = new TestSubscriber(0);
+            publisher.subscribe(subscriber);
+            subscriber.subscription.request(2);
+            // the drain is blocked in reading the input after the first token
+            assertTrue(in.stalled.await(10, TimeUnit.SECONDS));
+            assertEquals(Collections.singletonList("0"), subscriber.tokens);
+
+            subscriber.subscription.cancel();
+            assertTrue(in.isClosed());
+            // the executor is released by the drain
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    // nop
+                }
+            }).get(10, TimeUnit.SECONDS);
+            assertEquals(1, subscriber.tokens.size());
+            assertFalse(subscriber.completed);
+            assertNull(subscriber.error);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static class TestSubscriber implements XMLTokenPublisher.Subscriber {
+        private final List<Object> tokens = Collections.synchronizedList(new ArrayList<Object>());
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private XMLTokenPublisher.Subscription subscription;
+        // the number of tokens requested within onNext
+        private volatile int next;
+        private volatile boolean completed;
+        private volatile Throwable error;
+
+        TestSubscriber(int next) {
+            this.next = next;
+        }
+
+        @Override
+        public void onSubscribe(XMLTokenPublisher.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Object token) {
+            tokens.add(token);
+            if (next > 0 && tokens.size() > 3) {
+                subscription.request(next);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+            latch.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+            latch.countDown();
+        }
+    }
+
+    /**
+     * A reader that blocks at the end of its data until it is closed.
+     */
+    private static class StallingReader extends Reader {
+        private final String data;
+        private final CountDownLatch stalled = new CountDownLatch(1);
+        private int pos;
+        private boolean closed;
+
+        StallingReader(String data) {
+            this.data = data;
+        }
+
+        @Override
+        public synchronized int read(char[] cbuf, int off, int len) throws IOException {
+            if (pos < data.length()) {
+                int n = Math.min(len, data.length() - pos);
+                data.getChars(pos, pos + n, cbuf, off);
+                pos += n;
+                return n;
+            }
+            stalled.countDown();
+            while (!closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            throw new IOException("closed");
+        }
+
+        @Override
+        public synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+
+        synchronized boolean isClosed() {
+            return closed;
+        }
+    }
+
+    private static class TrackingReader extends StringReader {
+        private int count;
+        private boolean closed;
+
+        TrackingReader(String s) {
+            super(s);
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            int n = super.read(cbuf, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            super.close();
+        }
+    }
+}
@@ -75,4 +75,43 @@ public class AttributedQNameTest extends Assert {
         assertTrue(aqname.matches(new QName("", "patricia")));
         assertFalse(aqname.matches(new QName("urn:bar", "peach")));
     }
+
+    @Test
+    public void testMatchesSpecialPatterns() {
+        AttributedQName aqname = new AttributedQName("urn:foo", "*");
+        assertTrue(aqname.matches(new QName("urn:foo", "petra")));
+        assertFalse(aqname.matches(new QName("urn:bar", "petra")));
+
+        aqname = new AttributedQName("urn:foo", "*et*");
+        assertTrue(aqname.matches(new QName("urn:foo", "petra")));
+        assertTrue(aqname.matches(new QName("urn:foo", "et")));
+        assertFalse(aqname.matches(new QName("urn:foo", "patricia")));
+
+        aqname = new AttributedQName("urn:foo", "**");
+        assertTrue(aqname.matches(new QName("urn:foo", "")));
+        assertTrue(aqname.matches(new QName("urn:foo", "petra")));
+
+        aqname = new AttributedQName("urn:foo", "p*a*a");
+        assertTrue(aqname.matches(new QName("urn:foo", "patricia")));
+        assertTrue(aqname.matches(new QName("urn:foo", "paaa")));
+        assertFalse(aqname.matches(new QName("urn:foo", "pa")));
+        assertFalse(aqname.matches(new QName("urn:foo", "patricias")));
+
+        aqname = new AttributedQName("urn:foo", "*?tr*");
+        assertTrue(aqname.matches(new QName("urn:foo", "petra")));
+        assertFalse(aqname.matches(new QName("urn:foo", "tra")));
+
+        // no regular expression interpretation of the other chars
+        aqname = new AttributedQName("urn:foo", "a+b*");
+        assertTrue(aqname.matches(new QName("urn:foo", "a+bc")));
+        assertFalse(aqname.matches(new QName("urn:foo", "aabc")));
+    }
+
+    @Test
+    public void testMatchesNamespaceNotInterned() {
+        AttributedQName aqname = new AttributedQName("urn:foo", "petra");
+        // the names given by the parser may not be interned
+        assertTrue(aqname.matches(new QName(new String("urn:foo"), new String("petra"))));
+        assertFalse(aqname.matches(new QName(new String("urn:fo"), "petra")));
+    }
 }
@@ -148,6 +148,43 @@ public class RecordableInputStreamTest extends Assert {
         verifyReadWithCharset(DATA_UTF8, "utf-8");
     }
 
+    @Test
+    public void testGetBytePositionForUTF8() throws Exception {
+        // 1, 2, 3, and 4 byte sequences where the last one is decoded into a surrogate pair
+        final String text = "a\u00e4\u20ac\ud834\udd1eb";
+        RecordableInputStream ris = new RecordableInputStream(new ByteArrayInputStream(text.getBytes("utf-8")), "utf-8");
+        assertTrue(ris.supportsBytePosition());
+        byte[] buf = new byte[64];
+        int n = ris.read(buf, 0, buf.length);
+        assertEquals(11, n);
+
+        assertEquals(0, ris.getBytePosition(0));
+        assertEquals(1, ris.getBytePosition(1));
+        assertEquals(3, ris.getBytePosition(2));
+        assertEquals(6, ris.getBytePosition(3));
+        assertEquals(10, ris.getBytePosition(5));
+        assertEquals(11, ris.getBytePosition(6));
+
+        assertEquals(text.substring(0, 3), new String(ris.getBytes(ris.getBytePosition(3)), "utf-8"));
+        assertEquals(text.substring(3), new String(ris.getBytes(ris.getBytePosition(3)), "utf-8"));
+
+        ris.close();
+    }
+
+    @Test
+    public void testGetBytePositionForISO8859() throws Exception {
+        RecordableInputStream ris = new RecordableInputStream(new ByteArrayInputStream(DATA_ISO8859), "iso-8859-1");
+        assertTrue(ris.supportsBytePosition());
+        byte[] buf = new byte[64];
+        ris.read(buf, 0, buf.length);
+        assertEquals(32, ris.getBytePosition(32));
+        ris.close();
+
+        ris = new RecordableInputStream(new ByteArrayInputStream(DATA_ISO8859), "utf-16");
+        assertFalse(ris.supportsBytePosition());
+        ris.close();
+    }
+
     private static void verifyReadWithCharset(byte[] data, String charset) throws Exception {
         RecordableInputStream rin = new RecordableInputStream(new ByteArrayInputStream(data), charset);
         assertEquals(0, rin.size());
@@ -114,4 +114,35 @@ public class RecordableReaderTest extends Assert {
 
         rin.close();
     }
+
+    @Test
+    public void testReadAndGetTextViews() throws Exception {
+        RecordableReader rin = new RecordableReader(new StringReader(DATA));
+        char[] buf = new char[64];
+
+        int n = rin.read(buf, 0, buf.length);
+        assertEquals(64, n);
+
+        // the view remains valid until the next consumption
+        CharSequence view = rin.getTextView(32);
+        assertEquals(32, rin.size());
+        assertEquals(DATA.substring(0, 32), view.toString());
+        assertEquals(DATA.charAt(5), view.charAt(5));
+        assertEquals(DATA.substring(8, 16), view.subSequence(8, 16).toString());
+
+        rin.record();
+        n = rin.read(buf, 0, buf.length);
+        assertEquals(64, n);
+        assertEquals(DATA.substring(0, 32), view.toString());
+        assertEquals(96, rin.size());
+
+        // discard the next 32 bytes without materializing them
+        rin.discard(32);
+        assertEquals(64, rin.size());
+
+        view = rin.getTextView(64);
+        assertEquals(DATA.substring(64, 128), view.toString());
+
+        rin.close();
+    }
 }
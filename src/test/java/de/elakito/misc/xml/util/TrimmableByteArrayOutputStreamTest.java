@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class TrimmableByteArrayOutputStreamTest extends Assert {
+    private static final byte[] DATA = 
+        "abcdefghijklmnopqrstuvwxyz0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ".getBytes();
+
+    @Test
+    public void testWriteAndTrimAcrossChunks() throws Exception {
+        // use chunks of 8 bytes
+        TrimmableByteArrayOutputStream buf = new TrimmableByteArrayOutputStream(3);
+        StringBuilder expected = new StringBuilder();
+        int pos = 0;
+        for (int i = 0; i < 20; i++) {
+            // write 13 bytes and consume 11 bytes so that the buffer keeps sliding over the chunks
+            int off = (i * 13) % (DATA.length - 13);
+            buf.write(DATA, off, 13);
+            expected.append(new String(DATA, off, 13, "us-ascii"));
+            assertEquals(expected.length() - pos, buf.size());
+            assertEquals(expected.substring(pos), new String(buf.toByteArray(), "us-ascii"));
+
+            assertEquals(expected.substring(pos, pos + 11), buf.toString(0, 11, "us-ascii"));
+            for (int j = 0; j < 11; j++) {
+                assertEquals(expected.charAt(pos + j), (char)buf.byteAt(j));
+            }
+            buf.trim(11, 0);
+            pos += 11;
+        }
+    }
+
+    @Test
+    public void testGetBytesAfterTrimmingAll() throws Exception {
+        TrimmableByteArrayOutputStream buf = new TrimmableByteArrayOutputStream(3);
+        for (int i = 0; i < 30; i++) {
+            buf.write(DATA[i]);
+        }
+        buf.trim(30, 0);
+        assertEquals(0, buf.size());
+        assertEquals(0, buf.toByteArray().length);
+
+        buf.write(DATA, 0, DATA.length);
+        byte[] b = new byte[20];
+        buf.getBytes(10, 30, b, 0);
+        assertEquals(new String(DATA, 10, 20, "us-ascii"), new String(b, "us-ascii"));
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements. See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership. The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package de.elakito.misc.xml.util;
+
+import java.io.StringWriter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * 
+ */
+public class TrimmableCharArrayWriterTest extends Assert {
+    private static final String DATA = "abcdefghijklmnopqrstuvwxyz0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    @Test
+    public void testWriteAndTrimAcrossChunks() throws Exception {
+        // use chunks of 8 chars
+        TrimmableCharArrayWriter buf = new TrimmableCharArrayWriter(3);
+        StringBuilder expected = new StringBuilder();
+        int pos = 0;
+        for (int i = 0; i < 20; i++) {
+            // write 13 chars and consume 11 chars so that the buffer keeps sliding over the chunks
+            int off = (i * 13) % (DATA.length() - 13);
+            buf.write(DATA.toCharArray(), off, 13);
+            expected.append(DATA, off, off + 13);
+            assertEquals(expected.length() - pos, buf.size());
+            assertEquals(expected.substring(pos), buf.toString());
+
+            assertEquals(expected.substring(pos, pos + 11), buf.toString(0, 11));
+            buf.trim(11, 0);
+            pos += 11;
+            assertEquals(expected.substring(pos), new String(buf.toCharArray()));
+        }
+    }
+
+    @Test
+    public void testWriteCharsAndStrings() throws Exception {
+        TrimmableCharArrayWriter buf = new TrimmableCharArrayWriter(3);
+        buf.write('<');
+        buf.write(DATA, 0, 20);
+        buf.write('>');
+        String expected = "<" + DATA.substring(0, 20) + ">";
+        assertEquals(expected, buf.toString());
+        for (int i = 0; i < expected.length(); i++) {
+            assertEquals(expected.charAt(i), buf.charAt(i));
+        }
+
+        StringBuilder sb = new StringBuilder();
+        buf.appendTo(sb, 3, 15);
+        assertEquals(expected.substring(3, 18), sb.toString());
+
+        StringWriter w = new StringWriter();
+        buf.writeTo(w, 5, 12);
+        assertEquals(expected.substring(5, 17), w.toString());
+
+        char[] c = new char[10];
+        buf.getChars(6, 16, c, 0);
+        assertEquals(expected.substring(6, 16), new String(c));
+    }
+
+    @Test
+    public void testGrowAfterTrimmingAll() throws Exception {
+        TrimmableCharArrayWriter buf = new TrimmableCharArrayWriter(3);
+        buf.write(DATA, 0, 30);
+        buf.trim(30, 0);
+        assertEquals(0, buf.size());
+        assertEquals("", buf.toString());
+
+        // grow the ring of the chunks beyond its initial capacity after trimming
+        buf.write(DATA, 0, 5);
+        buf.trim(3, 0);
+        buf.write(DATA, 5, DATA.length() - 5);
+        assertEquals(DATA.substring(3), buf.toString());
+
+        buf.trim(2, 4);
+        assertEquals(DATA.substring(5, DATA.length() - 4), buf.toString());
+    }
+}